@@ -1,11 +1,15 @@
 package com.portfolio.common.config;
 
+import com.portfolio.common.util.TextNormalizer;
+import com.portfolio.wallet.model.BigDecimalConverter;
+import com.portfolio.wallet.model.Transaction;
 import com.portfolio.wallet.model.YearMonthConverter;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.domain.AuditorAware;
 import org.springframework.data.mongodb.config.EnableMongoAuditing;
 import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertCallback;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
 
 import java.util.Arrays;
@@ -38,12 +42,30 @@ public class MongoConfig {
     /**
      * Custom converters for MongoDB
      * Supports YearMonth conversion
+     * BigDecimal được lưu dạng Decimal128 (thay vì String) để $sum/$inc chạy phía server
      */
     @Bean
     public MongoCustomConversions customConversions() {
         return new MongoCustomConversions(Arrays.asList(
                 new YearMonthConverter.YearMonthToStringConverter(),
-                new YearMonthConverter.StringToYearMonthConverter()
+                new YearMonthConverter.StringToYearMonthConverter(),
+                new BigDecimalConverter.BigDecimalToDecimal128Converter(),
+                new BigDecimalConverter.Decimal128ToBigDecimalConverter()
         ));
     }
+    
+    /**
+     * Keep Transaction.noteSearch in sync with note on every save
+     */
+    @Bean
+    public BeforeConvertCallback<Transaction> transactionNoteSearchCallback() {
+        // Anonymous class (không dùng lambda) để Spring resolve được generic type của callback
+        return new BeforeConvertCallback<Transaction>() {
+            @Override
+            public Transaction onBeforeConvert(Transaction transaction, String collection) {
+                transaction.setNoteSearch(TextNormalizer.fold(transaction.getNote()));
+                return transaction;
+            }
+        };
+    }
 }
@@ -0,0 +1,55 @@
+package com.portfolio.common.util;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Utility class for normalizing Vietnamese text
+ * 
+ * "Cà phê Đà Lạt" -> "ca phe da lat": bỏ dấu, chữ thường, gộp khoảng trắng.
+ * Dùng để so khớp/tìm kiếm không phân biệt dấu.
+ */
+public class TextNormalizer {
+    
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    
+    /**
+     * Remove diacritics, lowercase and collapse whitespace
+     * 
+     * @return Folded text (null nếu input null)
+     */
+    public static String fold(String text) {
+        if (text == null) {
+            return null;
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        String stripped = COMBINING_MARKS.matcher(decomposed).replaceAll("")
+                .replace('đ', 'd')
+                .replace('Đ', 'D');
+        return WHITESPACE.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+    
+    /**
+     * Fold each character independently (same length as input)
+     * 
+     * Vị trí ký tự giữ nguyên nên có thể match regex trên chuỗi đã fold rồi cắt trên chuỗi gốc.
+     */
+    public static String foldPreservingLength(String text) {
+        if (text == null) {
+            return null;
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == 'đ' || c == 'Đ') {
+                result.append('d');
+                continue;
+            }
+            String decomposed = Normalizer.normalize(String.valueOf(c), Normalizer.Form.NFD);
+            result.append(Character.toLowerCase(decomposed.charAt(0)));
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,108 @@
+package com.portfolio.common.util;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded in-memory cache with per-entry TTL (LRU eviction)
+ * 
+ * Thread-safe. Giá trị được load ngoài lock; nếu key đó bị invalidate trong lúc load thì kết quả
+ * load đó không được lưu vào cache (tránh ghi đè dữ liệu cũ sau khi đã invalidate).
+ * Theo dõi theo từng key: invalidate user A không làm mất kết quả load của user B.
+ */
+public class TtlCache<K, V> {
+    
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    
+    /**
+     * key → token của lần load đang chạy; invalidate xóa token nên load đó không được lưu
+     * (chỉ chứa key đang load nên không cần giới hạn kích thước)
+     */
+    private final Map<K, Object> loadTokens = new HashMap<>();
+    
+    public TtlCache(int maxSize, Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    /**
+     * @return Cached value, null nếu không có hoặc đã hết hạn
+     */
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt() > 0) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value();
+    }
+    
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+    }
+    
+    /**
+     * Get cached value or load it (loader chạy ngoài lock)
+     */
+    public V getOrLoad(K key, Function<K, V> loader) {
+        Object token = new Object();
+        synchronized (this) {
+            V cached = get(key);
+            if (cached != null) {
+                return cached;
+            }
+            loadTokens.put(key, token);
+        }
+        
+        V value = null;
+        try {
+            value = loader.apply(key);
+            return value;
+        } finally {
+            synchronized (this) {
+                if (loadTokens.remove(key, token) && value != null) {
+                    put(key, value);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Remove and return the value (null nếu không có hoặc đã hết hạn)
+     * Chỉ một caller nhận được value, dùng cho giá trị dùng một lần (vd. draft token).
+     */
+    public synchronized V remove(K key) {
+        V value = get(key);
+        invalidate(key);
+        return value;
+    }
+    
+    public synchronized void invalidate(K key) {
+        loadTokens.remove(key);
+        entries.remove(key);
+    }
+    
+    public synchronized void invalidateAll() {
+        loadTokens.clear();
+        entries.clear();
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    private record Entry<V>(V value, long expiresAt) {
+    }
+}
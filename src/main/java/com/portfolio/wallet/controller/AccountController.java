@@ -15,6 +15,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.web.PageableDefault;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
 
@@ -27,6 +28,7 @@ import org.springframework.web.bind.annotation.*;
  * - GET /api/v1/wallet/accounts/{id} - Get account
  * - PUT /api/v1/wallet/accounts/{id} - Update account
  * - DELETE /api/v1/wallet/accounts/{id} - Delete account (soft delete)
+ * - POST /api/v1/wallet/accounts/{id}/rebuild-balance - Rebuild balance ledger from history (ADMIN only)
  */
 @Slf4j
 @RestController
@@ -118,4 +120,16 @@ public class AccountController {
         AccountResponse account = accountService.adjustBalance(id, request, userId);
         return ResponseEntity.ok(ApiResponse.success(account, "Account balance adjusted successfully"));
     }
+
+    /**
+     * Rebuild account balance ledger from transaction history (ADMIN only)
+     *
+     * POST /api/v1/wallet/accounts/{id}/rebuild-balance
+     */
+    @PostMapping("/{id}/rebuild-balance")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ApiResponse<AccountResponse>> rebuildBalance(@PathVariable String id) {
+        AccountResponse account = accountService.rebuildBalance(id);
+        return ResponseEntity.ok(ApiResponse.success(account, "Account balance rebuilt successfully"));
+    }
 }
@@ -2,21 +2,41 @@ package com.portfolio.wallet.controller;
 
 import com.portfolio.common.annotation.RateLimited;
 import com.portfolio.common.dto.ApiResponse;
+import com.portfolio.wallet.dto.request.CommitDraftRequest;
+import com.portfolio.wallet.dto.request.ParseTransactionBatchRequest;
 import com.portfolio.wallet.dto.request.ParseTransactionRequest;
+import com.portfolio.wallet.dto.response.NLPCommitResponse;
 import com.portfolio.wallet.dto.response.NLPResponse;
+import com.portfolio.wallet.dto.response.NLPUsageResponse;
+import com.portfolio.wallet.service.NLPDraftCommitService;
 import com.portfolio.wallet.service.NLPService;
+import com.portfolio.wallet.service.NLPUsageMeter;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * NLP Controller for parsing transaction text using AI
  * 
  * Endpoints:
  * - POST /api/v1/nlp/parse-transaction - Parse text input
+ * - POST /api/v1/nlp/parse-transaction/stream - Parse text input, progressive SSE events
+ * - POST /api/v1/nlp/parse-transaction/batch - Parse many lines in one call
+ * - POST /api/v1/nlp/commit - Create the entity of a draft (draftToken)
+ * - GET /api/v1/nlp/usage/top - Top AI consumers of a day (ADMIN only)
  */
 @Slf4j
 @RestController
@@ -25,25 +45,130 @@ import org.springframework.web.bind.annotation.*;
 public class NLPController {
     
     private final NLPService nlpService;
+    private final NLPDraftCommitService nlpDraftCommitService;
+    private final NLPUsageMeter nlpUsageMeter;
     
     /**
      * Parse transaction text input
      * 
      * @param request Parse request with text input
      * @param authentication Authentication object (contains user info)
-     * @return NLP response with draft or options
+     * @return NLP response with draft or options (async: servlet thread được trả lại trong lúc chờ Gemini)
      */
     @PostMapping("/parse-transaction")
     @RateLimited(RateLimited.RateLimitType.WALLET_API)
-    public ResponseEntity<ApiResponse<NLPResponse>> parseTransaction(
+    public CompletableFuture<ResponseEntity<ApiResponse<NLPResponse>>> parseTransaction(
             @Valid @RequestBody ParseTransactionRequest request,
             Authentication authentication) {
         String userId = authentication.getName();
         
         log.debug("Parsing transaction text for user: {}, text: {}", userId, request.getText());
         
-        NLPResponse response = nlpService.parseTransaction(request, userId);
+        return nlpService.parseTransaction(request, userId)
+                .thenApply(response -> ResponseEntity.ok(ApiResponse.success(response, "Text parsed successfully")));
+    }
+    
+    /**
+     * Parse transaction text input with Server-Sent Events
+     * 
+     * Events: intent ({intent, confidence}) → entities (entities từng phần, có thể nhiều lần) →
+     * result (ApiResponse<NLPResponse> như parse-transaction) hoặc error. Servlet thread được trả lại
+     * ngay, event được gửi từ NLPExecutor (không chiếm thread nhận stream của Gemini).
+     * 
+     * @param request Parse request with text input
+     * @param authentication Authentication object (contains user info)
+     * @return SSE stream (timeout = spring.mvc.async.request-timeout)
+     */
+    @PostMapping(value = "/parse-transaction/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @RateLimited(RateLimited.RateLimitType.WALLET_API)
+    public SseEmitter parseTransactionStream(
+            @Valid @RequestBody ParseTransactionRequest request,
+            Authentication authentication) {
+        String userId = authentication.getName();
+        
+        log.debug("Streaming parse of transaction text for user: {}, text: {}", userId, request.getText());
         
-        return ResponseEntity.ok(ApiResponse.success(response, "Text parsed successfully"));
+        SseEmitter emitter = new SseEmitter();
+        nlpService.streamParseTransaction(request, userId, (event, data) -> send(emitter, event, data))
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        log.error("Streaming parse failed for user: {}", userId, error);
+                        send(emitter, "error", ApiResponse.error("INTERNAL_ERROR", "Failed to parse text"));
+                    } else {
+                        send(emitter, "result", ApiResponse.success(response, "Text parsed successfully"));
+                    }
+                    emitter.complete();
+                });
+        return emitter;
+    }
+    
+    /**
+     * Send one SSE event; client đã ngắt kết nối thì bỏ qua
+     */
+    private void send(SseEmitter emitter, String event, Object data) {
+        try {
+            emitter.send(SseEmitter.event().name(event).data(data, MediaType.APPLICATION_JSON));
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Dropping NLP stream event {}: {}", event, e.getMessage());
+        }
+    }
+    
+    /**
+     * Parse many transaction lines in one call
+     * 
+     * @param request Batch request (tối đa 50 dòng)
+     * @param authentication Authentication object (contains user info)
+     * @return NLP responses, cùng thứ tự với lines
+     */
+    @PostMapping("/parse-transaction/batch")
+    @RateLimited(RateLimited.RateLimitType.WALLET_API)
+    public CompletableFuture<ResponseEntity<ApiResponse<List<NLPResponse>>>> parseTransactionBatch(
+            @Valid @RequestBody ParseTransactionBatchRequest request,
+            Authentication authentication) {
+        String userId = authentication.getName();
+        
+        log.debug("Batch parsing {} lines for user: {}", request.getLines().size(), userId);
+        
+        return nlpService.parseTransactionBatch(request, userId)
+                .thenApply(responses -> ResponseEntity.ok(ApiResponse.success(responses, "Text parsed successfully")));
+    }
+    
+    /**
+     * Commit a parsed draft
+     * 
+     * @param request draftToken từ NLPResponse (chỉ có khi draft đã đủ field, dùng một lần)
+     * @param authentication Authentication object (contains user info)
+     * @return Entity vừa tạo theo draftType
+     */
+    @PostMapping("/commit")
+    @RateLimited(RateLimited.RateLimitType.WALLET_API)
+    public ResponseEntity<ApiResponse<NLPCommitResponse>> commitDraft(
+            @Valid @RequestBody CommitDraftRequest request,
+            Authentication authentication) {
+        String userId = authentication.getName();
+        
+        log.debug("Committing NLP draft for user: {}", userId);
+        
+        NLPCommitResponse response = nlpDraftCommitService.commit(request.getDraftToken(), userId);
+        return ResponseEntity.ok(ApiResponse.success(response, "Draft committed successfully"));
+    }
+    
+    /**
+     * Top AI consumers of a day (ADMIN only)
+     * 
+     * @param date Ngày (yyyy-MM-dd, giờ VN), mặc định hôm nay
+     * @param limit Số user tối đa (1-100)
+     * @return Usage theo user, nhiều token nhất trước
+     */
+    @GetMapping("/usage/top")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<ApiResponse<List<NLPUsageResponse>>> getTopUsage(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate date,
+            @RequestParam(defaultValue = "20") int limit) {
+        LocalDate day = date != null ? date : LocalDate.now(ZoneId.of("Asia/Ho_Chi_Minh"));
+        List<NLPUsageResponse> usage = nlpUsageMeter.topConsumers(day, Math.max(1, Math.min(limit, 100))).stream()
+                .map(NLPUsageResponse::from)
+                .toList();
+        return ResponseEntity.ok(ApiResponse.success(usage, "AI usage retrieved successfully"));
     }
 }
@@ -5,6 +5,7 @@ import com.portfolio.common.dto.ApiResponse;
 import com.portfolio.wallet.dto.request.CreateTransactionRequest;
 import com.portfolio.wallet.dto.request.TransactionFilters;
 import com.portfolio.wallet.dto.request.UpdateTransactionRequest;
+import com.portfolio.wallet.dto.response.CursorPageResponse;
 import com.portfolio.wallet.dto.response.TransactionResponse;
 import com.portfolio.wallet.service.TransactionService;
 import jakarta.validation.Valid;
@@ -24,6 +25,7 @@ import org.springframework.web.bind.annotation.*;
  * 
  * Endpoints:
  * - GET /api/v1/wallet/transactions - List transactions (with filters, pagination, sort)
+ * - GET /api/v1/wallet/transactions?pagination=cursor - List transactions (keyset pagination)
  * - POST /api/v1/wallet/transactions - Create transaction
  * - GET /api/v1/wallet/transactions/{id} - Get transaction
  * - PUT /api/v1/wallet/transactions/{id} - Update transaction
@@ -51,6 +53,24 @@ public class TransactionController {
         return ResponseEntity.ok(ApiResponse.success(transactions, "Transactions retrieved successfully"));
     }
     
+    /**
+     * Get transactions with cursor (keyset) pagination
+     * Dùng cho infinite scroll: gửi lại nextCursor để lấy trang tiếp theo
+     */
+    @GetMapping(params = "pagination=cursor")
+    @RateLimited(RateLimited.RateLimitType.WALLET_API)
+    public ResponseEntity<ApiResponse<CursorPageResponse<TransactionResponse>>> getTransactionsByCursor(
+            Authentication authentication,
+            @ModelAttribute TransactionFilters filters,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
+        String userId = authentication.getName();
+        CursorPageResponse<TransactionResponse> transactions =
+                transactionService.getTransactionsByCursor(userId, filters, cursor, size, includeTotal);
+        return ResponseEntity.ok(ApiResponse.success(transactions, "Transactions retrieved successfully"));
+    }
+    
     /**
      * Get transaction by id
      */
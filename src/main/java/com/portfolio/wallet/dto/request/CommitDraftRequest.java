@@ -0,0 +1,20 @@
+package com.portfolio.wallet.dto.request;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Request DTO for committing an NLP draft
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommitDraftRequest {
+    
+    @NotBlank(message = "Draft token is required")
+    private String draftToken; // NLPResponse.draftToken
+}
@@ -0,0 +1,29 @@
+package com.portfolio.wallet.dto.request;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Request DTO for parsing many transaction lines in one call
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ParseTransactionBatchRequest {
+    
+    @NotEmpty(message = "Lines are required")
+    @Size(max = 50, message = "At most 50 lines per batch")
+    private List<@NotBlank(message = "Line must not be blank") String> lines;
+    
+    private String timezone; // Optional, default to "Asia/Ho_Chi_Minh"
+    
+    private String locale; // Optional, default to "vi-VN"
+}
@@ -21,4 +21,6 @@ public class ParseTransactionRequest {
     private String timezone; // Optional, default to "Asia/Ho_Chi_Minh"
     
     private String locale; // Optional, default to "vi-VN"
+    
+    private String sessionId; // Optional, sessionId từ response trước khi text là câu trả lời bổ sung
 }
@@ -36,7 +36,7 @@ public class AccountResponse {
     
     /**
      * Convert Account entity to AccountResponse
-     * Note: currentBalance should be calculated separately using AccountService.calculateCurrentBalance()
+     * Note: currentBalance should be calculated separately using AccountBalanceService.getBalance()
      */
     public static AccountResponse from(Account account) {
         return AccountResponse.builder()
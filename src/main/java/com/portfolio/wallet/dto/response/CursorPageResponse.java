@@ -0,0 +1,36 @@
+package com.portfolio.wallet.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Response DTO for cursor (keyset) pagination
+ * 
+ * Client gửi lại nextCursor để lấy trang tiếp theo, chi phí mỗi trang không phụ thuộc độ sâu.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageResponse<T> {
+    
+    private List<T> content;
+    
+    private int size;
+    
+    /**
+     * Opaque token cho trang tiếp theo (null nếu hết dữ liệu)
+     */
+    private String nextCursor;
+    
+    private boolean hasNext;
+    
+    /**
+     * Tổng số phần tử, chỉ có khi client yêu cầu (includeTotal=true)
+     */
+    private Long totalElements;
+}
@@ -0,0 +1,24 @@
+package com.portfolio.wallet.dto.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result of committing an NLP draft
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NLPCommitResponse {
+    
+    private ConfirmDraftData.DraftType draftType;
+    
+    /**
+     * Entity vừa tạo: TransactionResponse, ReceivableResponse, LiabilityResponse,
+     * SettlementResponse hoặc AccountResponse (BALANCE_ADJUSTMENT) theo draftType
+     */
+    private Object data;
+}
@@ -45,6 +45,16 @@ public class NLPResponse {
     private Double confidence; // 0.0 to 1.0
     private String message; // User-friendly message
     
+    /**
+     * Session còn mở khi draft thiếu field; gửi lại kèm câu trả lời để server ghép vào draft
+     */
+    private String sessionId;
+    
+    /**
+     * Draft đã đủ field: gửi token này tới POST /api/v1/nlp/commit để tạo entity ngay
+     */
+    private String draftToken;
+    
     @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, property = "type", visible = true)
     @JsonSubTypes({
         @JsonSubTypes.Type(value = ConfirmDraftData.class, name = "CONFIRM_DRAFT"),
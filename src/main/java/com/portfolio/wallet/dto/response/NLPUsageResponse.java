@@ -0,0 +1,52 @@
+package com.portfolio.wallet.dto.response;
+
+import com.portfolio.wallet.model.NLPUsage;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Daily AI usage of one user (admin)
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class NLPUsageResponse {
+
+    private String userId;
+
+    /**
+     * yyyy-MM-dd (giờ VN)
+     */
+    private String date;
+
+    private long calls;
+
+    private long promptTokens;
+
+    private long outputTokens;
+
+    private long totalTokens;
+
+    private long promptChars;
+
+    private long responseChars;
+
+    private long avgLatencyMs;
+
+    public static NLPUsageResponse from(NLPUsage usage) {
+        return NLPUsageResponse.builder()
+                .userId(usage.getUserId())
+                .date(usage.getDate())
+                .calls(usage.getCalls())
+                .promptTokens(usage.getPromptTokens())
+                .outputTokens(usage.getOutputTokens())
+                .totalTokens(usage.getTotalTokens())
+                .promptChars(usage.getPromptChars())
+                .responseChars(usage.getResponseChars())
+                .avgLatencyMs(usage.getCalls() > 0 ? usage.getTotalLatencyMs() / usage.getCalls() : 0)
+                .build();
+    }
+}
@@ -0,0 +1,53 @@
+package com.portfolio.wallet.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Account balance ledger entity
+ * 
+ * Số dư hiện tại của một account, được duy trì tăng dần ($inc) mỗi khi có thay đổi
+ * transaction/receivable/liability liên quan, thay vì tính lại từ toàn bộ lịch sử.
+ * id = accountId
+ * 
+ * reconciledAt = lần cuối balance được đối chiếu với lịch sử; null = entry được tạo bởi $inc
+ * trước khi kịp khởi tạo (chỉ chứa phần chênh lệch), cần rebuild trước khi dùng.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "account_balances")
+public class AccountBalance {
+    
+    @Id
+    private String id; // Account ID
+    
+    @Indexed
+    private String userId; // User ID từ JWT token
+    
+    /**
+     * Lưu dạng Decimal128 để MongoDB có thể $inc trực tiếp
+     */
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal balance;
+    
+    /**
+     * Tăng mỗi lần ghi, dùng để rebuild phát hiện write chen vào giữa lúc tính lại
+     */
+    private Long version;
+    
+    private LocalDateTime reconciledAt;
+    
+    private LocalDateTime updatedAt;
+}
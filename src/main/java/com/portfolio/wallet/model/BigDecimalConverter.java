@@ -0,0 +1,53 @@
+package com.portfolio.wallet.model;
+
+import org.bson.types.Decimal128;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Converters for BigDecimal to/from Decimal128 for MongoDB
+ * 
+ * Mặc định Spring Data lưu BigDecimal dạng String nên không thể $sum/$inc hay so sánh số học.
+ * Dữ liệu cũ dạng String vẫn đọc được (String -> BigDecimal), và được chuyển dần bởi
+ * Decimal128MigrationService.
+ */
+public class BigDecimalConverter {
+    
+    @WritingConverter
+    public static class BigDecimalToDecimal128Converter implements Converter<BigDecimal, Decimal128> {
+        @Override
+        public Decimal128 convert(BigDecimal source) {
+            return new Decimal128(source.round(MathContext.DECIMAL128));
+        }
+    }
+    
+    @ReadingConverter
+    public static class Decimal128ToBigDecimalConverter implements Converter<Decimal128, BigDecimal> {
+        @Override
+        public BigDecimal convert(Decimal128 source) {
+            return toBigDecimal(source);
+        }
+    }
+    
+    /**
+     * Convert a raw value from an aggregation result (Decimal128, Number, String) to BigDecimal
+     * null -> BigDecimal.ZERO
+     */
+    public static BigDecimal toBigDecimal(Object value) {
+        if (value == null) {
+            return BigDecimal.ZERO;
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal;
+        }
+        if (value instanceof Decimal128 decimal) {
+            // toString thay vì bigDecimalValue() vì Decimal128 "-0" sẽ ném exception
+            return new BigDecimal(decimal.toString());
+        }
+        return new BigDecimal(value.toString());
+    }
+}
@@ -7,6 +7,8 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -24,6 +26,10 @@ import java.time.YearMonth;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "budgets")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_deleted_idx", def = "{'userId': 1, 'deleted': 1}"),
+        @CompoundIndex(name = "user_month_category_deleted_idx", def = "{'userId': 1, 'month': 1, 'categoryId': 1, 'deleted': 1}")
+})
 public class Budget {
     
     @Id
@@ -7,6 +7,8 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -22,6 +24,11 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "categories")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_deleted_idx", def = "{'userId': 1, 'deleted': 1}"),
+        @CompoundIndex(name = "system_deleted_idx", def = "{'isSystem': 1, 'deleted': 1}"),
+        @CompoundIndex(name = "name_user_deleted_idx", def = "{'name': 1, 'userId': 1, 'deleted': 1}")
+})
 public class Category {
     
     @Id
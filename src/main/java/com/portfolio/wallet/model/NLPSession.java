@@ -0,0 +1,59 @@
+package com.portfolio.wallet.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Multi-turn NLP session
+ *
+ * Giữ kết quả parse (intent + entities) của một draft còn thiếu field, để câu trả lời tiếp theo
+ * của user được ghép vào draft ngay trên server thay vì parse lại từ đầu.
+ * Chỉ lưu vào Mongo khi bật nlp.session.mongo-spill; TTL index tự xóa document hết hạn.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "nlp_sessions")
+public class NLPSession {
+
+    @Id
+    private String id;
+
+    private String userId;
+
+    /**
+     * Text gốc của user (dùng khi phải parse lại bằng Gemini)
+     */
+    private String text;
+
+    private String intent;
+
+    private Double confidence;
+
+    /**
+     * Entities cùng format với response của Gemini (amount, accountMatch, categoryMatch...)
+     */
+    private Map<String, Object> entities;
+
+    /**
+     * needConfirmFields của draft gần nhất
+     */
+    private List<String> pendingFields;
+
+    private String timezone;
+
+    private String locale;
+
+    @Indexed(expireAfterSeconds = 0)
+    private LocalDateTime expiresAt;
+}
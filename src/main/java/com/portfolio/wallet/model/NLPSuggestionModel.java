@@ -0,0 +1,41 @@
+package com.portfolio.wallet.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Per-user token frequency model for category/account suggestion
+ *
+ * Đếm số lần mỗi token (note đã bỏ dấu) đi cùng categoryId / accountId trong lịch sử transaction
+ * của user. Được train từ lịch sử lần đầu, sau đó $inc mỗi khi tạo transaction.
+ * id = userId
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "nlp_suggestion_models")
+public class NLPSuggestionModel {
+
+    @Id
+    private String id;
+
+    /**
+     * token → categoryId → count
+     */
+    private Map<String, Map<String, Integer>> categoryCounts;
+
+    /**
+     * token → accountId → count
+     */
+    private Map<String, Map<String, Integer>> accountCounts;
+
+    private LocalDateTime trainedAt;
+}
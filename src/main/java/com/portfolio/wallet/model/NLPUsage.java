@@ -0,0 +1,54 @@
+package com.portfolio.wallet.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Daily AI (Gemini) usage of one user
+ *
+ * Cộng dồn ($inc) từ NLPUsageMeter theo từng đợt flush. id = userId:yyyy-MM-dd (ngày theo giờ VN)
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "nlp_usage")
+@CompoundIndex(name = "date_tokens_idx", def = "{'date': 1, 'totalTokens': -1}")
+public class NLPUsage {
+
+    @Id
+    private String id;
+
+    private String userId;
+
+    /**
+     * yyyy-MM-dd
+     */
+    private String date;
+
+    private long calls;
+
+    private long promptTokens;
+
+    private long outputTokens;
+
+    private long totalTokens;
+
+    private long promptChars;
+
+    private long responseChars;
+
+    /**
+     * Tổng latency của các call (avg = totalLatencyMs / calls)
+     */
+    private long totalLatencyMs;
+
+    private LocalDateTime updatedAt;
+}
@@ -7,6 +7,8 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -23,6 +25,11 @@ import java.time.LocalDateTime;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "settlements")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_deleted_type_idx", def = "{'userId': 1, 'deleted': 1, 'type': 1}"),
+        @CompoundIndex(name = "receivable_deleted_idx", def = "{'receivableId': 1, 'deleted': 1}"),
+        @CompoundIndex(name = "liability_deleted_idx", def = "{'liabilityId': 1, 'deleted': 1}")
+})
 public class Settlement {
 
     @Id
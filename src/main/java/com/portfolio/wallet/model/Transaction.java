@@ -7,6 +7,8 @@ import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
@@ -24,6 +26,13 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "transactions")
+@CompoundIndexes({
+        @CompoundIndex(name = "user_deleted_occurred_idx", def = "{'userId': 1, 'deleted': 1, 'occurredAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "account_deleted_idx", def = "{'accountId': 1, 'deleted': 1}"),
+        @CompoundIndex(name = "from_account_deleted_idx", def = "{'fromAccountId': 1, 'deleted': 1}"),
+        @CompoundIndex(name = "to_account_deleted_idx", def = "{'toAccountId': 1, 'deleted': 1}"),
+        @CompoundIndex(name = "category_deleted_idx", def = "{'categoryId': 1, 'deleted': 1}")
+})
 public class Transaction {
     
     @Id
@@ -64,6 +73,12 @@ public class Transaction {
     
     private String note; // Ghi chú
     
+    /**
+     * Note đã bỏ dấu, chữ thường (TextNormalizer.fold) - được text index để tìm kiếm
+     * Tự động cập nhật mỗi khi lưu transaction (MongoConfig.transactionNoteSearchCallback)
+     */
+    private String noteSearch;
+    
     private List<String> attachmentIds; // File attachment IDs (optional)
     
     @Builder.Default
@@ -0,0 +1,59 @@
+package com.portfolio.wallet.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Daily transaction rollup entity
+ * 
+ * Tổng tiền và số transaction theo (userId, day, type, categoryId, accountId).
+ * Được cập nhật ($inc) mỗi khi tạo/sửa/xóa transaction, dùng cho dashboard report
+ * để chi phí phụ thuộc số ngày trong khoảng thời gian thay vì số transaction.
+ * id = userId:day:type:categoryId:accountId
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "transaction_daily_rollups")
+@CompoundIndex(name = "user_day_idx", def = "{'userId': 1, 'day': 1}")
+public class TransactionDailyRollup {
+    
+    @Id
+    private String id;
+    
+    private String userId;
+    
+    /**
+     * Ngày theo timezone của server, dạng yyyy-MM-dd (so sánh chuỗi = so sánh ngày)
+     */
+    private String day;
+    
+    private TransactionType type;
+    
+    private String categoryId;
+    
+    private String accountId;
+    
+    @Field(targetType = FieldType.DECIMAL128)
+    private BigDecimal sum;
+    
+    private Long count;
+    
+    /**
+     * Id của lần rebuild gần nhất đã ghi document này (null nếu chỉ được cập nhật tăng dần)
+     */
+    private String rebuildId;
+    
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,51 @@
+package com.portfolio.wallet.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.LocalDateTime;
+
+/**
+ * Rollup backfill state per user
+ * 
+ * rebuiltAt != null = rollup của user đã được tính từ lịch sử, có thể dùng để đọc.
+ * id = userId
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "transaction_rollup_states")
+public class TransactionRollupState {
+    
+    @Id
+    private String id; // User ID
+    
+    private LocalDateTime rebuiltAt;
+    
+    /**
+     * Tăng ở đầu và cuối mỗi lần ghi transaction của user; rebuild so sánh trước/sau để phát hiện write chen vào
+     */
+    private Long writeVersion;
+    
+    /**
+     * Số lần ghi transaction đang dở (beginWrite chưa tới endWrite)
+     */
+    private Long pendingWrites;
+    
+    private LocalDateTime lastWriteAt;
+    
+    /**
+     * Lease của rebuild đang chạy (null = không có), tránh 2 instance rebuild cùng user
+     */
+    private LocalDateTime rebuildingSince;
+    
+    /**
+     * Rebuild gần nhất bỏ cuộc vì write liên tục chen vào, backfill sẽ chạy lại
+     */
+    private Boolean needsRebuild;
+}
@@ -0,0 +1,19 @@
+package com.portfolio.wallet.repository;
+
+import com.portfolio.wallet.model.AccountBalance;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Account balance ledger repository
+ */
+@Repository
+public interface AccountBalanceRepository extends MongoRepository<AccountBalance, String> {
+    
+    /**
+     * Find all balance entries by userId
+     */
+    List<AccountBalance> findByUserId(String userId);
+}
@@ -0,0 +1,375 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.wallet.model.Account;
+import com.portfolio.wallet.model.AccountBalance;
+import com.portfolio.wallet.model.Liability;
+import com.portfolio.wallet.model.Receivable;
+import com.portfolio.wallet.model.Transaction;
+import com.portfolio.wallet.repository.AccountBalanceRepository;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.Decimal128;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Account balance ledger service
+ *
+ * Duy trì số dư của từng account trong collection account_balances:
+ * - Mỗi write path (transaction, receivable, liability, settlement) tính phần đóng góp
+ *   của entity vào số dư trước và sau khi thay đổi, rồi $inc phần chênh lệch
+ * - Đọc số dư chỉ là 1 lookup theo _id; entry chưa có hoặc chưa được đối chiếu (reconciledAt null)
+ *   thì tính lại từ lịch sử
+ * - Tính lại (rebuild) ghi đè có điều kiện theo version: write nào chen vào giữa lúc đọc lịch sử
+ *   và lúc ghi sẽ làm version đổi, rebuild đọc lại lịch sử và thử lại thay vì ghi đè mất write đó
+ * - Job đối chiếu chạy nền (wallet.balance.reconcile-interval) tính lại các entry còn thiếu hoặc đối chiếu
+ *   lần cuối đã quá một interval, nên lệch do $inc bị mất/tính 2 lần tự lành sau tối đa 2 interval
+ *
+ * currentBalance = INCOME - EXPENSE + TRANSFER_IN - TRANSFER_OUT + BALANCE_ADJUSTMENT
+ *                  + RECEIVABLE_SETTLEMENT - LIABILITY_SETTLEMENT
+ *                  - (receivable còn phải thu) + (liability còn phải trả)
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AccountBalanceService {
+
+    private static final int MAX_REBUILD_ATTEMPTS = 3;
+
+    private final AccountBalanceRepository accountBalanceRepository;
+    private final BalanceAggregationService balanceAggregationService;
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${wallet.balance.reconcile-enabled:true}")
+    private boolean reconcileEnabled;
+
+    @Value("${wallet.balance.reconcile-interval:PT15M}")
+    private Duration reconcileInterval;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Get current balance for an account (single indexed lookup)
+     */
+    public BigDecimal getBalance(Account account) {
+        return accountBalanceRepository.findById(account.getId())
+                .filter(entry -> entry.getReconciledAt() != null)
+                .map(AccountBalance::getBalance)
+                .orElseGet(() -> rebuild(account));
+    }
+
+    /**
+     * Get current balances for many accounts in one query
+     *
+     * @return Map accountId -> balance
+     */
+    public Map<String, BigDecimal> getBalances(List<Account> accounts) {
+        if (accounts.isEmpty()) {
+            return Collections.emptyMap();
+        }
+
+        List<String> accountIds = accounts.stream().map(Account::getId).collect(Collectors.toList());
+        Map<String, BigDecimal> balances = new HashMap<>();
+        accountBalanceRepository.findAllById(accountIds).forEach(entry -> {
+            if (entry.getReconciledAt() != null) {
+                balances.put(entry.getId(), entry.getBalance());
+            }
+        });
+
+        // Account chưa có ledger (dữ liệu cũ) hoặc chưa đối chiếu → tính từ lịch sử (1 aggregation cho mỗi user)
+        List<Account> missing = accounts.stream()
+                .filter(account -> !balances.containsKey(account.getId()))
+                .collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            balances.putAll(rebuildAll(missing));
+        }
+        return balances;
+    }
+
+    /**
+     * Create an empty ledger entry for a newly created account
+     * Gọi trước khi tạo bất kỳ transaction nào cho account để các $inc sau đó không bị bỏ qua
+     */
+    public void initialize(Account account) {
+        Query query = new Query(Criteria.where("_id").is(account.getId()));
+        Update update = new Update()
+                .setOnInsert("userId", account.getUserId())
+                .setOnInsert("balance", new Decimal128(BigDecimal.ZERO))
+                .setOnInsert("version", 0L)
+                .setOnInsert("reconciledAt", LocalDateTime.now())
+                .setOnInsert("updatedAt", LocalDateTime.now());
+        mongoTemplate.upsert(query, update, AccountBalance.class);
+    }
+
+    /**
+     * Recalculate the balance from full history and overwrite the ledger entry
+     * Dùng khi entry chưa có/chưa đối chiếu, từ job đối chiếu và admin khi nghi ngờ lệch
+     *
+     * Chỉ ghi nếu version không đổi kể từ trước khi đọc lịch sử; bị write chen vào thì đọc lại.
+     * Còn một cửa sổ rất ngắn: write đã lưu document trước lúc đọc lịch sử nhưng $inc sau lúc ghi
+     * sẽ bị tính 2 lần — lần đối chiếu định kỳ tiếp theo (hoặc admin rebuild-balance) sẽ sửa.
+     */
+    public BigDecimal rebuild(Account account) {
+        BigDecimal balance = BigDecimal.ZERO;
+        for (int attempt = 1; attempt <= MAX_REBUILD_ATTEMPTS; attempt++) {
+            AccountBalance current = accountBalanceRepository.findById(account.getId()).orElse(null);
+            balance = calculateFromHistory(account.getUserId()).getOrDefault(account.getId(), BigDecimal.ZERO);
+            if (replace(account, current, balance)) {
+                log.info("Rebuilt balance ledger for account {}: {}", account.getId(), balance);
+                return balance;
+            }
+            log.debug("Balance ledger for account {} changed during rebuild (attempt {})", account.getId(), attempt);
+        }
+        log.warn("Could not rebuild balance ledger for account {} after {} attempts, left for reconciliation",
+                account.getId(), MAX_REBUILD_ATTEMPTS);
+        return balance;
+    }
+
+    /**
+     * Recompute every ledger entry that is missing or was last reconciled more than one interval ago
+     * Lịch sử được đọc 1 lần cho mỗi user, ghi đè có điều kiện theo version như rebuild
+     *
+     * @return số account đã đối chiếu
+     */
+    public int reconcile() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(reconcileInterval);
+        Set<String> fresh = new HashSet<>(mongoTemplate.findDistinct(
+                new Query(Criteria.where("reconciledAt").gte(cutoff)), "_id", AccountBalance.class, String.class));
+        Query accountQuery = new Query(Criteria.where("deleted").is(false));
+        accountQuery.fields().include("userId");
+        List<Account> pending = mongoTemplate.find(accountQuery, Account.class).stream()
+                .filter(account -> !fresh.contains(account.getId()))
+                .collect(Collectors.toList());
+
+        Map<String, List<Account>> byUser = pending.stream().collect(Collectors.groupingBy(Account::getUserId));
+        byUser.values().forEach(this::rebuildAll);
+        if (!pending.isEmpty()) {
+            log.info("Balance reconciliation finished: {} accounts of {} users reconciled",
+                    pending.size(), byUser.size());
+        }
+        return pending.size();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!reconcileEnabled) {
+            log.info("Balance reconciliation is disabled");
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "balance-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::reconcileSafely, 0, reconcileInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Contribution of a transaction to account balances
+     *
+     * @return Map accountId -> signed amount (empty if transaction is deleted)
+     */
+    public Map<String, BigDecimal> contributionOf(Transaction transaction) {
+        Map<String, BigDecimal> contribution = new HashMap<>();
+        if (transaction == null || Boolean.TRUE.equals(transaction.getDeleted())
+                || transaction.getAmount() == null || transaction.getType() == null) {
+            return contribution;
+        }
+
+        BigDecimal amount = transaction.getAmount();
+        switch (transaction.getType()) {
+            case INCOME, RECEIVABLE_SETTLEMENT, BALANCE_ADJUSTMENT ->
+                    addContribution(contribution, transaction.getAccountId(), amount);
+            case EXPENSE, LIABILITY_SETTLEMENT ->
+                    addContribution(contribution, transaction.getAccountId(), amount.negate());
+            case TRANSFER -> {
+                addContribution(contribution, transaction.getFromAccountId(), amount.negate());
+                addContribution(contribution, transaction.getToAccountId(), amount);
+            }
+        }
+        return contribution;
+    }
+
+    /**
+     * Contribution of a receivable: số tiền còn phải thu bị trừ khỏi account đã cho vay
+     */
+    public Map<String, BigDecimal> contributionOf(Receivable receivable) {
+        Map<String, BigDecimal> contribution = new HashMap<>();
+        if (receivable == null || Boolean.TRUE.equals(receivable.getDeleted()) || receivable.getAmount() == null) {
+            return contribution;
+        }
+        BigDecimal paidAmount = receivable.getPaidAmount() != null ? receivable.getPaidAmount() : BigDecimal.ZERO;
+        addContribution(contribution, receivable.getAccountId(), receivable.getAmount().subtract(paidAmount).negate());
+        return contribution;
+    }
+
+    /**
+     * Contribution of a liability: số tiền còn phải trả được cộng vào account đã nhận tiền vay
+     */
+    public Map<String, BigDecimal> contributionOf(Liability liability) {
+        Map<String, BigDecimal> contribution = new HashMap<>();
+        if (liability == null || Boolean.TRUE.equals(liability.getDeleted()) || liability.getAmount() == null) {
+            return contribution;
+        }
+        BigDecimal paidAmount = liability.getPaidAmount() != null ? liability.getPaidAmount() : BigDecimal.ZERO;
+        addContribution(contribution, liability.getAccountId(), liability.getAmount().subtract(paidAmount));
+        return contribution;
+    }
+
+    /**
+     * Apply the difference between two contributions to the ledger using $inc
+     *
+     * Account chưa có ledger entry (dữ liệu cũ) vẫn được upsert để thay đổi không bị mất khi rebuild
+     * đang chạy song song; entry tạo ra chưa có reconciledAt nên lần đọc/đối chiếu tiếp theo sẽ rebuild.
+     */
+    public void applyChange(Map<String, BigDecimal> before, Map<String, BigDecimal> after) {
+        Set<String> accountIds = new HashSet<>(before.keySet());
+        accountIds.addAll(after.keySet());
+
+        for (String accountId : accountIds) {
+            BigDecimal delta = after.getOrDefault(accountId, BigDecimal.ZERO)
+                    .subtract(before.getOrDefault(accountId, BigDecimal.ZERO));
+            if (delta.signum() == 0) {
+                continue;
+            }
+            Query query = new Query(Criteria.where("_id").is(accountId));
+            Update update = new Update()
+                    .inc("balance", new Decimal128(delta))
+                    .inc("version", 1L)
+                    .set("updatedAt", LocalDateTime.now());
+            mongoTemplate.upsert(query, update, AccountBalance.class);
+            log.debug("Balance ledger for account {} changed by {}", accountId, delta);
+        }
+    }
+
+    /**
+     * Apply a newly created transaction to the ledger
+     */
+    public void applyCreated(Transaction transaction) {
+        applyChange(Collections.emptyMap(), contributionOf(transaction));
+    }
+
+    private void addContribution(Map<String, BigDecimal> contribution, String accountId, BigDecimal amount) {
+        if (accountId == null || accountId.isEmpty()) {
+            return;
+        }
+        contribution.merge(accountId, amount, BigDecimal::add);
+    }
+
+    /**
+     * Rebuild several accounts, reading history once per user
+     * Entry nào bị write chen vào trong lúc tính thì rebuild lại riêng account đó
+     *
+     * @return Map accountId -> balance
+     */
+    private Map<String, BigDecimal> rebuildAll(List<Account> accounts) {
+        // Đọc version trước khi đọc lịch sử để replace() phát hiện được write chen vào giữa
+        Map<String, AccountBalance> current = new HashMap<>();
+        accountBalanceRepository.findAllById(accounts.stream().map(Account::getId).collect(Collectors.toList()))
+                .forEach(entry -> current.put(entry.getId(), entry));
+
+        Map<String, Map<String, BigDecimal>> historyByUser = new HashMap<>();
+        Map<String, BigDecimal> balances = new HashMap<>();
+        for (Account account : accounts) {
+            BigDecimal balance = historyByUser.computeIfAbsent(account.getUserId(), this::calculateFromHistory)
+                    .getOrDefault(account.getId(), BigDecimal.ZERO);
+            AccountBalance entry = current.get(account.getId());
+            if (replace(account, entry, balance)) {
+                if (entry != null && entry.getReconciledAt() != null && entry.getBalance() != null
+                        && entry.getBalance().compareTo(balance) != 0) {
+                    log.warn("Balance ledger of account {} drifted: {} -> {}", account.getId(),
+                            entry.getBalance(), balance);
+                } else {
+                    log.debug("Reconciled balance ledger for account {}: {}", account.getId(), balance);
+                }
+            } else {
+                balance = rebuild(account);
+            }
+            balances.put(account.getId(), balance);
+        }
+        return balances;
+    }
+
+    /**
+     * Overwrite the ledger entry if nobody wrote to it since {@code current} was read
+     *
+     * @param current entry đọc trước khi tính lịch sử (null = chưa có entry)
+     * @return false nếu entry đã bị tạo/cập nhật bởi request khác
+     */
+    private boolean replace(Account account, AccountBalance current, BigDecimal balance) {
+        LocalDateTime now = LocalDateTime.now();
+        if (current == null) {
+            try {
+                mongoTemplate.insert(AccountBalance.builder()
+                        .id(account.getId())
+                        .userId(account.getUserId())
+                        .balance(balance)
+                        .version(0L)
+                        .reconciledAt(now)
+                        .updatedAt(now)
+                        .build());
+                return true;
+            } catch (DuplicateKeyException e) {
+                return false;
+            }
+        }
+        Query query = new Query(Criteria.where("_id").is(account.getId()).and("version").is(current.getVersion()));
+        Update update = new Update()
+                .set("userId", account.getUserId())
+                .set("balance", new Decimal128(balance))
+                .inc("version", 1L)
+                .set("reconciledAt", now)
+                .set("updatedAt", now);
+        return mongoTemplate.updateFirst(query, update, AccountBalance.class).getModifiedCount() == 1;
+    }
+
+    private void reconcileSafely() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            log.error("Balance reconciliation failed: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Calculate balances of all accounts of a user from full history (single aggregation)
+     *
+     * @return Map accountId -> balance
+     */
+    private Map<String, BigDecimal> calculateFromHistory(String userId) {
+        Map<String, BigDecimal> balances = new HashMap<>();
+        balanceAggregationService.calculateBalances(userId)
+                .forEach((accountId, breakdown) -> balances.put(accountId, breakdown.total()));
+        return balances;
+    }
+}
@@ -8,13 +8,9 @@ import com.portfolio.wallet.dto.request.UpdateAccountRequest;
 import com.portfolio.wallet.dto.response.AccountResponse;
 import com.portfolio.wallet.model.Account;
 import com.portfolio.wallet.model.AccountType;
-import com.portfolio.wallet.model.Liability;
-import com.portfolio.wallet.model.Receivable;
 import com.portfolio.wallet.model.Transaction;
 import com.portfolio.wallet.model.TransactionType;
 import com.portfolio.wallet.repository.AccountRepository;
-import com.portfolio.wallet.repository.LiabilityRepository;
-import com.portfolio.wallet.repository.ReceivableRepository;
 import com.portfolio.wallet.repository.TransactionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -25,6 +21,7 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -37,101 +34,16 @@ public class AccountService {
     
     private final AccountRepository accountRepository;
     private final TransactionRepository transactionRepository;
-    private final ReceivableRepository receivableRepository;
-    private final LiabilityRepository liabilityRepository;
+    private final AccountBalanceService accountBalanceService;
+    private final TransactionRollupService transactionRollupService;
+    private final NLPContextCache nlpContextCache;
+    private final NLPQueryCache nlpQueryCache;
     
-    /**
-     * Calculate current balance for an account
-     * currentBalance = INCOME - EXPENSE + TRANSFER_IN - TRANSFER_OUT + BALANCE_ADJUSTMENT
-     * (Không còn openingBalance, số dư ban đầu được tạo bằng BALANCE_ADJUSTMENT transaction)
-     */
-    private BigDecimal calculateCurrentBalance(Account account) {
-        BigDecimal balance = BigDecimal.ZERO; // Bắt đầu từ 0
-        
-        // Get all transactions for this account
-        List<Transaction> accountTransactions = transactionRepository.findByAccountIdAndDeletedFalse(account.getId());
-        List<Transaction> fromAccountTransactions = transactionRepository.findByFromAccountIdAndDeletedFalse(account.getId());
-        List<Transaction> toAccountTransactions = transactionRepository.findByToAccountIdAndDeletedFalse(account.getId());
-        
-        // Debug log for POSTPAID accounts
-        if (account.getType() == AccountType.POSTPAID) {
-            log.debug("[POSTPAID] Calculating balance for account: {}, transactions count: {}",
-                account.getName(), accountTransactions.size());
-        }
-        
-        // Add INCOME transactions
-        // Add RECEIVABLE_SETTLEMENT (nhận tiền từ khoản cho vay)
-        // Add BALANCE_ADJUSTMENT (điều chỉnh số dư)
-        for (Transaction t : accountTransactions) {
-            if (t.getType() == TransactionType.INCOME) {
-                balance = balance.add(t.getAmount());
-            } else if (t.getType() == TransactionType.EXPENSE) {
-                balance = balance.subtract(t.getAmount());
-            } else if (t.getType() == TransactionType.RECEIVABLE_SETTLEMENT) {
-                // Nhận tiền từ khoản cho vay -> cộng vào account
-                balance = balance.add(t.getAmount());
-            } else if (t.getType() == TransactionType.LIABILITY_SETTLEMENT) {
-                // Trả nợ -> trừ khỏi account
-                balance = balance.subtract(t.getAmount());
-            } else if (t.getType() == TransactionType.BALANCE_ADJUSTMENT) {
-                // Điều chỉnh số dư: amount là delta (có thể âm hoặc dương)
-                // delta > 0: tăng số dư, delta < 0: giảm số dư
-                balance = balance.add(t.getAmount());
-            }
-        }
-        
-        // Subtract TRANSFER_OUT (from this account)
-        for (Transaction t : fromAccountTransactions) {
-            if (t.getType() == TransactionType.TRANSFER) {
-                balance = balance.subtract(t.getAmount());
-            }
-        }
-        
-        // Add TRANSFER_IN (to this account)
-        for (Transaction t : toAccountTransactions) {
-            if (t.getType() == TransactionType.TRANSFER) {
-                balance = balance.add(t.getAmount());
-            }
-        }
-        
-        // Tính từ Receivable có accountId này
-        // Receivable = Cho vay = Đã đưa tiền cho người khác → trừ khỏi balance
-        List<Receivable> receivables = receivableRepository.findByUserIdAndDeletedFalse(account.getUserId());
-        for (Receivable r : receivables) {
-            if (r.getAccountId() != null && r.getAccountId().equals(account.getId())) {
-                // Trừ số tiền còn lại phải thu (remainingAmount = amount - paidAmount)
-                BigDecimal paidAmount = r.getPaidAmount() != null ? r.getPaidAmount() : BigDecimal.ZERO;
-                BigDecimal remainingAmount = r.getAmount().subtract(paidAmount);
-                balance = balance.subtract(remainingAmount);
-            }
-        }
-        
-        // Tính từ Liability có accountId này
-        // Liability = Vay nợ = Đã nhận tiền từ người khác → cộng vào balance
-        List<Liability> liabilities = liabilityRepository.findByUserIdAndDeletedFalse(account.getUserId());
-        for (Liability l : liabilities) {
-            if (l.getAccountId() != null && l.getAccountId().equals(account.getId())) {
-                // Cộng số tiền còn lại phải trả (remainingAmount = amount - paidAmount)
-                BigDecimal paidAmount = l.getPaidAmount() != null ? l.getPaidAmount() : BigDecimal.ZERO;
-                BigDecimal remainingAmount = l.getAmount().subtract(paidAmount);
-                balance = balance.add(remainingAmount);
-            }
-        }
-        
-        // Debug log for POSTPAID accounts
-        if (account.getType() == AccountType.POSTPAID) {
-            log.debug("[POSTPAID] Final calculated balance for account {}: {}",
-                account.getName(), balance);
-        }
-        
-        return balance;
-    }
-
     /**
      * Điều chỉnh số dư tài khoản để khớp với số dư thực tế người dùng nhập
      *
      * Logic:
-     * - Tính currentBalance hiện tại từ lịch sử giao dịch
+     * - Lấy currentBalance hiện tại từ balance ledger
      * - amountDelta = actualBalance - currentBalance
      * - Nếu amountDelta > 0: tạo giao dịch BALANCE_ADJUSTMENT với amount = amountDelta
      *   và coi như INCOME kỹ thuật
@@ -154,7 +66,7 @@ public class AccountService {
             throw new BusinessException("Actual balance must be >= 0");
         }
 
-        BigDecimal currentBalance = calculateCurrentBalance(account);
+        BigDecimal currentBalance = accountBalanceService.getBalance(account);
         BigDecimal delta = actualBalance.subtract(currentBalance);
 
         if (delta.compareTo(BigDecimal.ZERO) == 0) {
@@ -175,12 +87,20 @@ public class AccountService {
                 .deleted(false)
                 .build();
 
-        transactionRepository.save(transaction);
+        transactionRollupService.beginWrite(userId);
+        try {
+            transactionRepository.save(transaction);
+            accountBalanceService.applyCreated(transaction);
+            transactionRollupService.applyCreated(transaction);
+        } finally {
+            transactionRollupService.endWrite(userId);
+        }
+        nlpQueryCache.invalidate(userId);
         log.info("Balance adjustment transaction created: {} for account: {}", transaction.getId(), accountId);
 
         // Sau khi tạo giao dịch, currentBalance mới sẽ bằng actualBalance theo công thức
-        // nhưng để an toàn ta vẫn gọi lại calculateCurrentBalance
-        BigDecimal newBalance = calculateCurrentBalance(account);
+        // nhưng để an toàn ta vẫn đọc lại từ ledger
+        BigDecimal newBalance = accountBalanceService.getBalance(account);
         return AccountResponse.from(account, newBalance);
     }
 
@@ -198,10 +118,8 @@ public class AccountService {
     public Page<AccountResponse> getAllAccounts(String userId, Pageable pageable) {
         log.debug("Getting all accounts for user: {}", userId);
         Page<Account> accounts = accountRepository.findByUserIdAndDeletedFalse(userId, pageable);
-        return accounts.map(account -> {
-            BigDecimal currentBalance = calculateCurrentBalance(account);
-            return AccountResponse.from(account, currentBalance);
-        });
+        Map<String, BigDecimal> balances = accountBalanceService.getBalances(accounts.getContent());
+        return accounts.map(account -> AccountResponse.from(account, balances.get(account.getId())));
     }
     
     /**
@@ -210,11 +128,9 @@ public class AccountService {
     public List<AccountResponse> getAllAccounts(String userId) {
         log.debug("Getting all accounts for user: {}", userId);
         List<Account> accounts = accountRepository.findByUserIdAndDeletedFalse(userId);
+        Map<String, BigDecimal> balances = accountBalanceService.getBalances(accounts);
         return accounts.stream()
-                .map(account -> {
-                    BigDecimal currentBalance = calculateCurrentBalance(account);
-                    return AccountResponse.from(account, currentBalance);
-                })
+                .map(account -> AccountResponse.from(account, balances.get(account.getId())))
                 .collect(Collectors.toList());
     }
     
@@ -225,7 +141,7 @@ public class AccountService {
         log.debug("Getting account by id: {} for user: {}", id, userId);
         Account account = accountRepository.findByIdAndUserIdAndDeletedFalse(id, userId)
                 .orElseThrow(() -> new NotFoundException("Account not found"));
-        BigDecimal currentBalance = calculateCurrentBalance(account);
+        BigDecimal currentBalance = accountBalanceService.getBalance(account);
         return AccountResponse.from(account, currentBalance);
     }
     
@@ -247,6 +163,8 @@ public class AccountService {
                 .build();
         
         Account saved = accountRepository.save(account);
+        accountBalanceService.initialize(saved);
+        nlpContextCache.invalidate(userId);
         log.info("Account created successfully: {}", saved.getId());
         
         // Nếu có initialBalance, tạo BALANCE_ADJUSTMENT transaction để set số dư ban đầu
@@ -270,12 +188,20 @@ public class AccountService {
                     .note(saved.getType() == AccountType.POSTPAID ? "Dư nợ ban đầu" : "Số dư ban đầu")
                     .deleted(false)
                     .build();
-            transactionRepository.save(initialTransaction);
+            transactionRollupService.beginWrite(userId);
+            try {
+                transactionRepository.save(initialTransaction);
+                accountBalanceService.applyCreated(initialTransaction);
+                transactionRollupService.applyCreated(initialTransaction);
+            } finally {
+                transactionRollupService.endWrite(userId);
+            }
+            nlpQueryCache.invalidate(userId);
             log.info("Initial balance transaction created: {} for account: {} (amount: {}, type: {})", 
                     initialTransaction.getId(), saved.getId(), adjustmentAmount, saved.getType());
         }
         
-        BigDecimal currentBalance = calculateCurrentBalance(saved);
+        BigDecimal currentBalance = accountBalanceService.getBalance(saved);
         return AccountResponse.from(saved, currentBalance);
     }
     
@@ -307,11 +233,27 @@ public class AccountService {
         }
         
         Account updated = accountRepository.save(account);
+        nlpContextCache.invalidate(userId);
+        nlpQueryCache.invalidate(userId);
         log.info("Account updated successfully: {}", updated.getId());
-        BigDecimal currentBalance = calculateCurrentBalance(updated);
+        BigDecimal currentBalance = accountBalanceService.getBalance(updated);
         return AccountResponse.from(updated, currentBalance);
     }
     
+    /**
+     * Rebuild the balance ledger of an account from its history (ADMIN)
+     * Dùng để sửa số dư khi nghi ngờ ledger bị lệch, không giới hạn theo user
+     */
+    public AccountResponse rebuildBalance(String id) {
+        Account account = accountRepository.findById(id)
+                .filter(found -> !Boolean.TRUE.equals(found.getDeleted()))
+                .orElseThrow(() -> new NotFoundException("Account not found"));
+        BigDecimal currentBalance = accountBalanceService.rebuild(account);
+        nlpContextCache.invalidate(account.getUserId());
+        nlpQueryCache.invalidate(account.getUserId());
+        return AccountResponse.from(account, currentBalance);
+    }
+    
     /**
      * Delete an account (soft delete)
      */
@@ -325,6 +267,8 @@ public class AccountService {
         // Soft delete
         account.setDeleted(true);
         accountRepository.save(account);
+        nlpContextCache.invalidate(userId);
+        nlpQueryCache.invalidate(userId);
         log.info("Account deleted successfully: {}", id);
     }
 }
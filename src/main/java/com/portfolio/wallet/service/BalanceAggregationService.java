@@ -0,0 +1,164 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.wallet.model.BigDecimalConverter;
+import com.portfolio.wallet.model.TransactionType;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Balance aggregation engine
+ *
+ * Tính số dư của TẤT CẢ account của một user trong 1 aggregation duy nhất (1 round trip):
+ * - $facet trên transactions: nhóm theo accountId (INCOME/EXPENSE/SETTLEMENT/ADJUSTMENT),
+ *   fromAccountId (TRANSFER_OUT) và toAccountId (TRANSFER_IN)
+ * - $unionWith receivables/liabilities: số tiền còn phải thu/phải trả theo accountId
+ * Chỉ trả về (accountId, kind, total), không kéo document transaction về JVM.
+ *
+ * amount dùng $toDecimal nên hoạt động với cả dữ liệu lưu dạng String lẫn Decimal128.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BalanceAggregationService {
+
+    private static final String KIND_TRANSACTION = "TRANSACTION";
+    private static final String KIND_RECEIVABLE = "RECEIVABLE";
+    private static final String KIND_LIABILITY = "LIABILITY";
+
+    private final MongoTemplate mongoTemplate;
+
+    /**
+     * Balance of one account split by source
+     *
+     * @param transactions Tổng từ transactions (INCOME - EXPENSE + TRANSFER_IN - TRANSFER_OUT + ...)
+     * @param debts        Phần điều chỉnh từ công nợ (- receivable còn phải thu + liability còn phải trả)
+     */
+    public record BalanceBreakdown(BigDecimal transactions, BigDecimal debts) {
+
+        public static final BalanceBreakdown ZERO = new BalanceBreakdown(BigDecimal.ZERO, BigDecimal.ZERO);
+
+        public BigDecimal total() {
+            return transactions.add(debts);
+        }
+    }
+
+    /**
+     * Calculate balances for every account of a user in one aggregation
+     *
+     * @return Map accountId -> breakdown (account không có dữ liệu sẽ không có trong map)
+     */
+    public Map<String, BalanceBreakdown> calculateBalances(String userId) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                stage(new Document("$match", new Document("userId", userId).append("deleted", false))),
+                stage(new Document("$facet", new Document()
+                        .append("direct", Arrays.asList(
+                                new Document("$match", new Document("accountId", new Document("$nin", Arrays.asList(null, "")))
+                                        .append("type", new Document("$in", Arrays.asList(
+                                                TransactionType.INCOME.name(),
+                                                TransactionType.EXPENSE.name(),
+                                                TransactionType.RECEIVABLE_SETTLEMENT.name(),
+                                                TransactionType.LIABILITY_SETTLEMENT.name(),
+                                                TransactionType.BALANCE_ADJUSTMENT.name())))),
+                                new Document("$group", new Document("_id", "$accountId")
+                                        .append("total", new Document("$sum", signedAmount())))))
+                        .append("transferOut", Arrays.asList(
+                                new Document("$match", new Document("type", TransactionType.TRANSFER.name())),
+                                new Document("$group", new Document("_id", "$fromAccountId")
+                                        .append("total", new Document("$sum", negate(decimal("$amount")))))))
+                        .append("transferIn", Arrays.asList(
+                                new Document("$match", new Document("type", TransactionType.TRANSFER.name())),
+                                new Document("$group", new Document("_id", "$toAccountId")
+                                        .append("total", new Document("$sum", decimal("$amount")))))))),
+                stage(new Document("$project", new Document("rows",
+                        new Document("$concatArrays", Arrays.asList("$direct", "$transferOut", "$transferIn"))))),
+                stage(new Document("$unwind", "$rows")),
+                stage(new Document("$replaceRoot", new Document("newRoot", "$rows"))),
+                stage(new Document("$addFields", new Document("kind", KIND_TRANSACTION))),
+                stage(new Document("$unionWith", debtPipeline("receivables", userId, KIND_RECEIVABLE, true))),
+                stage(new Document("$unionWith", debtPipeline("liabilities", userId, KIND_LIABILITY, false)))
+        );
+
+        List<Document> rows = mongoTemplate.aggregate(aggregation, "transactions", Document.class)
+                .getMappedResults();
+
+        Map<String, BigDecimal> transactionTotals = new HashMap<>();
+        Map<String, BigDecimal> debtTotals = new HashMap<>();
+        for (Document row : rows) {
+            String accountId = row.getString("_id");
+            if (accountId == null || accountId.isEmpty()) {
+                continue;
+            }
+            BigDecimal total = BigDecimalConverter.toBigDecimal(row.get("total"));
+            if (KIND_TRANSACTION.equals(row.getString("kind"))) {
+                transactionTotals.merge(accountId, total, BigDecimal::add);
+            } else {
+                debtTotals.merge(accountId, total, BigDecimal::add);
+            }
+        }
+
+        Map<String, BalanceBreakdown> balances = new HashMap<>();
+        transactionTotals.forEach((accountId, total) ->
+                balances.put(accountId, new BalanceBreakdown(total, BigDecimal.ZERO)));
+        debtTotals.forEach((accountId, total) -> balances.merge(accountId,
+                new BalanceBreakdown(BigDecimal.ZERO, total),
+                (a, b) -> new BalanceBreakdown(a.transactions(), b.debts())));
+
+        log.debug("Aggregated balances for user {}: {} accounts from {} rows", userId, balances.size(), rows.size());
+        return balances;
+    }
+
+    /**
+     * $unionWith pipeline cho receivables (trừ phần còn phải thu) hoặc liabilities (cộng phần còn phải trả)
+     */
+    private Document debtPipeline(String collection, String userId, String kind, boolean subtract) {
+        Document remaining = new Document("$subtract", Arrays.asList(
+                decimal("$amount"),
+                decimal(new Document("$ifNull", Arrays.asList("$paidAmount", 0)))));
+        return new Document("coll", collection)
+                .append("pipeline", Arrays.asList(
+                        new Document("$match", new Document("userId", userId)
+                                .append("deleted", false)
+                                .append("accountId", new Document("$nin", Arrays.asList(null, "")))),
+                        new Document("$group", new Document("_id", "$accountId")
+                                .append("total", new Document("$sum", subtract ? negate(remaining) : remaining))),
+                        new Document("$addFields", new Document("kind", kind))));
+    }
+
+    /**
+     * EXPENSE / LIABILITY_SETTLEMENT trừ, các type còn lại cộng
+     */
+    private Document signedAmount() {
+        return new Document("$cond", Arrays.asList(
+                new Document("$in", Arrays.asList("$type", Arrays.asList(
+                        TransactionType.EXPENSE.name(),
+                        TransactionType.LIABILITY_SETTLEMENT.name()))),
+                negate(decimal("$amount")),
+                decimal("$amount")));
+    }
+
+    private Document decimal(Object expression) {
+        return new Document("$toDecimal", expression);
+    }
+
+    /**
+     * 0 - x thay vì x * -1 để tránh Decimal128 "-0"
+     */
+    private Document negate(Object expression) {
+        return new Document("$subtract", Arrays.asList(0, expression));
+    }
+
+    private static AggregationOperation stage(Document document) {
+        return context -> document;
+    }
+}
@@ -7,11 +7,8 @@ import com.portfolio.wallet.dto.request.CreateBudgetRequest;
 import com.portfolio.wallet.dto.request.UpdateBudgetRequest;
 import com.portfolio.wallet.dto.response.BudgetResponse;
 import com.portfolio.wallet.model.Budget;
-import com.portfolio.wallet.model.Transaction;
-import com.portfolio.wallet.model.TransactionType;
 import com.portfolio.wallet.repository.BudgetRepository;
 import com.portfolio.wallet.repository.CategoryRepository;
-import com.portfolio.wallet.repository.TransactionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
@@ -20,9 +17,12 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
-import java.time.LocalDateTime;
 import java.time.YearMonth;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 /**
@@ -35,7 +35,7 @@ public class BudgetService {
     
     private final BudgetRepository budgetRepository;
     private final CategoryRepository categoryRepository;
-    private final TransactionRepository transactionRepository;
+    private final TransactionRollupService transactionRollupService;
     
     /**
      * Get all budgets for a user (paginated)
@@ -43,10 +43,8 @@ public class BudgetService {
     public Page<BudgetResponse> getAllBudgets(String userId, Pageable pageable) {
         log.debug("Getting all budgets for user: {}", userId);
         Page<Budget> budgets = budgetRepository.findByUserIdAndDeletedFalse(userId, pageable);
-        return budgets.map(budget -> {
-            updateUsedAmount(budget);
-            return BudgetResponse.from(budget);
-        });
+        applyUsedAmounts(userId, budgets.getContent());
+        return budgets.map(BudgetResponse::from);
     }
     
     /**
@@ -55,11 +53,9 @@ public class BudgetService {
     public List<BudgetResponse> getAllBudgets(String userId) {
         log.debug("Getting all budgets for user: {}", userId);
         List<Budget> budgets = budgetRepository.findByUserIdAndDeletedFalse(userId);
+        applyUsedAmounts(userId, budgets);
         return budgets.stream()
-                .map(budget -> {
-                    updateUsedAmount(budget);
-                    return BudgetResponse.from(budget);
-                })
+                .map(BudgetResponse::from)
                 .collect(Collectors.toList());
     }
     
@@ -69,11 +65,9 @@ public class BudgetService {
     public List<BudgetResponse> getBudgetsByMonth(String userId, YearMonth month) {
         log.debug("Getting budgets for user: {}, month: {}", userId, month);
         List<Budget> budgets = budgetRepository.findByUserIdAndMonthAndDeletedFalse(userId, month);
+        applyUsedAmounts(userId, budgets);
         return budgets.stream()
-                .map(budget -> {
-                    updateUsedAmount(budget);
-                    return BudgetResponse.from(budget);
-                })
+                .map(BudgetResponse::from)
                 .collect(Collectors.toList());
     }
     
@@ -84,7 +78,7 @@ public class BudgetService {
         log.debug("Getting budget by id: {} for user: {}", id, userId);
         Budget budget = budgetRepository.findByIdAndUserIdAndDeletedFalse(id, userId)
                 .orElseThrow(() -> new NotFoundException("Budget not found"));
-        updateUsedAmount(budget);
+        applyUsedAmounts(userId, List.of(budget));
         return BudgetResponse.from(budget);
     }
     
@@ -126,7 +120,7 @@ public class BudgetService {
                 .build();
         
         Budget saved = budgetRepository.save(budget);
-        updateUsedAmount(saved);
+        applyUsedAmounts(userId, List.of(saved));
         log.info("Budget created successfully: {}", saved.getId());
         return BudgetResponse.from(saved);
     }
@@ -169,7 +163,7 @@ public class BudgetService {
         }
         
         Budget updated = budgetRepository.save(budget);
-        updateUsedAmount(updated);
+        applyUsedAmounts(userId, List.of(updated));
         log.info("Budget updated successfully: {}", updated.getId());
         return BudgetResponse.from(updated);
     }
@@ -191,43 +185,31 @@ public class BudgetService {
     }
     
     /**
-     * Update used amount for a budget based on transactions
+     * Set used amount of budgets (in memory, không lưu lại)
+     * 
+     * Tổng chi theo (tháng, category) của mọi tháng liên quan được lấy trong 1 aggregation trên
+     * daily rollup (hoặc trên transactions nếu rollup của user chưa backfill xong);
+     * budget tổng (categoryId null) = tổng chi của cả tháng. Read path không ghi DB.
      */
-    private void updateUsedAmount(Budget budget) {
-        if (budget.getMonth() == null) {
-            log.warn("Budget {} has null month, skipping used amount calculation", budget.getId());
-            budget.setUsedAmount(BigDecimal.ZERO);
-            return;
-        }
-        
-        YearMonth month = budget.getMonth();
-        LocalDateTime startDate = month.atDay(1).atStartOfDay();
-        LocalDateTime endDate = month.atEndOfMonth().atTime(23, 59, 59);
-        
-        List<Transaction> transactions;
-        
-        if (budget.getCategoryId() == null) {
-            // Total budget: sum all expense transactions for the month
-            transactions = transactionRepository.findByUserIdAndOccurredAtBetweenAndDeletedFalse(
-                    budget.getUserId(), startDate, endDate);
-            BigDecimal usedAmount = transactions.stream()
-                    .filter(t -> t.getType() == TransactionType.EXPENSE)
-                    .map(Transaction::getAmount)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
-            budget.setUsedAmount(usedAmount);
-        } else {
-            // Category budget: sum expense transactions for the category in the month
-            transactions = transactionRepository.findByUserIdAndOccurredAtBetweenAndDeletedFalse(
-                    budget.getUserId(), startDate, endDate);
-            BigDecimal usedAmount = transactions.stream()
-                    .filter(t -> t.getType() == TransactionType.EXPENSE
-                            && budget.getCategoryId().equals(t.getCategoryId()))
-                    .map(Transaction::getAmount)
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);
+    private void applyUsedAmounts(String userId, List<Budget> budgets) {
+        Set<YearMonth> months = budgets.stream()
+                .map(Budget::getMonth)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<YearMonth, Map<String, BigDecimal>> expenses =
+                transactionRollupService.sumExpensesByMonthAndCategory(userId, months);
+        
+        for (Budget budget : budgets) {
+            if (budget.getMonth() == null) {
+                log.warn("Budget {} has null month, skipping used amount calculation", budget.getId());
+                budget.setUsedAmount(BigDecimal.ZERO);
+                continue;
+            }
+            Map<String, BigDecimal> byCategory = expenses.getOrDefault(budget.getMonth(), Collections.emptyMap());
+            BigDecimal usedAmount = budget.getCategoryId() == null
+                    ? byCategory.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add)
+                    : byCategory.getOrDefault(budget.getCategoryId(), BigDecimal.ZERO);
             budget.setUsedAmount(usedAmount);
         }
-        
-        // Save updated used amount
-        budgetRepository.save(budget);
     }
 }
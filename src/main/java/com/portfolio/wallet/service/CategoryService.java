@@ -28,6 +28,8 @@ import java.util.stream.Stream;
 public class CategoryService {
     
     private final CategoryRepository categoryRepository;
+    private final NLPContextCache nlpContextCache;
+    private final NLPQueryCache nlpQueryCache;
     
     /**
      * Default categories for new users
@@ -126,6 +128,8 @@ public class CategoryService {
                 .build();
         
         Category saved = categoryRepository.save(category);
+        nlpContextCache.invalidate(userId);
+        nlpQueryCache.invalidate(userId);
         log.info("Category created successfully: {}", saved.getId());
         return CategoryResponse.from(saved);
     }
@@ -169,6 +173,8 @@ public class CategoryService {
         }
         
         Category updated = categoryRepository.save(category);
+        nlpContextCache.invalidate(userId);
+        nlpQueryCache.invalidate(userId);
         log.info("Category updated successfully: {}", updated.getId());
         return CategoryResponse.from(updated);
     }
@@ -195,6 +201,8 @@ public class CategoryService {
         // Soft delete
         category.setDeleted(true);
         categoryRepository.save(category);
+        nlpContextCache.invalidate(userId);
+        nlpQueryCache.invalidate(userId);
         log.info("Category deleted successfully: {}", id);
     }
 }
@@ -0,0 +1,129 @@
+package com.portfolio.wallet.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Online migration: money fields stored as String -> Decimal128
+ * 
+ * Chạy nền sau khi app khởi động, theo từng batch (theo thứ tự _id) để không khóa collection lâu.
+ * Chỉ đụng tới các field còn là String nên chạy lại nhiều lần vẫn an toàn (idempotent).
+ * Trong lúc migrate, code đọc được cả 2 kiểu và các aggregation dùng $toDecimal.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class Decimal128MigrationService {
+    
+    private static final int BSON_TYPE_STRING = 2;
+    
+    /**
+     * collection -> money fields
+     */
+    private static final Map<String, List<String>> MONEY_FIELDS = Map.of(
+            "transactions", List.of("amount"),
+            "budgets", List.of("amount", "usedAmount"),
+            "receivables", List.of("amount", "paidAmount"),
+            "liabilities", List.of("amount", "paidAmount"),
+            "settlements", List.of("amount"),
+            "assets", List.of("estimatedValue"),
+            "accounts", List.of("creditLimit")
+    );
+    
+    private final MongoTemplate mongoTemplate;
+    
+    @Value("${wallet.migration.decimal128.enabled:true}")
+    private boolean enabled;
+    
+    @Value("${wallet.migration.decimal128.batch-size:500}")
+    private int batchSize;
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            log.info("Decimal128 migration is disabled");
+            return;
+        }
+        CompletableFuture.runAsync(this::migrateAll)
+                .exceptionally(e -> {
+                    log.error("Decimal128 migration failed: {}", e.getMessage(), e);
+                    return null;
+                });
+    }
+    
+    /**
+     * Migrate all money fields of all collections
+     */
+    public void migrateAll() {
+        MONEY_FIELDS.forEach((collection, fields) ->
+                fields.forEach(field -> {
+                    long migrated = migrateField(collection, field);
+                    if (migrated > 0) {
+                        log.info("Migrated {} documents of {}.{} to Decimal128", migrated, collection, field);
+                    }
+                }));
+    }
+    
+    /**
+     * Rewrite one String field to Decimal128 in batches
+     * 
+     * @return Number of documents updated
+     */
+    public long migrateField(String collection, String field) {
+        long migrated = 0;
+        Object lastId = null;
+        
+        while (true) {
+            Criteria criteria = Criteria.where(field).type(BSON_TYPE_STRING);
+            if (lastId != null) {
+                criteria = criteria.and("_id").gt(lastId);
+            }
+            Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).limit(batchSize);
+            query.fields().include(field);
+            
+            List<Document> batch = mongoTemplate.find(query, Document.class, collection);
+            if (batch.isEmpty()) {
+                return migrated;
+            }
+            
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+            int updates = 0;
+            for (Document document : batch) {
+                String raw = document.getString(field);
+                try {
+                    Decimal128 value = new Decimal128(new BigDecimal(raw.trim()).round(MathContext.DECIMAL128));
+                    // Điều kiện field vẫn là giá trị cũ: nếu request khác vừa ghi thì bỏ qua document này
+                    bulk.updateOne(
+                            new Query(Criteria.where("_id").is(document.get("_id")).and(field).is(raw)),
+                            new Update().set(field, value));
+                    updates++;
+                } catch (NumberFormatException | ArithmeticException e) {
+                    log.warn("Skipping {}.{} of document {}: invalid number '{}'",
+                            collection, field, document.get("_id"), raw);
+                }
+            }
+            if (updates > 0) {
+                migrated += bulk.execute().getModifiedCount();
+            }
+            lastId = batch.get(batch.size() - 1).get("_id");
+        }
+    }
+}
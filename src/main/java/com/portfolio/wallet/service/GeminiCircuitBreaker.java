@@ -0,0 +1,148 @@
+package com.portfolio.wallet.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Circuit breaker cho Gemini API
+ *
+ * - CLOSED: cho phép mọi call; N lỗi liên tiếp (429, 5xx, timeout, 401/403) → OPEN
+ * - OPEN: từ chối ngay không gọi network; hết open-duration → HALF_OPEN
+ * - HALF_OPEN: chỉ cho 1 call thăm dò; thành công → CLOSED, lỗi → OPEN
+ *
+ * Metrics:
+ * - nlp.gemini.circuit.state (0 = CLOSED, 1 = HALF_OPEN, 2 = OPEN)
+ * - nlp.gemini.circuit.transitions{from, to}
+ */
+@Slf4j
+@Component
+public class GeminiCircuitBreaker {
+
+    public enum State {
+        CLOSED, HALF_OPEN, OPEN
+    }
+
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final MeterRegistry meterRegistry;
+    private final Clock clock = Clock.systemUTC();
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private Instant openedAt;
+    private boolean probeInFlight;
+    private boolean lastFailureWasAuth;
+
+    public GeminiCircuitBreaker(
+            @Value("${gemini.circuit-breaker.failure-threshold:5}") int failureThreshold,
+            @Value("${gemini.circuit-breaker.open-duration:PT30S}") Duration openDuration,
+            MeterRegistry meterRegistry) {
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.meterRegistry = meterRegistry;
+        Gauge.builder("nlp.gemini.circuit.state", this, breaker -> breaker.getState().ordinal())
+                .description("Gemini circuit breaker state (0 = closed, 1 = half-open, 2 = open)")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Check if a call may go to the network
+     * Trả về true thì caller bắt buộc phải gọi onSuccess/onFailure sau khi có kết quả.
+     */
+    public synchronized boolean tryAcquirePermission() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.instant().isBefore(openedAt.plus(openDuration))) {
+                    return false;
+                }
+                transitionTo(State.HALF_OPEN);
+                probeInFlight = true;
+                return true;
+            case HALF_OPEN:
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * Check without taking a permit (fail fast trước khi chiếm slot bulkhead)
+     */
+    public synchronized boolean isCallPermitted() {
+        return switch (state) {
+            case CLOSED -> true;
+            case OPEN -> !clock.instant().isBefore(openedAt.plus(openDuration));
+            case HALF_OPEN -> !probeInFlight;
+        };
+    }
+
+    /**
+     * Upstream trả lời bình thường (kể cả lỗi do request như 400)
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            transitionTo(State.CLOSED);
+        }
+    }
+
+    /**
+     * Upstream lỗi / quá tải
+     *
+     * @param authFailure true nếu lỗi 401/403 (API key sai/bị khóa)
+     */
+    public synchronized void onFailure(boolean authFailure) {
+        lastFailureWasAuth = authFailure;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN) {
+            open();
+        } else if (state == State.CLOSED && ++consecutiveFailures >= failureThreshold) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Circuit đang mở vì API key bị từ chối (→ API_NOT_CONFIGURED thay vì RATE_LIMIT_EXCEEDED)
+     */
+    public synchronized boolean isOpenDueToAuth() {
+        return state != State.CLOSED && lastFailureWasAuth;
+    }
+
+    private void open() {
+        openedAt = clock.instant();
+        transitionTo(State.OPEN);
+    }
+
+    private void transitionTo(State next) {
+        State previous = state;
+        state = next;
+        if (next == State.CLOSED) {
+            consecutiveFailures = 0;
+        }
+        Counter.builder("nlp.gemini.circuit.transitions")
+                .description("Gemini circuit breaker state transitions")
+                .tag("from", previous.name())
+                .tag("to", next.name())
+                .register(meterRegistry)
+                .increment();
+        log.warn("Gemini circuit breaker {} -> {}", previous, next);
+    }
+}
@@ -0,0 +1,363 @@
+package com.portfolio.wallet.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Response contract of the NLP prompt (intent / confidence / entities)
+ *
+ * Schema được định nghĩa 1 lần (FIELDS) và dùng cho 2 việc:
+ * - responseSchema(): gửi kèm request (structured output) để model trả đúng JSON
+ * - validate(): kiểm tra response và sửa tại chỗ các lỗi nhỏ (enum sai hoa/thường, số dạng string,
+ *   confidence 0-100, match là string...) thay vì coi cả response là lỗi
+ * repairJson() đóng lại JSON bị cắt giữa chừng (hết maxOutputTokens) để không phải gọi lại.
+ *
+ * Metric: nlp.gemini.response.repairs{kind=json|schema}
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GeminiResponseSchema {
+
+    private enum Type {
+        STRING, NUMBER, OBJECT, STRING_ARRAY, MATCH
+    }
+
+    private record Field(String name, Type type, List<String> enumValues, List<Field> children, boolean required) {
+
+        static Field string(String name) {
+            return new Field(name, Type.STRING, List.of(), List.of(), false);
+        }
+
+        static Field enumOf(String name, String... values) {
+            return new Field(name, Type.STRING, List.of(values), List.of(), false);
+        }
+
+        static Field number(String name) {
+            return new Field(name, Type.NUMBER, List.of(), List.of(), false);
+        }
+
+        static Field match(String name) {
+            return new Field(name, Type.MATCH, List.of(), List.of(), false);
+        }
+
+        static Field object(String name, Field... children) {
+            return new Field(name, Type.OBJECT, List.of(), List.of(children), false);
+        }
+
+        Field asRequired() {
+            return new Field(name, type, enumValues, children, true);
+        }
+    }
+
+    private static final Pattern GROUPED_NUMBER = Pattern.compile("-?\\d{1,3}([.,]\\d{3})+");
+
+    private static final List<Field> FIELDS = List.of(
+            Field.enumOf("intent", "CREATE_TRANSACTION", "CREATE_RECEIVABLE", "CREATE_LIABILITY",
+                    "CREATE_SETTLEMENT", "ADJUST_BALANCE", "QUERY_DATA", "UNKNOWN").asRequired(),
+            Field.number("confidence").asRequired(),
+            Field.object("entities",
+                    Field.number("amount"),
+                    Field.number("targetBalance"),
+                    Field.string("counterparty"),
+                    Field.match("accountMatch"),
+                    Field.match("categoryMatch"),
+                    Field.match("receivableMatch"),
+                    Field.match("liabilityMatch"),
+                    Field.string("note"),
+                    Field.string("date"),
+                    Field.enumOf("transactionType", "INCOME", "EXPENSE", "TRANSFER"),
+                    Field.object("query",
+                            Field.enumOf("metric", "EXPENSE", "INCOME", "NET"),
+                            Field.enumOf("period", "TODAY", "YESTERDAY", "THIS_WEEK", "LAST_WEEK",
+                                    "THIS_MONTH", "LAST_MONTH", "THIS_YEAR", "CUSTOM"),
+                            Field.string("startDate"),
+                            Field.string("endDate"),
+                            Field.enumOf("groupBy", "NONE", "CATEGORY", "ACCOUNT"))).asRequired(),
+            new Field("ambiguities", Type.STRING_ARRAY, List.of(), List.of(), false),
+            Field.string("queryType"));
+
+    private static final Map<String, Object> RESPONSE_SCHEMA = toApiSchema(FIELDS);
+    private static final Map<String, Object> BATCH_RESPONSE_SCHEMA = Map.of("type", "ARRAY", "items", RESPONSE_SCHEMA);
+
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Response schema for Gemini structured output (1 object)
+     */
+    public Map<String, Object> responseSchema() {
+        return RESPONSE_SCHEMA;
+    }
+
+    /**
+     * Response schema for batch prompts (array of objects)
+     */
+    public Map<String, Object> batchResponseSchema() {
+        return BATCH_RESPONSE_SCHEMA;
+    }
+
+    /**
+     * Validate a parsed response against the schema and repair it locally
+     *
+     * @return Response mới chỉ gồm các field hợp lệ (field thiếu bắt buộc được gán giá trị mặc định)
+     */
+    public Map<String, Object> validate(Map<String, Object> response) {
+        List<String> repairs = new ArrayList<>();
+        Map<String, Object> result = validateObject(FIELDS, response, "", repairs);
+        if (!repairs.isEmpty()) {
+            meterRegistry.counter("nlp.gemini.response.repairs", "kind", "schema").increment();
+            log.debug("Repaired Gemini response fields: {}", repairs);
+        }
+        return result;
+    }
+
+    /**
+     * Close a truncated/slightly malformed JSON text
+     * Đóng string đang mở, bỏ dấu phẩy thừa, đóng các {} [] còn mở.
+     *
+     * @return JSON đã sửa (có thể vẫn không hợp lệ nếu lỗi nằm ở giữa text)
+     */
+    public String repairJson(String json) {
+        String repaired = closeJson(json);
+        meterRegistry.counter("nlp.gemini.response.repairs", "kind", "json").increment();
+        return repaired;
+    }
+
+    /**
+     * Same as repairJson but without the metric (dùng cho JSON đang stream, chưa nhận hết)
+     */
+    public String closeJson(String json) {
+        StringBuilder out = new StringBuilder(json.length() + 8);
+        Deque<Character> closers = new ArrayDeque<>();
+        boolean inString = false;
+        boolean escaped = false;
+        for (int i = 0; i < json.length(); i++) {
+            char c = json.charAt(i);
+            if (inString) {
+                out.append(c);
+                if (escaped) {
+                    escaped = false;
+                } else if (c == '\\') {
+                    escaped = true;
+                } else if (c == '"') {
+                    inString = false;
+                }
+                continue;
+            }
+            switch (c) {
+                case '"' -> {
+                    inString = true;
+                    out.append(c);
+                }
+                case '{' -> {
+                    closers.push('}');
+                    out.append(c);
+                }
+                case '[' -> {
+                    closers.push(']');
+                    out.append(c);
+                }
+                case '}', ']' -> {
+                    // Bỏ ký tự đóng không khớp
+                    if (!closers.isEmpty() && closers.peek() == c) {
+                        closers.pop();
+                        trimTrailingComma(out);
+                        out.append(c);
+                    }
+                }
+                default -> out.append(c);
+            }
+        }
+        if (inString) {
+            if (escaped) {
+                out.setLength(out.length() - 1);
+            }
+            out.append('"');
+        }
+        trimTrailingComma(out);
+        if (out.length() > 0 && out.charAt(out.length() - 1) == ':') {
+            out.append("null");
+        }
+        while (!closers.isEmpty()) {
+            trimTrailingComma(out);
+            out.append(closers.pop());
+        }
+        return out.toString();
+    }
+
+    private void trimTrailingComma(StringBuilder out) {
+        int end = out.length();
+        while (end > 0 && Character.isWhitespace(out.charAt(end - 1))) {
+            end--;
+        }
+        if (end > 0 && out.charAt(end - 1) == ',') {
+            end--;
+        }
+        out.setLength(end);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> validateObject(List<Field> fields, Map<String, Object> value, String path,
+                                               List<String> repairs) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (Field field : fields) {
+            Object raw = value != null ? value.get(field.name()) : null;
+            Object valid = raw != null ? validateField(field, raw, path + field.name(), repairs) : null;
+            if (valid == null && field.required()) {
+                valid = defaultValue(field);
+                repairs.add(path + field.name() + " (missing)");
+            }
+            if (valid != null) {
+                result.put(field.name(), valid);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object validateField(Field field, Object value, String path, List<String> repairs) {
+        switch (field.type()) {
+            case STRING -> {
+                if (field.enumValues().isEmpty()) {
+                    return value instanceof String ? value : String.valueOf(value);
+                }
+                String normalized = String.valueOf(value).trim().toUpperCase(Locale.ROOT).replace(' ', '_');
+                if (field.enumValues().contains(normalized)) {
+                    if (!normalized.equals(value)) {
+                        repairs.add(path);
+                    }
+                    return normalized;
+                }
+                repairs.add(path + " (invalid)");
+                return null;
+            }
+            case NUMBER -> {
+                Double number = toNumber(value);
+                if (number == null) {
+                    repairs.add(path + " (invalid)");
+                    return null;
+                }
+                if (!(value instanceof Number)) {
+                    repairs.add(path);
+                }
+                if (field.name().equals("confidence")) {
+                    // Một số model trả 0-100
+                    double confidence = number > 1 && number <= 100 ? number / 100 : number;
+                    return Math.max(0, Math.min(1, confidence));
+                }
+                return value instanceof Number ? value : number;
+            }
+            case OBJECT -> {
+                if (!(value instanceof Map)) {
+                    repairs.add(path + " (invalid)");
+                    return null;
+                }
+                return validateObject(field.children(), (Map<String, Object>) value, path + ".", repairs);
+            }
+            case MATCH -> {
+                if (value instanceof String id && !id.isBlank()) {
+                    repairs.add(path);
+                    Map<String, Object> match = new LinkedHashMap<>();
+                    match.put("id", id);
+                    match.put("confidence", 0.5);
+                    return match;
+                }
+                if (!(value instanceof Map<?, ?> map) || !(map.get("id") instanceof String)) {
+                    repairs.add(path + " (invalid)");
+                    return null;
+                }
+                Map<String, Object> match = new LinkedHashMap<>();
+                match.put("id", map.get("id"));
+                Double confidence = toNumber(map.get("confidence"));
+                match.put("confidence", confidence != null ? Math.max(0, Math.min(1, confidence)) : 0.5);
+                return match;
+            }
+            case STRING_ARRAY -> {
+                if (value instanceof List<?> list) {
+                    return list.stream().filter(item -> item != null).map(String::valueOf).toList();
+                }
+                repairs.add(path);
+                return List.of(String.valueOf(value));
+            }
+            default -> {
+                return null;
+            }
+        }
+    }
+
+    private Object defaultValue(Field field) {
+        return switch (field.name()) {
+            case "intent" -> "UNKNOWN";
+            case "confidence" -> 0.0;
+            default -> new LinkedHashMap<String, Object>();
+        };
+    }
+
+    /**
+     * Number hoặc string số ("50000", "50.000", "0,8")
+     */
+    private Double toNumber(Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (!(value instanceof String text)) {
+            return null;
+        }
+        String cleaned = text.trim().replace(" ", "");
+        cleaned = GROUPED_NUMBER.matcher(cleaned).matches()
+                ? cleaned.replace(".", "").replace(",", "")
+                : cleaned.replace(',', '.');
+        try {
+            return Double.parseDouble(cleaned);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Convert field specs to the Gemini responseSchema format (OpenAPI subset)
+     */
+    private static Map<String, Object> toApiSchema(List<Field> fields) {
+        Map<String, Object> properties = new LinkedHashMap<>();
+        List<String> required = new ArrayList<>();
+        for (Field field : fields) {
+            properties.put(field.name(), toApiSchema(field));
+            if (field.required()) {
+                required.add(field.name());
+            }
+        }
+        Map<String, Object> schema = new LinkedHashMap<>();
+        schema.put("type", "OBJECT");
+        schema.put("properties", properties);
+        if (!required.isEmpty()) {
+            schema.put("required", required);
+        }
+        return Map.copyOf(schema);
+    }
+
+    private static Map<String, Object> toApiSchema(Field field) {
+        return switch (field.type()) {
+            case STRING -> field.enumValues().isEmpty()
+                    ? Map.of("type", "STRING")
+                    : Map.of("type", "STRING", "enum", field.enumValues());
+            case NUMBER -> Map.of("type", "NUMBER");
+            case OBJECT -> toApiSchema(field.children());
+            case STRING_ARRAY -> Map.of("type", "ARRAY", "items", Map.of("type", "STRING"));
+            case MATCH -> Map.of(
+                    "type", "OBJECT",
+                    "properties", Map.of("id", Map.of("type", "STRING"), "confidence", Map.of("type", "NUMBER")),
+                    "required", List.of("id", "confidence"));
+        };
+    }
+}
@@ -1,29 +1,170 @@
 package com.portfolio.wallet.service;
 
+import com.portfolio.common.exception.BusinessException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.client.RestClientException;
 
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 /**
  * Service for interacting with Google Gemini API
+ *
+ * Gọi Gemini không chặn request thread:
+ * - java.net.http.HttpClient dùng chung (keep-alive / HTTP/2, tái sử dụng connection)
+ * - connect timeout + request timeout lấy từ config
+ * - Retry (429, 5xx, timeout, lỗi IO) được schedule với exponential backoff + jitter,
+ *   không Thread.sleep
+ * - Bulkhead giới hạn số call đồng thời; circuit breaker fail fast khi Gemini quá tải/lỗi
+ *   (GeminiUnavailableException, không gọi network)
+ * - Model tiers (gemini.api.urls): gọi model rẻ/nhanh trước, chỉ escalate lên model lớn hơn khi
+ *   confidence < gemini.api.escalation-confidence hoặc response không parse được JSON
+ *
+ * - Structured output (gemini.api.structured-output): gửi responseSchema để model trả đúng JSON;
+ *   response lỗi nhẹ/bị cắt được sửa tại chỗ (GeminiResponseSchema) thay vì gọi lại
+ * - Streaming (streamTextAsync): streamGenerateContent?alt=sse, JSON từng phần được đẩy ra ngay khi
+ *   nhận chunk để client hiển thị intent/entities trước khi model trả xong
+ * - Prompt = STATIC_PROMPT_PREFIX (instructions/rules/examples/schema, build 1 lần) + phần động
+ *   (context + user input). Bật gemini.prompt-cache thì prefix được upload thành cachedContents
+ *   của từng model và request chỉ gửi phần động
+ *
+ * Metrics theo tier: nlp.gemini.latency{tier, outcome}, nlp.gemini.escalations{tier, reason},
+ * nlp.gemini.tokens{tier, kind}, nlp.gemini.cost{tier}; stage buildPrompt/http/parseResponse qua NLPStageMetrics
  */
 @Slf4j
 @Service
 public class GeminiService {
     
-    private final RestTemplate restTemplate;
+    private static final int MAX_ERROR_BODY_LENGTH = 500;
+    private static final int DEFAULT_MAX_OUTPUT_TOKENS = 2048;
+    private static final int BATCH_OUTPUT_TOKENS_PER_LINE = 384;
+    private static final int MAX_BATCH_OUTPUT_TOKENS = 8192;
+    private static final Duration PROMPT_CACHE_REFRESH_MARGIN = Duration.ofMinutes(2);
+    
+    /**
+     * Static part of every prompt (không phụ thuộc user/request), precompiled 1 lần
+     */
+    static final String STATIC_PROMPT_PREFIX = """
+            Bạn là assistant parse text thành structured data cho ứng dụng quản lý chi tiêu.
+            Luôn trả về JSON theo schema đã định nghĩa.
+            Không tự tạo data, chỉ extract từ input.
+            Khi không chắc chắn, set confidence thấp và needConfirmFields.
+            
+            PHÂN LOẠI INTENT:
+            - CREATE_RECEIVABLE: Khi user "cho vay", "cho mượn", "cho ai đó tiền" (ví dụ: "cho Nam vay 2tr", "cho a Hùng vay 50k")
+            - CREATE_LIABILITY: Khi user "vay", "mượn", "nợ ai đó" (ví dụ: "vay anh Hùng 5tr", "nợ Long 100k")
+            - CREATE_SETTLEMENT: Khi user "trả nợ", "nhận tiền trả nợ", "thanh toán" (ví dụ: "Trả nợ anh Hùng 80k", "Long trả 100k")
+            - CREATE_TRANSACTION: Khi user chi tiêu/thu nhập thông thường (ví dụ: "ăn bún 50k", "lương tháng 1 10tr")
+            - ADJUST_BALANCE: Khi user muốn điều chỉnh số dư tài khoản về một giá trị mới (ví dụ: "điều chỉnh số dư ví tiền mặt về 2 triệu", "cân lại số dư tài khoản A còn 500k")
+            - QUERY_DATA: Khi user hỏi thông tin (ví dụ: "tháng này chi bao nhiêu?")
+            
+            QUY TẮC:
+            - Số tiền VN: "50k" = 50000, "2tr" = 2000000, "1.5 triệu" = 1500000
+            - Ngày: "hôm nay" = current date, "hôm qua" = yesterday, "ngày mai" = tomorrow, "16/1" = ngày 16 tháng 1 năm hiện tại
+            - Tài khoản: match với danh sách accounts (vcb=Vietcombank, mb=MBBank, tienmat=Tiền mặt)
+            - Counterparty: Tên người trong câu (ví dụ: "a Hùng", "Nam", "Long")
+            
+            VÍ DỤ:
+            1. "cho a Hùng vay 50k" → intent: CREATE_RECEIVABLE, counterparty: "a Hùng", amount: 50000
+            2. "vay anh Hùng 5tr" → intent: CREATE_LIABILITY, counterparty: "anh Hùng", amount: 5000000
+            3. "Trả nợ anh Hùng 80k vietcombank" → intent: CREATE_SETTLEMENT, type: LIABILITY, counterparty: "anh Hùng", amount: 80000, accountMatch: vietcombank
+            4. "ăn bún 50k" → intent: CREATE_TRANSACTION, type: EXPENSE, amount: 50000, categoryMatch: Ăn uống
+            5. "Long trả 100k" → intent: CREATE_SETTLEMENT, type: RECEIVABLE, counterparty: "Long", amount: 100000
+            6. "điều chỉnh số dư ví tiền mặt về 2 triệu" → intent: ADJUST_BALANCE, accountMatch: ví tiền mặt, targetBalance: 2000000
+            7. "tháng này tiêu bao nhiêu cho ăn uống" → intent: QUERY_DATA, query: {metric: EXPENSE, period: THIS_MONTH, groupBy: NONE}, categoryMatch: Ăn uống
+            
+            OUTPUT SCHEMA (JSON):
+            {
+              "intent": "CREATE_TRANSACTION" | "CREATE_RECEIVABLE" | "CREATE_LIABILITY" | "CREATE_SETTLEMENT" | "ADJUST_BALANCE" | "QUERY_DATA" | "UNKNOWN",
+              "confidence": 0.0-1.0,
+              "entities": {
+                "amount": number (optional),
+                "targetBalance": number (optional, REQUIRED for ADJUST_BALANCE),
+                "counterparty": string (optional, REQUIRED cho RECEIVABLE/LIABILITY/SETTLEMENT),
+                "accountMatch": {"id": string, "confidence": number} (optional, REQUIRED cho ADJUST_BALANCE),
+                "categoryMatch": {"id": string, "confidence": number} (optional, only for TRANSACTION),
+                "receivableMatch": {"id": string, "confidence": number} (optional, for SETTLEMENT type RECEIVABLE),
+                "liabilityMatch": {"id": string, "confidence": number} (optional, for SETTLEMENT type LIABILITY),
+                "note": string (optional),
+                "date": string ISO format (optional, format: YYYY-MM-DDTHH:mm:ss),
+                "transactionType": "INCOME" | "EXPENSE" | "TRANSFER" (optional, only for CREATE_TRANSACTION),
+                "query": {"metric": "EXPENSE" | "INCOME" | "NET", "period": "TODAY" | "YESTERDAY" | "THIS_WEEK" | "LAST_WEEK" | "THIS_MONTH" | "LAST_MONTH" | "THIS_YEAR" | "CUSTOM", "startDate": "YYYY-MM-DD" (CUSTOM), "endDate": "YYYY-MM-DD" (CUSTOM), "groupBy": "NONE" | "CATEGORY" | "ACCOUNT"} (optional, REQUIRED cho QUERY_DATA)
+              },
+              "ambiguities": [string] (optional),
+              "queryType": string (optional, for QUERY_DATA intent)
+            }
+            
+            LƯU Ý QUAN TRỌNG:
+            - Nếu text có từ "cho vay", "cho mượn", "cho [tên] vay" → intent phải là CREATE_RECEIVABLE
+            - Nếu text có từ "vay", "mượn", "nợ" (không phải "cho vay") → intent phải là CREATE_LIABILITY
+            - Nếu text có từ "trả nợ", "nhận tiền", "thanh toán" → intent phải là CREATE_SETTLEMENT
+            - Nếu text có từ "điều chỉnh số dư", "chỉnh lại số dư", "cân bằng số dư" → intent phải là ADJUST_BALANCE
+            - Chỉ dùng CREATE_TRANSACTION cho chi tiêu/thu nhập thông thường (ăn uống, mua sắm, lương, v.v.)
+            
+            """;
+    
     private final ObjectMapper objectMapper;
+    private final GeminiCircuitBreaker circuitBreaker;
+    private final NLPContextSelector contextSelector;
+    private final GeminiResponseSchema responseSchema;
+    private final NLPStageMetrics stageMetrics;
+    private final NLPUsageMeter usageMeter;
+    private final MeterRegistry meterRegistry;
+    private ExecutorService executor;
+    private HttpClient httpClient;
+    private Semaphore bulkhead;
+    private Counter bulkheadRejections;
+    private List<ModelTier> tiers;
+    private final Map<String, CachedPrefix> cachedPrefixes = new ConcurrentHashMap<>();
+    private final Set<String> cachedPrefixesInFlight = ConcurrentHashMap.newKeySet();
+    private final Set<String> cachedPrefixUnsupported = ConcurrentHashMap.newKeySet();
     
-    public GeminiService() {
-        this.restTemplate = new RestTemplate();
+    public GeminiService(GeminiCircuitBreaker circuitBreaker, NLPContextSelector contextSelector,
+                         GeminiResponseSchema responseSchema, NLPStageMetrics stageMetrics,
+                         NLPUsageMeter usageMeter, MeterRegistry meterRegistry) {
         this.objectMapper = new ObjectMapper();
+        this.circuitBreaker = circuitBreaker;
+        this.contextSelector = contextSelector;
+        this.responseSchema = responseSchema;
+        this.stageMetrics = stageMetrics;
+        this.usageMeter = usageMeter;
+        this.meterRegistry = meterRegistry;
     }
     
     @Value("${gemini.api.key:}")
@@ -32,130 +173,749 @@ public class GeminiService {
     @Value("${gemini.api.url:https://generativelanguage.googleapis.com/v1beta/models/gemma-3-4b-it:generateContent}")
     private String apiUrl;
     
+    /**
+     * Model endpoints theo thứ tự rẻ → đắt, phân cách bởi dấu phẩy (trống = chỉ dùng gemini.api.url)
+     */
+    @Value("${gemini.api.urls:}")
+    private String apiUrls;
+    
+    /**
+     * Chi phí mỗi 1M token của từng tier (cùng thứ tự với urls), dùng cho metric nlp.gemini.cost
+     */
+    @Value("${gemini.api.tier-costs:}")
+    private String tierCosts;
+    
+    @Value("${gemini.api.escalation-confidence:0.7}")
+    private double escalationConfidence;
+    
+    /**
+     * Gửi responseSchema + responseMimeType=application/json (model Gemma không hỗ trợ → mặc định tắt)
+     */
+    @Value("${gemini.api.structured-output:false}")
+    private boolean structuredOutput;
+    
     @Value("${gemini.api.timeout:5000}")
     private int timeoutMs;
     
+    @Value("${gemini.api.connect-timeout:2000}")
+    private int connectTimeoutMs;
+    
+    /**
+     * Tổng thời gian cho một lần parse (mọi attempt + tier + fallback), phải nhỏ hơn MVC async request-timeout
+     */
+    @Value("${gemini.api.deadline:25000}")
+    private long deadlineMs;
+    
     @Value("${gemini.api.max-retries:3}")
     private int maxRetries;
     
+    @Value("${gemini.api.retry-base-delay:500}")
+    private long retryBaseDelayMs;
+    
+    @Value("${gemini.api.threads:8}")
+    private int threads;
+    
+    @Value("${gemini.bulkhead.max-concurrent:20}")
+    private int maxConcurrentCalls;
+    
+    /**
+     * Upload STATIC_PROMPT_PREFIX thành cachedContents (chỉ model Gemini hỗ trợ context caching)
+     */
+    @Value("${gemini.prompt-cache.enabled:false}")
+    private boolean promptCacheEnabled;
+    
+    @Value("${gemini.prompt-cache.ttl:PT1H}")
+    private Duration promptCacheTtl;
+    
+    /**
+     * Error response (non-2xx) from Gemini API
+     */
+    @Getter
+    public static class GeminiApiException extends RuntimeException {
+        private final int statusCode;
+        
+        public GeminiApiException(int statusCode, String body) {
+            super("Gemini API returned HTTP " + statusCode + ": " + body);
+            this.statusCode = statusCode;
+        }
+        
+        public boolean isRetryable() {
+            return statusCode == 429 || statusCode >= 500;
+        }
+        
+        public boolean isAuthFailure() {
+            return statusCode == 401 || statusCode == 403;
+        }
+    }
+    
+    /**
+     * Response của model không đúng format (không có text / không phải JSON) → escalate được
+     */
+    public static class GeminiResponseFormatException extends RuntimeException {
+        public GeminiResponseFormatException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+    
+    /**
+     * One model endpoint
+     * 
+     * @param name Tên model lấy từ URL (.../models/{name}:generateContent), dùng làm tag metric
+     */
+    public record ModelTier(String name, String url, double costPerMillionTokens) {
+    }
+    
+    /**
+     * Cached-content handle of the static prompt prefix for one model
+     * 
+     * @param name cachedContents/{id}
+     */
+    private record CachedPrefix(String name, Instant expiresAt) {
+    }
+    
+    /**
+     * Prompt/request body prepared once per call, reused by every attempt and tier
+     * 
+     * @param userId          User được tính usage (NLPUsageMeter)
+     * @param dynamicPrompt   Phần động (context + user input), gửi kèm cachedContent
+     * @param fullRequestBody Request body với prompt đầy đủ (prefix + phần động)
+     * @param deadlineNanos   System.nanoTime() mà sau đó không retry/escalate nữa
+     */
+    private record PreparedCall(String userId, String dynamicPrompt, String fullRequestBody, int maxOutputTokens,
+                                Map<String, Object> schema, long deadlineNanos) {
+    }
+    
+    /**
+     * Gemini call bị từ chối trước khi gọi network (circuit open / bulkhead đầy / chưa cấu hình)
+     * errorCode: RATE_LIMIT_EXCEEDED hoặc API_NOT_CONFIGURED
+     */
+    public static class GeminiUnavailableException extends BusinessException {
+        public GeminiUnavailableException(String errorCode, String message) {
+            super(errorCode, message);
+        }
+    }
+    
+    @PostConstruct
+    void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "gemini-http-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(executor)
+                .build();
+        this.bulkhead = new Semaphore(maxConcurrentCalls);
+        this.bulkheadRejections = Counter.builder("nlp.gemini.bulkhead.rejected")
+                .description("Gemini calls rejected because too many were in flight")
+                .register(meterRegistry);
+        Gauge.builder("nlp.gemini.bulkhead.available", bulkhead, Semaphore::availablePermits)
+                .description("Free Gemini call slots")
+                .register(meterRegistry);
+        this.tiers = parseTiers();
+        log.info("Gemini model tiers: {}", tiers.stream().map(ModelTier::name).collect(Collectors.toList()));
+    }
+    
+    private List<ModelTier> parseTiers() {
+        List<String> urls = Arrays.stream(apiUrls.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .collect(Collectors.toList());
+        if (urls.isEmpty()) {
+            urls = List.of(apiUrl);
+        }
+        String[] costs = tierCosts.split(",");
+        List<ModelTier> result = new ArrayList<>();
+        for (int i = 0; i < urls.size(); i++) {
+            String url = urls.get(i);
+            double cost = 0;
+            if (i < costs.length && !costs[i].isBlank()) {
+                cost = Double.parseDouble(costs[i].trim());
+            }
+            result.add(new ModelTier(modelName(url), url, cost));
+        }
+        return List.copyOf(result);
+    }
+    
+    private String modelName(String url) {
+        int start = url.indexOf("/models/");
+        if (start < 0) {
+            return url;
+        }
+        int end = url.indexOf(':', start);
+        return end > start ? url.substring(start + 8, end) : url.substring(start + 8);
+    }
+    
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+    
     /**
-     * Parse user text input using Gemini AI with retry logic
+     * Parse user text input using Gemini AI with retry logic (non-blocking)
      * 
+     * @param userId User được tính usage
      * @param userText User's text input
      * @param context Context data (accounts, categories, receivables, liabilities)
      * @param timezone User's timezone
      * @param locale User's locale
-     * @return Parsed JSON response from Gemini
+     * @return Future của JSON response đã parse từ Gemini
      */
-    public Map<String, Object> parseText(String userText, Map<String, Object> context, 
-                                         String timezone, String locale) {
+    public CompletableFuture<Map<String, Object>> parseTextAsync(String userId, String userText, Map<String, Object> context,
+                                                               String timezone, String locale) {
+        return parseTextAsync(userId, userText, context, timezone, locale, newDeadline());
+    }
+    
+    private CompletableFuture<Map<String, Object>> parseTextAsync(String userId, String userText, Map<String, Object> context,
+                                                                String timezone, String locale, long deadlineNanos) {
+        return generateAsync(
+                userId,
+                deadlineNanos,
+                () -> buildCompactPrompt(userId, userText, context, c -> buildPrompt(userText, c, timezone, locale)),
+                DEFAULT_MAX_OUTPUT_TOKENS,
+                responseSchema.responseSchema(),
+                this::parseJsonResponse,
+                result -> {
+                    Object confidence = result.get("confidence");
+                    return confidence instanceof Number number && number.doubleValue() >= escalationConfidence;
+                });
+    }
+    
+    /**
+     * Parse many inputs in a single Gemini call (non-blocking)
+     * 
+     * @return Future của danh sách JSON response, cùng thứ tự với lines
+     *         (Gemini trả thiếu phần tử thì danh sách có thể ngắn hơn lines)
+     */
+    public CompletableFuture<List<Map<String, Object>>> parseBatchAsync(String userId, List<String> lines, Map<String, Object> context,
+                                                                      String timezone, String locale) {
+        String joined = String.join("\n", lines);
+        int maxOutputTokens = Math.min(MAX_BATCH_OUTPUT_TOKENS, BATCH_OUTPUT_TOKENS_PER_LINE * (lines.size() + 1));
+        // Batch chỉ escalate khi JSON hỏng hoặc thiếu phần tử (escalate cả batch vì 1 dòng là quá đắt)
+        return generateAsync(
+                userId,
+                newDeadline(),
+                () -> buildCompactPrompt(userId, joined, context, c -> buildBatchPrompt(lines, c, timezone, locale)),
+                maxOutputTokens,
+                responseSchema.batchResponseSchema(),
+                this::parseJsonArrayResponse,
+                results -> results.size() == lines.size());
+    }
+    
+    /**
+     * Parse text với streaming endpoint (streamGenerateContent?alt=sse, non-blocking)
+     * 
+     * onPartial nhận JSON (đã đóng ngoặc) của phần text nhận được tới lúc đó, sau mỗi chunk
+     * (gọi trên thread của HttpClient). Chỉ gọi tier đầu tiên, không retry/escalate vì partial đã được
+     * đẩy ra: stream lỗi tạm thời hoặc JSON cuối không parse được → fallback parseTextAsync (đủ retry + tiers)
+     * trong phần thời gian còn lại của cùng deadline.
+     * Tier không có endpoint stream (url không kết thúc bằng :generateContent) → parseTextAsync luôn.
+     */
+    public CompletableFuture<Map<String, Object>> streamTextAsync(String userId, String userText, Map<String, Object> context,
+                                                                String timezone, String locale,
+                                                                Consumer<Map<String, Object>> onPartial) {
+        ModelTier tier = tiers.get(0);
+        long deadlineNanos = newDeadline();
+        if (apiKey == null || apiKey.isEmpty() || !tier.url().endsWith(":generateContent")) {
+            return parseTextAsync(userId, userText, context, timezone, locale, deadlineNanos);
+        }
+        if (!circuitBreaker.isCallPermitted()) {
+            return CompletableFuture.failedFuture(circuitOpenException());
+        }
+        if (!bulkhead.tryAcquire()) {
+            bulkheadRejections.increment();
+            log.warn("Gemini bulkhead full ({} calls in flight), rejecting stream", maxConcurrentCalls);
+            return CompletableFuture.failedFuture(
+                    new GeminiUnavailableException("RATE_LIMIT_EXCEEDED", "Too many concurrent Gemini calls"));
+        }
+        
+        String requestBody;
+        long promptStartNanos = System.nanoTime();
+        try {
+            String dynamicPrompt = buildCompactPrompt(userId, userText, context, c -> buildPrompt(userText, c, timezone, locale));
+            String cachedPrefix = promptCacheEnabled ? cachedPrefix(tier) : null;
+            requestBody = objectMapper.writeValueAsString(cachedPrefix == null
+                    ? buildRequestBody(STATIC_PROMPT_PREFIX + dynamicPrompt, null, DEFAULT_MAX_OUTPUT_TOKENS,
+                            responseSchema.responseSchema())
+                    : buildRequestBody(dynamicPrompt, cachedPrefix, DEFAULT_MAX_OUTPUT_TOKENS,
+                            responseSchema.responseSchema()));
+            stageMetrics.record("buildPrompt", promptStartNanos);
+        } catch (IOException | RuntimeException e) {
+            bulkhead.release();
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to build Gemini request: " + e.getMessage(), e));
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            bulkhead.release();
+            return CompletableFuture.failedFuture(circuitOpenException());
+        }
+        
+        HttpRequest request = HttpRequest.newBuilder(URI.create(
+                        tier.url().replace(":generateContent", ":streamGenerateContent") + "?alt=sse&key=" + apiKey))
+                .timeout(attemptTimeout(deadlineNanos))
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .build();
+        StreamSubscriber subscriber = new StreamSubscriber(onPartial);
+        long startNanos = System.nanoTime();
+        return httpClient.sendAsync(request, responseInfo -> responseInfo.statusCode() / 100 == 2
+                        ? HttpResponse.BodySubscribers.fromLineSubscriber(subscriber, StreamSubscriber::text,
+                                StandardCharsets.UTF_8, null)
+                        : HttpResponse.BodySubscribers.<String, String>mapping(
+                                HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8),
+                                body -> {
+                                    throw new GeminiApiException(responseInfo.statusCode(),
+                                            body.length() > MAX_ERROR_BODY_LENGTH ? body.substring(0, MAX_ERROR_BODY_LENGTH) : body);
+                                }))
+                .handle((response, error) -> {
+                    bulkhead.release();
+                    Throwable cause = error != null ? unwrap(error) : null;
+                    recordOutcome(cause);
+                    Map<String, Object> result = null;
+                    if (cause == null) {
+                        stageMetrics.record("http", startNanos);
+                        recordUsage(tier, userId, requestBody.length(), subscriber.lastChunk(),
+                                response.body().length(), startNanos);
+                        try {
+                            result = stageMetrics.time("parseResponse", () -> parseJsonResponse(response.body()));
+                        } catch (GeminiResponseFormatException e) {
+                            cause = e;
+                        }
+                    }
+                    recordLatency(tier, startNanos, cause == null ? "success" : "stream_error");
+                    if (cause == null) {
+                        return CompletableFuture.completedFuture(result);
+                    }
+                    if ((cause instanceof GeminiResponseFormatException || isRetryable(cause))
+                            && !deadlinePassed(deadlineNanos)) {
+                        log.warn("Gemini stream from {} failed, falling back to a regular call: {}",
+                                tier.name(), cause.getMessage());
+                        return parseTextAsync(userId, userText, context, timezone, locale, deadlineNanos);
+                    }
+                    return CompletableFuture.<Map<String, Object>>failedFuture(cause);
+                })
+                .thenCompose(Function.identity());
+    }
+    
+    /**
+     * Send a prompt to Gemini (guards + retry + tier escalation) and parse the response
+     * 
+     * @param deadlineNanos Hết hạn thì dừng retry/escalate, attempt đang chạy bị cắt timeout theo thời gian còn lại
+     * @param schema     Response schema, chỉ gửi khi bật structured output
+     * @param parser     Parse response text; GeminiResponseFormatException → escalate
+     * @param acceptable Kết quả đủ tốt, không cần hỏi model lớn hơn
+     */
+    private <T> CompletableFuture<T> generateAsync(String userId, long deadlineNanos, Supplier<String> promptSupplier,
+                                                   int maxOutputTokens,
+                                                   Map<String, Object> schema,
+                                                   Function<String, T> parser, Predicate<T> acceptable) {
         if (apiKey == null || apiKey.isEmpty()) {
             log.warn("Gemini API key not configured");
-            throw new IllegalStateException("Gemini API key is not configured");
+            return CompletableFuture.failedFuture(
+                    new GeminiUnavailableException("API_NOT_CONFIGURED", "Gemini API key is not configured"));
+        }
+        if (!circuitBreaker.isCallPermitted()) {
+            return CompletableFuture.failedFuture(circuitOpenException());
+        }
+        if (!bulkhead.tryAcquire()) {
+            bulkheadRejections.increment();
+            log.warn("Gemini bulkhead full ({} calls in flight), rejecting call", maxConcurrentCalls);
+            return CompletableFuture.failedFuture(
+                    new GeminiUnavailableException("RATE_LIMIT_EXCEEDED", "Too many concurrent Gemini calls"));
         }
         
-        // Build prompt and request body once
-        String prompt = buildPrompt(userText, context, timezone, locale);
-        Map<String, Object> requestBody = buildRequestBody(prompt);
-        String url = apiUrl + "?key=" + apiKey;
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+        // Build prompt and request body once, reused by every attempt and tier
+        PreparedCall call;
+        long promptStartNanos = System.nanoTime();
+        try {
+            String dynamicPrompt = promptSupplier.get();
+            String fullRequestBody = objectMapper.writeValueAsString(
+                    buildRequestBody(STATIC_PROMPT_PREFIX + dynamicPrompt, null, maxOutputTokens, schema));
+            call = new PreparedCall(userId, dynamicPrompt, fullRequestBody, maxOutputTokens, schema, deadlineNanos);
+            stageMetrics.record("buildPrompt", promptStartNanos);
+        } catch (IOException | RuntimeException e) {
+            bulkhead.release();
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to build Gemini request: " + e.getMessage(), e));
+        }
         
-        // Retry logic with exponential backoff
-        Exception lastException = null;
-        for (int attempt = 0; attempt <= maxRetries; attempt++) {
-            try {
-                if (attempt > 0) {
-                    // Exponential backoff: 1s, 2s, 4s
-                    long delayMs = (long) Math.pow(2, attempt - 1) * 1000;
-                    log.info("Retrying Gemini API call after {}ms (attempt {}/{})", delayMs, attempt + 1, maxRetries + 1);
-                    Thread.sleep(delayMs);
-                }
-                
-                log.debug("Calling Gemini API with prompt length: {} (attempt {})", prompt.length(), attempt + 1);
-                @SuppressWarnings("unchecked")
-                ResponseEntity<Map<String, Object>> response = restTemplate.exchange(
-                    url, 
-                    HttpMethod.POST, 
-                    entity, 
-                    (Class<Map<String, Object>>) (Class<?>) Map.class
-                );
-                
-                // Extract response text
-                String responseText = extractResponseText(response.getBody());
-                log.debug("Gemini response text length: {}", responseText.length());
-                
-                // Parse JSON from response text
-                return parseJsonResponse(responseText);
-                
-            } catch (RestClientException e) {
-                lastException = e;
-                String errorMessage = e.getMessage();
-                
-                // Check if it's a rate limit error (429)
-                if (errorMessage != null && errorMessage.contains("429")) {
-                    log.warn("Rate limit exceeded (429), will retry. Attempt {}/{}", attempt + 1, maxRetries + 1);
-                    if (attempt < maxRetries) {
-                        continue; // Retry
-                    }
-                }
-                
-                // For other errors or max retries reached
-                log.error("Error calling Gemini API (attempt {})", attempt + 1, e);
-                if (attempt == maxRetries) {
-                    throw new RuntimeException("Failed to call Gemini API after " + (maxRetries + 1) + " attempts: " + e.getMessage(), e);
-                }
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                throw new RuntimeException("Interrupted while waiting for retry", e);
-            } catch (Exception e) {
-                log.error("Error parsing Gemini response", e);
-                throw new RuntimeException("Failed to parse Gemini response: " + e.getMessage(), e);
-            }
+        log.debug("Calling Gemini API with prompt length: {} + {}", STATIC_PROMPT_PREFIX.length(), call.dynamicPrompt().length());
+        return callTier(0, call, promptCacheEnabled, parser, acceptable)
+                .whenComplete((result, error) -> bulkhead.release());
+    }
+    
+    /**
+     * Call one tier; escalate to the next tier on low-quality or unparseable results
+     * Tier cuối cùng (hoặc hết deadline) trả về kết quả như hiện có (NLPService tự xử lý confidence thấp).
+     * 
+     * @param useCachedPrefix Gửi cachedContent thay cho prefix nếu tier đã có handle
+     */
+    private <T> CompletableFuture<T> callTier(int tierIndex, PreparedCall call, boolean useCachedPrefix,
+                                              Function<String, T> parser, Predicate<T> acceptable) {
+        if (deadlinePassed(call.deadlineNanos())) {
+            return CompletableFuture.failedFuture(deadlineExceeded());
+        }
+        ModelTier tier = tiers.get(tierIndex);
+        boolean lastTier = tierIndex == tiers.size() - 1;
+        String cachedPrefix = useCachedPrefix ? cachedPrefix(tier) : null;
+        String requestBody;
+        try {
+            requestBody = cachedPrefix == null
+                    ? call.fullRequestBody()
+                    : objectMapper.writeValueAsString(
+                            buildRequestBody(call.dynamicPrompt(), cachedPrefix, call.maxOutputTokens(), call.schema()));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("Failed to build Gemini request: " + e.getMessage(), e));
         }
+        // Build lại request cho mỗi attempt để timeout không vượt quá deadline
+        Supplier<HttpRequest> request = () -> HttpRequest.newBuilder(URI.create(tier.url() + "?key=" + apiKey))
+                .timeout(attemptTimeout(call.deadlineNanos()))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                .build();
         
-        // Should not reach here, but just in case
-        throw new RuntimeException("Failed to call Gemini API after retries", lastException);
+        long startNanos = System.nanoTime();
+        return sendWithRetry(request, call.deadlineNanos(), 0)
+                .thenApply(responseBody -> {
+                    stageMetrics.record("http", startNanos);
+                    String responseText = extractResponseText(responseBody);
+                    recordUsage(tier, call.userId(), requestBody.length(), responseBody, responseText.length(), startNanos);
+                    log.debug("Gemini [{}] response text length: {}", tier.name(), responseText.length());
+                    return stageMetrics.time("parseResponse", () -> parser.apply(responseText));
+                })
+                .handle((result, error) -> {
+                    Throwable cause = error != null ? unwrap(error) : null;
+                    boolean expired = deadlinePassed(call.deadlineNanos());
+                    if (cachedPrefix != null && !expired && cause instanceof GeminiApiException apiException
+                            && (apiException.getStatusCode() == 400 || apiException.getStatusCode() == 404)) {
+                        // Handle hết hạn/bị xóa phía server: bỏ handle, gửi lại prompt đầy đủ
+                        log.warn("Gemini rejected cached prompt prefix {} for {}, resending full prompt",
+                                cachedPrefix, tier.name());
+                        cachedPrefixes.remove(tier.name());
+                        return callTier(tierIndex, call, false, parser, acceptable);
+                    }
+                    String escalationReason = null;
+                    if (cause instanceof GeminiResponseFormatException) {
+                        escalationReason = "invalid_json";
+                    } else if (cause == null && !acceptable.test(result)) {
+                        escalationReason = "low_confidence";
+                    }
+                    String outcome = cause == null ? "success" : escalationReason != null ? escalationReason : "error";
+                    recordLatency(tier, startNanos, outcome);
+                    
+                    if (escalationReason == null || lastTier || expired) {
+                        return cause == null
+                                ? CompletableFuture.completedFuture(result)
+                                : CompletableFuture.<T>failedFuture(cause);
+                    }
+                    meterRegistry.counter("nlp.gemini.escalations", "tier", tier.name(), "reason", escalationReason)
+                            .increment();
+                    log.info("Escalating Gemini call from {} to {} ({})",
+                            tier.name(), tiers.get(tierIndex + 1).name(), escalationReason);
+                    return callTier(tierIndex + 1, call, useCachedPrefix, parser, acceptable);
+                })
+                .thenCompose(Function.identity());
+    }
+    
+    /**
+     * Cached-content handle of the static prefix for a tier (null = gửi prompt đầy đủ)
+     * Handle chưa có / sắp hết hạn thì tạo mới ở background, request hiện tại không phải chờ.
+     */
+    private String cachedPrefix(ModelTier tier) {
+        if (cachedPrefixUnsupported.contains(tier.name())) {
+            return null;
+        }
+        Instant now = Instant.now();
+        CachedPrefix cached = cachedPrefixes.get(tier.name());
+        if ((cached == null || cached.expiresAt().isBefore(now.plus(PROMPT_CACHE_REFRESH_MARGIN)))
+                && cachedPrefixesInFlight.add(tier.name())) {
+            createCachedPrefix(tier).whenComplete((result, error) -> cachedPrefixesInFlight.remove(tier.name()));
+        }
+        boolean hit = cached != null && cached.expiresAt().isAfter(now);
+        meterRegistry.counter("nlp.gemini.prompt.cache", "tier", tier.name(), "result", hit ? "hit" : "miss").increment();
+        return hit ? cached.name() : null;
+    }
+    
+    /**
+     * POST {base}/cachedContents với STATIC_PROMPT_PREFIX
+     * 4xx (model không hỗ trợ caching, prefix dưới số token tối thiểu...) → tắt cache cho tier này.
+     */
+    private CompletableFuture<Void> createCachedPrefix(ModelTier tier) {
+        int modelsIndex = tier.url().indexOf("/models/");
+        if (modelsIndex < 0) {
+            cachedPrefixUnsupported.add(tier.name());
+            return CompletableFuture.completedFuture(null);
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("model", "models/" + tier.name());
+        body.put("contents", List.of(Map.of("role", "user", "parts", List.of(Map.of("text", STATIC_PROMPT_PREFIX)))));
+        body.put("ttl", promptCacheTtl.toSeconds() + "s");
+        HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(tier.url().substring(0, modelsIndex) + "/cachedContents?key=" + apiKey))
+                    .timeout(Duration.ofMillis(timeoutMs))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(body)))
+                    .build();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Instant expiresAt = Instant.now().plus(promptCacheTtl);
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(this::readResponseBody)
+                .handle((response, error) -> {
+                    Throwable cause = error != null ? unwrap(error) : null;
+                    if (cause == null && response.get("name") instanceof String name) {
+                        cachedPrefixes.put(tier.name(), new CachedPrefix(name, expiresAt));
+                        log.info("Cached Gemini prompt prefix for {}: {} (ttl {})", tier.name(), name, promptCacheTtl);
+                    } else if (cause instanceof GeminiApiException apiException && !apiException.isRetryable()) {
+                        cachedPrefixUnsupported.add(tier.name());
+                        log.warn("Gemini prompt caching unavailable for {}, sending full prompts: {}",
+                                tier.name(), apiException.getMessage());
+                    } else {
+                        log.warn("Failed to cache Gemini prompt prefix for {}: {}",
+                                tier.name(), cause != null ? cause.getMessage() : "no name in response");
+                    }
+                    return null;
+                });
+    }
+    
+    private void recordLatency(ModelTier tier, long startNanos, String outcome) {
+        Timer.builder("nlp.gemini.latency")
+                .description("Gemini call latency per model tier (including retries)")
+                .tag("tier", tier.name())
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
     }
     
     /**
-     * Build prompt for Gemini
+     * Token usage và chi phí ước tính từ usageMetadata của response, kèm usage theo user (NLPUsageMeter)
+     * Response không có usageMetadata → ước lượng token theo số ký tự request/response.
+     */
+    @SuppressWarnings("unchecked")
+    private void recordUsage(ModelTier tier, String userId, int requestChars, Map<String, Object> responseBody,
+                             int responseChars, long startNanos) {
+        long promptTokens;
+        long outputTokens;
+        if (responseBody != null && responseBody.get("usageMetadata") instanceof Map) {
+            Map<String, Object> usage = (Map<String, Object>) responseBody.get("usageMetadata");
+            promptTokens = usage.get("promptTokenCount") instanceof Number n ? n.longValue() : 0;
+            outputTokens = usage.get("candidatesTokenCount") instanceof Number n ? n.longValue() : 0;
+        } else {
+            promptTokens = estimateTokens(requestChars);
+            outputTokens = estimateTokens(responseChars);
+        }
+        usageMeter.record(userId, promptTokens, outputTokens, requestChars, responseChars,
+                System.nanoTime() - startNanos);
+        meterRegistry.counter("nlp.gemini.tokens", "tier", tier.name(), "kind", "prompt").increment(promptTokens);
+        meterRegistry.counter("nlp.gemini.tokens", "tier", tier.name(), "kind", "output").increment(outputTokens);
+        if (tier.costPerMillionTokens() > 0) {
+            meterRegistry.counter("nlp.gemini.cost", "tier", tier.name())
+                    .increment((promptTokens + outputTokens) * tier.costPerMillionTokens() / 1_000_000);
+        }
+    }
+    
+    /**
+     * Unwrap CompletionException/ExecutionException to the real cause
+     */
+    public static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+    
+    /**
+     * Send request; lỗi tạm thời được retry sau một khoảng delay (không chặn thread nào)
+     */
+    private CompletableFuture<Map<String, Object>> sendWithRetry(Supplier<HttpRequest> request, long deadlineNanos,
+                                                                 int attempt) {
+        if (deadlinePassed(deadlineNanos)) {
+            return CompletableFuture.failedFuture(deadlineExceeded());
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            return CompletableFuture.failedFuture(circuitOpenException());
+        }
+        return httpClient.sendAsync(request.get(), HttpResponse.BodyHandlers.ofString())
+                .thenApply(this::readResponseBody)
+                .handle((body, error) -> {
+                    Throwable cause = error != null ? unwrap(error) : null;
+                    recordOutcome(cause);
+                    if (error == null) {
+                        return CompletableFuture.completedFuture(body);
+                    }
+                    long delayMs = retryDelayMs(attempt);
+                    // Không retry nếu chờ backoff xong đã hết deadline
+                    if (attempt < maxRetries && isRetryable(cause)
+                            && !deadlinePassed(deadlineNanos - TimeUnit.MILLISECONDS.toNanos(delayMs))) {
+                        log.info("Retrying Gemini API call after {}ms (attempt {}/{}): {}",
+                                delayMs, attempt + 2, maxRetries + 1, cause.getMessage());
+                        return CompletableFuture
+                                .runAsync(() -> { }, CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS, executor))
+                                .thenCompose(ignored -> sendWithRetry(request, deadlineNanos, attempt + 1));
+                    }
+                    log.error("Error calling Gemini API (attempt {})", attempt + 1, cause);
+                    return CompletableFuture.<Map<String, Object>>failedFuture(new RuntimeException(
+                            "Failed to call Gemini API after " + (attempt + 1) + " attempts: " + cause.getMessage(), cause));
+                })
+                .thenCompose(Function.identity());
+    }
+    
+    /**
+     * Báo kết quả 1 attempt cho circuit breaker: chỉ lỗi phía upstream mới tính là failure
+     */
+    private void recordOutcome(Throwable cause) {
+        if (cause == null) {
+            circuitBreaker.onSuccess();
+        } else if (cause instanceof GeminiApiException apiException && apiException.isAuthFailure()) {
+            circuitBreaker.onFailure(true);
+        } else if (isRetryable(cause)) {
+            circuitBreaker.onFailure(false);
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+    
+    private GeminiUnavailableException circuitOpenException() {
+        if (circuitBreaker.isOpenDueToAuth()) {
+            return new GeminiUnavailableException("API_NOT_CONFIGURED", "Gemini API key rejected, circuit is open");
+        }
+        return new GeminiUnavailableException("RATE_LIMIT_EXCEEDED", "Gemini circuit breaker is open");
+    }
+    
+    private Map<String, Object> readResponseBody(HttpResponse<String> response) {
+        if (response.statusCode() / 100 != 2) {
+            String body = response.body() != null ? response.body() : "";
+            throw new GeminiApiException(response.statusCode(),
+                    body.length() > MAX_ERROR_BODY_LENGTH ? body.substring(0, MAX_ERROR_BODY_LENGTH) : body);
+        }
+        try {
+            return objectMapper.readValue(response.body(), new TypeReference<Map<String, Object>>() { });
+        } catch (IOException e) {
+            throw new RuntimeException("Invalid JSON from Gemini API: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * 429/5xx, timeout và lỗi IO (bao gồm HttpTimeoutException) là lỗi tạm thời
+     */
+    private boolean isRetryable(Throwable cause) {
+        if (cause instanceof GeminiApiException apiException) {
+            return apiException.isRetryable();
+        }
+        return cause instanceof IOException;
+    }
+    
+    private long newDeadline() {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMs);
+    }
+    
+    private static boolean deadlinePassed(long deadlineNanos) {
+        return System.nanoTime() - deadlineNanos >= 0;
+    }
+    
+    /**
+     * Timeout của một attempt: gemini.api.timeout nhưng không vượt quá thời gian còn lại tới deadline
+     * (HttpClient hủy request khi hết timeout → call trễ không giữ bulkhead slot sau deadline)
+     */
+    private Duration attemptTimeout(long deadlineNanos) {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        return Duration.ofMillis(Math.max(1, Math.min(timeoutMs, remainingMs)));
+    }
+    
+    private static HttpTimeoutException deadlineExceeded() {
+        return new HttpTimeoutException("Gemini request deadline exceeded");
+    }
+    
+    /**
+     * Exponential backoff với equal jitter: [d/2, d] với d = base * 2^attempt
+     */
+    private long retryDelayMs(int attempt) {
+        long delay = retryBaseDelayMs * (1L << Math.min(attempt, 10));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+    
+    /**
+     * Build prompt chỉ với phần context liên quan tới input (top-N accounts/categories/công nợ)
+     * Ghi lại kích thước prompt trước/sau khi rút gọn (nlp.gemini.prompt.chars{context=full|compact})
+     *
+     * @param userId        User của context (gợi ý category học từ lịch sử)
+     * @param relevanceText Text dùng để chọn context liên quan
+     * @param promptBuilder Build prompt từ một context
+     */
+    private String buildCompactPrompt(String userId, String relevanceText, Map<String, Object> context,
+                                      Function<Map<String, Object>, String> promptBuilder) {
+        String prompt = promptBuilder.apply(contextSelector.select(userId, relevanceText, context));
+        int promptLength = STATIC_PROMPT_PREFIX.length() + prompt.length();
+        recordPromptSize("compact", promptLength);
+        if (log.isDebugEnabled() || ThreadLocalRandom.current().nextInt(10) == 0) {
+            // Prompt đầy đủ chỉ để đo (lấy mẫu 10%), không gửi đi
+            int fullPromptLength = STATIC_PROMPT_PREFIX.length() + promptBuilder.apply(context).length();
+            recordPromptSize("full", fullPromptLength);
+            log.debug("Gemini prompt compacted: {} -> {} chars (~{} -> ~{} tokens)",
+                    fullPromptLength, promptLength, estimateTokens(fullPromptLength), estimateTokens(promptLength));
+        }
+        return prompt;
+    }
+    
+    private void recordPromptSize(String contextType, int promptLength) {
+        DistributionSummary.builder("nlp.gemini.prompt.chars")
+                .description("Gemini prompt size in characters")
+                .tag("context", contextType)
+                .register(meterRegistry)
+                .record(promptLength);
+    }
+    
+    /**
+     * Ước lượng token: ~4 ký tự / token
+     */
+    private int estimateTokens(int promptLength) {
+        return (promptLength + 3) / 4;
+    }
+    
+    /**
+     * Build the per-request part of the prompt (sau STATIC_PROMPT_PREFIX)
      */
     private String buildPrompt(String userText, Map<String, Object> context, 
                                String timezone, String locale) {
-        StringBuilder prompt = new StringBuilder();
+        StringBuilder prompt = buildContextSection(context, timezone, locale);
+        
+        // User input
+        prompt.append("USER INPUT:\n");
+        prompt.append("\"").append(userText).append("\"\n\n");
         
-        // System instructions
-        prompt.append("Bạn là assistant parse text thành structured data cho ứng dụng quản lý chi tiêu.\n");
-        prompt.append("Luôn trả về JSON theo schema đã định nghĩa.\n");
-        prompt.append("Không tự tạo data, chỉ extract từ input.\n");
-        prompt.append("Khi không chắc chắn, set confidence thấp và needConfirmFields.\n\n");
+        prompt.append("Trả về JSON theo schema trên:");
         
-        // Intent classification rules
-        prompt.append("PHÂN LOẠI INTENT:\n");
-        prompt.append("- CREATE_RECEIVABLE: Khi user \"cho vay\", \"cho mượn\", \"cho ai đó tiền\" (ví dụ: \"cho Nam vay 2tr\", \"cho a Hùng vay 50k\")\n");
-        prompt.append("- CREATE_LIABILITY: Khi user \"vay\", \"mượn\", \"nợ ai đó\" (ví dụ: \"vay anh Hùng 5tr\", \"nợ Long 100k\")\n");
-        prompt.append("- CREATE_SETTLEMENT: Khi user \"trả nợ\", \"nhận tiền trả nợ\", \"thanh toán\" (ví dụ: \"Trả nợ anh Hùng 80k\", \"Long trả 100k\")\n");
-        prompt.append("- CREATE_TRANSACTION: Khi user chi tiêu/thu nhập thông thường (ví dụ: \"ăn bún 50k\", \"lương tháng 1 10tr\")\n");
-        prompt.append("- ADJUST_BALANCE: Khi user muốn điều chỉnh số dư tài khoản về một giá trị mới (ví dụ: \"điều chỉnh số dư ví tiền mặt về 2 triệu\", \"cân lại số dư tài khoản A còn 500k\")\n");
-        prompt.append("- QUERY_DATA: Khi user hỏi thông tin (ví dụ: \"tháng này chi bao nhiêu?\")\n\n");
+        return prompt.toString();
+    }
+    
+    /**
+     * Build prompt for many inputs: cùng instructions/context, response là JSON array theo thứ tự input
+     */
+    private String buildBatchPrompt(List<String> lines, Map<String, Object> context,
+                                    String timezone, String locale) {
+        StringBuilder prompt = buildContextSection(context, timezone, locale);
         
-        // Rules for Vietnamese currency and dates
-        prompt.append("QUY TẮC:\n");
-        prompt.append("- Số tiền VN: \"50k\" = 50000, \"2tr\" = 2000000, \"1.5 triệu\" = 1500000\n");
-        prompt.append("- Ngày: \"hôm nay\" = current date, \"hôm qua\" = yesterday, \"ngày mai\" = tomorrow, \"16/1\" = ngày 16 tháng 1 năm hiện tại\n");
-        prompt.append("- Tài khoản: match với danh sách accounts (vcb=Vietcombank, mb=MBBank, tienmat=Tiền mặt)\n");
-        prompt.append("- Counterparty: Tên người trong câu (ví dụ: \"a Hùng\", \"Nam\", \"Long\")\n\n");
+        prompt.append("USER INPUTS (mỗi dòng là một lệnh độc lập):\n");
+        for (int i = 0; i < lines.size(); i++) {
+            prompt.append(i + 1).append(". \"").append(lines.get(i)).append("\"\n");
+        }
+        prompt.append("\n");
         
-        // Examples
-        prompt.append("VÍ DỤ:\n");
-        prompt.append("1. \"cho a Hùng vay 50k\" → intent: CREATE_RECEIVABLE, counterparty: \"a Hùng\", amount: 50000\n");
-        prompt.append("2. \"vay anh Hùng 5tr\" → intent: CREATE_LIABILITY, counterparty: \"anh Hùng\", amount: 5000000\n");
-        prompt.append("3. \"Trả nợ anh Hùng 80k vietcombank\" → intent: CREATE_SETTLEMENT, type: LIABILITY, counterparty: \"anh Hùng\", amount: 80000, accountMatch: vietcombank\n");
-        prompt.append("4. \"ăn bún 50k\" → intent: CREATE_TRANSACTION, type: EXPENSE, amount: 50000, categoryMatch: Ăn uống\n");
-        prompt.append("5. \"Long trả 100k\" → intent: CREATE_SETTLEMENT, type: RECEIVABLE, counterparty: \"Long\", amount: 100000\n");
-        prompt.append("6. \"điều chỉnh số dư ví tiền mặt về 2 triệu\" → intent: ADJUST_BALANCE, accountMatch: ví tiền mặt, targetBalance: 2000000\n\n");
+        prompt.append("Trả về JSON array gồm đúng ").append(lines.size())
+              .append(" phần tử, phần tử thứ i là kết quả của dòng i theo schema trên:");
+        
+        return prompt.toString();
+    }
+    
+    /**
+     * Dynamic prompt part: ngày hiện tại, timezone/locale và context của user
+     */
+    private StringBuilder buildContextSection(Map<String, Object> context, String timezone, String locale) {
+        StringBuilder prompt = new StringBuilder(512);
         
         // Context injection
         prompt.append("CONTEXT:\n");
@@ -175,40 +935,7 @@ public class GeminiService {
             prompt.append("\n");
         }
         
-        // Output schema
-        prompt.append("OUTPUT SCHEMA (JSON):\n");
-        prompt.append("{\n");
-        prompt.append("  \"intent\": \"CREATE_TRANSACTION\" | \"CREATE_RECEIVABLE\" | \"CREATE_LIABILITY\" | \"CREATE_SETTLEMENT\" | \"ADJUST_BALANCE\" | \"QUERY_DATA\" | \"UNKNOWN\",\n");
-        prompt.append("  \"confidence\": 0.0-1.0,\n");
-        prompt.append("  \"entities\": {\n");
-        prompt.append("    \"amount\": number (optional),\n");
-        prompt.append("    \"targetBalance\": number (optional, REQUIRED for ADJUST_BALANCE),\n");
-        prompt.append("    \"counterparty\": string (optional, REQUIRED cho RECEIVABLE/LIABILITY/SETTLEMENT),\n");
-        prompt.append("    \"accountMatch\": {\"id\": string, \"confidence\": number} (optional, REQUIRED cho ADJUST_BALANCE),\n");
-        prompt.append("    \"categoryMatch\": {\"id\": string, \"confidence\": number} (optional, only for TRANSACTION),\n");
-        prompt.append("    \"receivableMatch\": {\"id\": string, \"confidence\": number} (optional, for SETTLEMENT type RECEIVABLE),\n");
-        prompt.append("    \"liabilityMatch\": {\"id\": string, \"confidence\": number} (optional, for SETTLEMENT type LIABILITY),\n");
-        prompt.append("    \"note\": string (optional),\n");
-        prompt.append("    \"date\": string ISO format (optional, format: YYYY-MM-DDTHH:mm:ss),\n");
-        prompt.append("    \"transactionType\": \"INCOME\" | \"EXPENSE\" | \"TRANSFER\" (optional, only for CREATE_TRANSACTION)\n");
-        prompt.append("  },\n");
-        prompt.append("  \"ambiguities\": [string] (optional),\n");
-        prompt.append("  \"queryType\": string (optional, for QUERY_DATA intent)\n");
-        prompt.append("}\n\n");
-        prompt.append("LƯU Ý QUAN TRỌNG:\n");
-        prompt.append("- Nếu text có từ \"cho vay\", \"cho mượn\", \"cho [tên] vay\" → intent phải là CREATE_RECEIVABLE\n");
-        prompt.append("- Nếu text có từ \"vay\", \"mượn\", \"nợ\" (không phải \"cho vay\") → intent phải là CREATE_LIABILITY\n");
-        prompt.append("- Nếu text có từ \"trả nợ\", \"nhận tiền\", \"thanh toán\" → intent phải là CREATE_SETTLEMENT\n");
-        prompt.append("- Nếu text có từ \"điều chỉnh số dư\", \"chỉnh lại số dư\", \"cân bằng số dư\" → intent phải là ADJUST_BALANCE\n");
-        prompt.append("- Chỉ dùng CREATE_TRANSACTION cho chi tiêu/thu nhập thông thường (ăn uống, mua sắm, lương, v.v.)\n\n");
-        
-        // User input
-        prompt.append("USER INPUT:\n");
-        prompt.append("\"").append(userText).append("\"\n\n");
-        
-        prompt.append("Trả về JSON theo schema trên:");
-        
-        return prompt.toString();
+        return prompt;
     }
     
     /**
@@ -229,7 +956,8 @@ public class GeminiService {
     /**
      * Build request body for Gemini API
      */
-    private Map<String, Object> buildRequestBody(String prompt) {
+    private Map<String, Object> buildRequestBody(String prompt, String cachedContent, int maxOutputTokens,
+                                                 Map<String, Object> schema) {
         Map<String, Object> requestBody = new HashMap<>();
         
         // Contents
@@ -242,13 +970,20 @@ public class GeminiService {
         content.put("parts", parts);
         contents.add(content);
         requestBody.put("contents", contents);
+        if (cachedContent != null) {
+            requestBody.put("cachedContent", cachedContent);
+        }
         
         // Generation config
         Map<String, Object> generationConfig = new HashMap<>();
         generationConfig.put("temperature", 0.1); // Lower temperature for more deterministic output
         generationConfig.put("topK", 1);
         generationConfig.put("topP", 0.8);
-        generationConfig.put("maxOutputTokens", 2048);
+        generationConfig.put("maxOutputTokens", maxOutputTokens);
+        if (structuredOutput) {
+            generationConfig.put("responseMimeType", "application/json");
+            generationConfig.put("responseSchema", schema);
+        }
         requestBody.put("generationConfig", generationConfig);
         
         return requestBody;
@@ -287,43 +1022,178 @@ public class GeminiService {
             return text;
         } catch (Exception e) {
             log.error("Failed to extract response text from Gemini response", e);
-            throw new RuntimeException("Failed to extract response text: " + e.getMessage(), e);
+            throw new GeminiResponseFormatException("Failed to extract response text: " + e.getMessage(), e);
         }
     }
     
     /**
      * Parse JSON from response text
      * Gemini might return text with markdown code blocks, so we need to extract JSON
+     * JSON hỏng/bị cắt được sửa local (repairJson) trước khi coi là lỗi; kết quả luôn qua schema validate.
      */
     private Map<String, Object> parseJsonResponse(String responseText) {
         try {
-            // Remove markdown code blocks if present
-            String cleaned = responseText.trim();
-            if (cleaned.startsWith("```json")) {
-                cleaned = cleaned.substring(7);
-            } else if (cleaned.startsWith("```")) {
-                cleaned = cleaned.substring(3);
+            JsonNode jsonNode = readJson(stripCodeFence(responseText), '{', '}');
+            if (!jsonNode.isObject()) {
+                throw new IllegalArgumentException("Expected a JSON object");
+            }
+            return responseSchema.validate(objectMapper.convertValue(jsonNode, new TypeReference<Map<String, Object>>() { }));
+        } catch (Exception e) {
+            log.error("Failed to parse JSON from response text: {}", responseText, e);
+            throw new GeminiResponseFormatException("Failed to parse JSON response: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Parse JSON array from batch response text
+     * Mỗi phần tử không phải object được thay bằng map rỗng để giữ đúng vị trí
+     */
+    private List<Map<String, Object>> parseJsonArrayResponse(String responseText) {
+        try {
+            String cleaned = stripCodeFence(responseText);
+            JsonNode jsonNode = cleaned.indexOf('[') >= 0 ? readJson(cleaned, '[', ']') : readJson(cleaned, '{', '}');
+            if (jsonNode.isObject()) {
+                // Batch 1 dòng: model đôi khi trả object thay vì array
+                return List.of(responseSchema.validate(
+                        objectMapper.convertValue(jsonNode, new TypeReference<Map<String, Object>>() { })));
             }
-            if (cleaned.endsWith("```")) {
-                cleaned = cleaned.substring(0, cleaned.length() - 3);
+            if (!jsonNode.isArray()) {
+                throw new IllegalArgumentException("Expected a JSON array");
             }
-            cleaned = cleaned.trim();
-            
-            // Find JSON object in text
-            int jsonStart = cleaned.indexOf("{");
-            int jsonEnd = cleaned.lastIndexOf("}");
-            if (jsonStart >= 0 && jsonEnd > jsonStart) {
-                cleaned = cleaned.substring(jsonStart, jsonEnd + 1);
+            List<Map<String, Object>> results = new ArrayList<>();
+            for (JsonNode item : jsonNode) {
+                results.add(item.isObject()
+                        ? responseSchema.validate(objectMapper.convertValue(item, new TypeReference<Map<String, Object>>() { }))
+                        : new HashMap<>());
             }
-            
-            // Parse JSON
-            JsonNode jsonNode = objectMapper.readTree(cleaned);
-            @SuppressWarnings("unchecked")
-            Map<String, Object> result = objectMapper.convertValue(jsonNode, Map.class);
-            return result;
+            return results;
         } catch (Exception e) {
-            log.error("Failed to parse JSON from response text: {}", responseText, e);
-            throw new RuntimeException("Failed to parse JSON response: " + e.getMessage(), e);
+            log.error("Failed to parse JSON array from response text: {}", responseText, e);
+            throw new GeminiResponseFormatException("Failed to parse JSON response: " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Read the JSON value between open/close; nếu parse lỗi thì thử repair phần từ open đến hết text
+     * (response bị cắt do maxOutputTokens không có ký tự đóng cuối cùng)
+     */
+    private JsonNode readJson(String text, char open, char close) throws IOException {
+        int jsonStart = text.indexOf(open);
+        int jsonEnd = text.lastIndexOf(close);
+        String candidate = jsonStart >= 0 && jsonEnd > jsonStart ? text.substring(jsonStart, jsonEnd + 1) : text;
+        try {
+            return objectMapper.readTree(candidate);
+        } catch (IOException e) {
+            if (jsonStart < 0) {
+                throw e;
+            }
+            String repaired = responseSchema.repairJson(text.substring(jsonStart));
+            log.debug("Repaired malformed Gemini JSON ({} -> {} chars)", text.length() - jsonStart, repaired.length());
+            return objectMapper.readTree(repaired);
+        }
+    }
+    
+    /**
+     * Line subscriber của SSE stream: gom text của các chunk "data: {...}" và báo JSON từng phần
+     */
+    private final class StreamSubscriber implements Flow.Subscriber<String> {
+        
+        private final Consumer<Map<String, Object>> onPartial;
+        private final StringBuilder text = new StringBuilder();
+        private volatile Map<String, Object> lastChunk;
+        
+        StreamSubscriber(Consumer<Map<String, Object>> onPartial) {
+            this.onPartial = onPartial;
+        }
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+        
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onNext(String line) {
+            if (!line.startsWith("data:")) {
+                return;
+            }
+            Map<String, Object> chunk;
+            try {
+                chunk = objectMapper.readValue(line.substring(5).trim(), new TypeReference<Map<String, Object>>() { });
+            } catch (IOException e) {
+                log.debug("Skipping unreadable Gemini stream chunk: {}", line);
+                return;
+            }
+            lastChunk = chunk;
+            if (!(chunk.get("candidates") instanceof List<?> candidates) || candidates.isEmpty()
+                    || !(candidates.get(0) instanceof Map<?, ?> candidate)
+                    || !(candidate.get("content") instanceof Map<?, ?> content)
+                    || !(content.get("parts") instanceof List<?> parts)) {
+                return;
+            }
+            boolean appended = false;
+            for (Object part : parts) {
+                if (part instanceof Map<?, ?> partMap && partMap.get("text") instanceof String partText) {
+                    text.append(partText);
+                    appended = true;
+                }
+            }
+            if (appended) {
+                notifyPartial();
+            }
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            // Lỗi được trả qua future của sendAsync
+        }
+        
+        @Override
+        public void onComplete() {
+        }
+        
+        String text() {
+            return text.toString();
+        }
+        
+        Map<String, Object> lastChunk() {
+            return lastChunk;
+        }
+        
+        private void notifyPartial() {
+            int jsonStart = text.indexOf("{");
+            if (jsonStart < 0) {
+                return;
+            }
+            Map<String, Object> partial;
+            try {
+                partial = objectMapper.readValue(responseSchema.closeJson(text.substring(jsonStart)),
+                        new TypeReference<Map<String, Object>>() { });
+            } catch (IOException e) {
+                // Chunk cắt giữa key/literal, đợi chunk sau
+                return;
+            }
+            try {
+                onPartial.accept(partial);
+            } catch (RuntimeException e) {
+                log.warn("Gemini stream listener failed", e);
+            }
+        }
+    }
+    
+    /**
+     * Remove markdown code blocks if present
+     */
+    private String stripCodeFence(String responseText) {
+        String cleaned = responseText.trim();
+        if (cleaned.startsWith("```json")) {
+            cleaned = cleaned.substring(7);
+        } else if (cleaned.startsWith("```")) {
+            cleaned = cleaned.substring(3);
+        }
+        if (cleaned.endsWith("```")) {
+            cleaned = cleaned.substring(0, cleaned.length() - 3);
         }
+        return cleaned.trim();
     }
 }
@@ -0,0 +1,200 @@
+package com.portfolio.wallet.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Index verification for wallet query shapes
+ * 
+ * Chạy explain() cho từng query shape của các repository trong com.portfolio.wallet.repository
+ * (và các query MongoTemplate chính) rồi báo lỗi nếu có shape nào phải COLLSCAN.
+ * Bật bằng wallet.index-verification.enabled=true (app sẽ không khởi động nếu thiếu index).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IndexVerificationService {
+    
+    private final MongoTemplate mongoTemplate;
+    
+    @Value("${wallet.index-verification.enabled:false}")
+    private boolean enabled;
+    
+    /**
+     * One query shape: collection + filter (+ sort)
+     */
+    public record QueryShape(String name, String collection, Document filter, Document sort) {
+        
+        static QueryShape of(String name, String collection, Document filter) {
+            return new QueryShape(name, collection, filter, null);
+        }
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        List<String> violations = verify();
+        if (!violations.isEmpty()) {
+            throw new IllegalStateException("Query shapes without index (COLLSCAN): " + violations);
+        }
+        log.info("Index verification passed for {} query shapes", queryShapes().size());
+    }
+    
+    /**
+     * Explain every query shape
+     * 
+     * @return Tên các shape có COLLSCAN trong winning plan (rỗng nếu tất cả đều dùng index)
+     */
+    public List<String> verify() {
+        List<String> violations = new ArrayList<>();
+        for (QueryShape shape : queryShapes()) {
+            var find = mongoTemplate.getCollection(shape.collection()).find(shape.filter());
+            if (shape.sort() != null) {
+                find = find.sort(shape.sort());
+            }
+            Document plan = find.explain().get("queryPlanner", Document.class);
+            if (plan != null && containsCollScan(plan.get("winningPlan"))) {
+                log.error("COLLSCAN for query shape {} on {}: {}", shape.name(), shape.collection(), shape.filter().toJson());
+                violations.add(shape.name());
+            } else {
+                log.debug("Query shape {} uses an index", shape.name());
+            }
+        }
+        return violations;
+    }
+    
+    /**
+     * Query shapes của repository methods (giá trị chỉ là placeholder, explain chỉ quan tâm shape)
+     */
+    public List<QueryShape> queryShapes() {
+        String userId = "index-verification";
+        ObjectId id = new ObjectId();
+        Date now = new Date();
+        
+        return List.of(
+                // TransactionRepository + TransactionService / report / rollup queries
+                new QueryShape("transactions.findByUserIdAndDeletedFalse", "transactions",
+                        new Document("userId", userId).append("deleted", false),
+                        new Document("occurredAt", -1)),
+                QueryShape.of("transactions.findByIdAndUserIdAndDeletedFalse", "transactions",
+                        new Document("_id", id).append("userId", userId).append("deleted", false)),
+                QueryShape.of("transactions.findByAccountIdAndDeletedFalse", "transactions",
+                        new Document("accountId", "a").append("deleted", false)),
+                QueryShape.of("transactions.findByFromAccountIdAndDeletedFalse", "transactions",
+                        new Document("fromAccountId", "a").append("deleted", false)),
+                QueryShape.of("transactions.findByToAccountIdAndDeletedFalse", "transactions",
+                        new Document("toAccountId", "a").append("deleted", false)),
+                QueryShape.of("transactions.findByCategoryIdAndDeletedFalse", "transactions",
+                        new Document("categoryId", "c").append("deleted", false)),
+                QueryShape.of("transactions.findByUserIdAndOccurredAtBetweenAndDeletedFalse", "transactions",
+                        new Document("userId", userId)
+                                .append("occurredAt", new Document("$gt", now).append("$lt", now))
+                                .append("deleted", false)),
+                new QueryShape("transactions.cursorPage", "transactions",
+                        new Document("userId", userId).append("deleted", false)
+                                .append("$or", Arrays.asList(
+                                        new Document("occurredAt", new Document("$lt", now)),
+                                        new Document("occurredAt", now).append("_id", new Document("$lt", id)))),
+                        new Document("occurredAt", -1).append("_id", -1)),
+                
+                // AccountRepository
+                QueryShape.of("accounts.findByUserIdAndDeletedFalse", "accounts",
+                        new Document("userId", userId).append("deleted", false)),
+                QueryShape.of("accounts.findByIdAndUserIdAndDeletedFalse", "accounts",
+                        new Document("_id", id).append("userId", userId).append("deleted", false)),
+                
+                // AssetRepository
+                QueryShape.of("assets.findByUserIdAndDeletedFalse", "assets",
+                        new Document("userId", userId).append("deleted", false)),
+                QueryShape.of("assets.findByUserIdAndTypeAndDeletedFalse", "assets",
+                        new Document("userId", userId).append("type", "CASH").append("deleted", false)),
+                
+                // BudgetRepository
+                QueryShape.of("budgets.findByUserIdAndDeletedFalse", "budgets",
+                        new Document("userId", userId).append("deleted", false)),
+                QueryShape.of("budgets.findByUserIdAndMonthAndCategoryIdAndDeletedFalse", "budgets",
+                        new Document("userId", userId).append("month", "2025-01")
+                                .append("categoryId", "c").append("deleted", false)),
+                QueryShape.of("budgets.findByUserIdAndMonthAndDeletedFalse", "budgets",
+                        new Document("userId", userId).append("month", "2025-01").append("deleted", false)),
+                QueryShape.of("budgets.findByUserIdAndMonthAndCategoryIdIsNullAndDeletedFalse", "budgets",
+                        new Document("userId", userId).append("month", "2025-01")
+                                .append("categoryId", null).append("deleted", false)),
+                
+                // CategoryRepository
+                QueryShape.of("categories.findAllCategoriesForUser", "categories",
+                        new Document("$or", Arrays.asList(
+                                new Document("userId", userId).append("deleted", false),
+                                new Document("isSystem", true).append("deleted", false)))),
+                QueryShape.of("categories.findByUserIdAndDeletedFalse", "categories",
+                        new Document("userId", userId).append("deleted", false)),
+                QueryShape.of("categories.findByIsSystemTrueAndDeletedFalse", "categories",
+                        new Document("isSystem", true).append("deleted", false)),
+                QueryShape.of("categories.findByNameAndUserIdAndDeletedFalse", "categories",
+                        new Document("name", "n").append("userId", userId).append("deleted", false)),
+                
+                // ReceivableRepository / LiabilityRepository
+                QueryShape.of("receivables.findByUserIdAndDeletedFalse", "receivables",
+                        new Document("userId", userId).append("deleted", false)),
+                QueryShape.of("receivables.findByUserIdAndStatusAndDeletedFalse", "receivables",
+                        new Document("userId", userId).append("status", "OPEN").append("deleted", false)),
+                QueryShape.of("receivables.findByUserIdAndDueAtBeforeAndStatusNotAndDeletedFalse", "receivables",
+                        new Document("userId", userId).append("dueAt", new Document("$lt", now))
+                                .append("status", new Document("$ne", "PAID")).append("deleted", false)),
+                QueryShape.of("liabilities.findByUserIdAndDeletedFalse", "liabilities",
+                        new Document("userId", userId).append("deleted", false)),
+                QueryShape.of("liabilities.findByUserIdAndStatusAndDeletedFalse", "liabilities",
+                        new Document("userId", userId).append("status", "OPEN").append("deleted", false)),
+                QueryShape.of("liabilities.findByUserIdAndDueAtBeforeAndStatusNotAndDeletedFalse", "liabilities",
+                        new Document("userId", userId).append("dueAt", new Document("$lt", now))
+                                .append("status", new Document("$ne", "PAID")).append("deleted", false)),
+                
+                // SettlementRepository
+                QueryShape.of("settlements.findByUserIdAndDeletedFalse", "settlements",
+                        new Document("userId", userId).append("deleted", false)),
+                QueryShape.of("settlements.findByReceivableIdAndDeletedFalse", "settlements",
+                        new Document("receivableId", "r").append("deleted", false)),
+                QueryShape.of("settlements.findByLiabilityIdAndDeletedFalse", "settlements",
+                        new Document("liabilityId", "l").append("deleted", false)),
+                QueryShape.of("settlements.findByUserIdAndTypeAndDeletedFalse", "settlements",
+                        new Document("userId", userId).append("type", "RECEIVABLE").append("deleted", false)),
+                
+                // AccountBalanceRepository / rollups
+                QueryShape.of("account_balances.findByUserId", "account_balances",
+                        new Document("userId", userId)),
+                QueryShape.of("transaction_daily_rollups.sumRollups", "transaction_daily_rollups",
+                        new Document("userId", userId)
+                                .append("day", new Document("$gte", "2025-01-01").append("$lt", "2025-02-01")))
+        );
+    }
+    
+    /**
+     * Tìm stage COLLSCAN ở bất kỳ đâu trong plan (classic: inputStage/inputStages, SBE: queryPlan)
+     */
+    private boolean containsCollScan(Object node) {
+        if (node instanceof Document document) {
+            if ("COLLSCAN".equals(document.getString("stage"))) {
+                return true;
+            }
+            return document.values().stream().anyMatch(this::containsCollScan);
+        }
+        if (node instanceof List<?> list) {
+            return list.stream().anyMatch(this::containsCollScan);
+        }
+        return false;
+    }
+}
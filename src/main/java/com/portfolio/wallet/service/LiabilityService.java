@@ -20,7 +20,9 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -33,15 +35,21 @@ public class LiabilityService {
     private final LiabilityRepository liabilityRepository;
     private final AccountRepository accountRepository;
     private final TransactionService transactionService;
+    private final AccountBalanceService accountBalanceService;
+    private final NLPContextCache nlpContextCache;
     
     // Constructor với @Lazy để tránh circular dependency
     public LiabilityService(
             LiabilityRepository liabilityRepository,
             AccountRepository accountRepository,
-            @Lazy TransactionService transactionService) {
+            @Lazy TransactionService transactionService,
+            AccountBalanceService accountBalanceService,
+            NLPContextCache nlpContextCache) {
         this.liabilityRepository = liabilityRepository;
         this.accountRepository = accountRepository;
         this.transactionService = transactionService;
+        this.accountBalanceService = accountBalanceService;
+        this.nlpContextCache = nlpContextCache;
     }
     
     /**
@@ -123,6 +131,7 @@ public class LiabilityService {
             // Update status before saving
             updateStatus(liability);
             Liability saved = liabilityRepository.save(liability);
+            accountBalanceService.applyChange(Collections.emptyMap(), accountBalanceService.contributionOf(saved));
             
             // Nếu có accountId, tự động tạo transaction INCOME để ghi nhận tiền vay (tiền vào)
             if (saved.getAccountId() != null && !saved.getAccountId().isEmpty()) {
@@ -148,6 +157,7 @@ public class LiabilityService {
                 }
             }
             
+            nlpContextCache.invalidate(userId);
             log.info("Liability created successfully: {}", saved.getId());
             return LiabilityResponse.from(saved);
         } catch (Exception e) {
@@ -166,6 +176,9 @@ public class LiabilityService {
         Liability liability = liabilityRepository.findByIdAndUserIdAndDeletedFalse(id, userId)
                 .orElseThrow(() -> new NotFoundException("Liability not found"));
         
+        // Snapshot phần đóng góp vào số dư trước khi sửa
+        Map<String, BigDecimal> balanceBefore = accountBalanceService.contributionOf(liability);
+        
         // Update fields if provided
         if (request.getCounterpartyName() != null) {
             liability.setCounterpartyName(request.getCounterpartyName());
@@ -198,6 +211,8 @@ public class LiabilityService {
         // Update status before saving
         updateStatus(liability);
         Liability updated = liabilityRepository.save(liability);
+        accountBalanceService.applyChange(balanceBefore, accountBalanceService.contributionOf(updated));
+        nlpContextCache.invalidate(userId);
         log.info("Liability updated successfully: {}", updated.getId());
         return LiabilityResponse.from(updated);
     }
@@ -212,9 +227,13 @@ public class LiabilityService {
         Liability liability = liabilityRepository.findByIdAndUserIdAndDeletedFalse(id, userId)
                 .orElseThrow(() -> new NotFoundException("Liability not found"));
         
+        Map<String, BigDecimal> balanceBefore = accountBalanceService.contributionOf(liability);
+        
         // Soft delete
         liability.setDeleted(true);
         liabilityRepository.save(liability);
+        accountBalanceService.applyChange(balanceBefore, accountBalanceService.contributionOf(liability));
+        nlpContextCache.invalidate(userId);
         log.info("Liability deleted successfully: {}", id);
     }
     
@@ -228,9 +247,12 @@ public class LiabilityService {
         Liability liability = liabilityRepository.findById(liabilityId)
                 .orElseThrow(() -> new NotFoundException("Liability not found"));
         
+        Map<String, BigDecimal> balanceBefore = accountBalanceService.contributionOf(liability);
         liability.setPaidAmount(paidAmount);
         updateStatus(liability);
         liabilityRepository.save(liability);
+        accountBalanceService.applyChange(balanceBefore, accountBalanceService.contributionOf(liability));
+        nlpContextCache.invalidate(liability.getUserId());
     }
     
     /**
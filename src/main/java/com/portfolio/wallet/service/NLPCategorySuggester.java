@@ -0,0 +1,287 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TextNormalizer;
+import com.portfolio.common.util.TtlCache;
+import com.portfolio.wallet.model.NLPSuggestionModel;
+import com.portfolio.wallet.model.Transaction;
+import com.portfolio.wallet.model.TransactionType;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Learned category/account suggester per user
+ *
+ * Mỗi user có một bảng tần suất token → categoryId / accountId, học từ note của các transaction
+ * EXPENSE/INCOME (thói quen riêng: "bún" → Ăn uống, "grab" → ví MoMo...).
+ * - Lần đầu: train từ tối đa HISTORY_LIMIT transaction gần nhất, lưu vào nlp_suggestion_models
+ * - Mỗi lần tạo transaction: cộng dồn ($inc) vào Mongo và model trong memory
+ * - Dự đoán: score(id) = Σ count(token, id) / Σ count(token) trên các token đã biết
+ *
+ * Dùng để điền/xếp lại categoryMatch/accountMatch khi Gemini không chắc, và làm nguồn category
+ * cho fast path (input quen thuộc không cần gọi Gemini).
+ * Metric: nlp.suggester.matches{field, outcome=llm|agreed|suggested|none}
+ */
+@Slf4j
+@Service
+public class NLPCategorySuggester {
+
+    private static final int HISTORY_LIMIT = 2000;
+    private static final int MIN_SUPPORT = 3;
+    private static final double LLM_CONFIDENCE_THRESHOLD = 0.7;
+
+    /**
+     * Predicted id with confidence 0.0-1.0
+     */
+    public record Candidate(String id, double confidence) {
+    }
+
+    public record Suggestion(Candidate category, Candidate account) {
+        static final Suggestion EMPTY = new Suggestion(null, null);
+    }
+
+    private final TtlCache<String, UserModel> models;
+    private final double minConfidence;
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+
+    public NLPCategorySuggester(
+            @Value("${nlp.suggester.max-users:1000}") int maxUsers,
+            @Value("${nlp.suggester.ttl:PT30M}") Duration ttl,
+            @Value("${nlp.suggester.min-confidence:0.75}") double minConfidence,
+            MongoTemplate mongoTemplate,
+            MeterRegistry meterRegistry) {
+        this.models = new TtlCache<>(maxUsers, ttl);
+        this.minConfidence = minConfidence;
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Suggest category and account for a note/input text
+     */
+    public Suggestion suggest(String userId, String text) {
+        Set<String> tokens = tokens(text);
+        if (userId == null || tokens.isEmpty()) {
+            return Suggestion.EMPTY;
+        }
+        try {
+            UserModel model = models.getOrLoad(userId, this::load);
+            return model.predict(tokens);
+        } catch (DataAccessException e) {
+            log.warn("Category suggester unavailable for user {}", userId, e);
+            return Suggestion.EMPTY;
+        }
+    }
+
+    /**
+     * Category match (cùng format với Gemini) nếu đủ tin cậy, null nếu không
+     */
+    public Map<String, Object> categoryMatch(String userId, String text) {
+        Candidate category = suggest(userId, text).category();
+        return category != null && category.confidence() >= minConfidence
+                ? match(category.id(), category.confidence())
+                : null;
+    }
+
+    /**
+     * Combine the Gemini match with the learned candidate
+     *
+     * - Gemini chắc chắn (> 0.7): giữ nguyên
+     * - Gemini không chắc nhưng cùng id với candidate: tăng confidence 1 - (1 - a)(1 - b)
+     * - Candidate đủ tin cậy: dùng candidate
+     *
+     * @param field Tên field cho metric (categoryId / accountId)
+     */
+    public Map<String, Object> rerank(String field, Map<String, Object> llmMatch, Candidate candidate) {
+        String llmId = llmMatch != null && llmMatch.get("id") instanceof String id ? id : null;
+        double llmConfidence = llmMatch != null && llmMatch.get("confidence") instanceof Number n ? n.doubleValue() : 0;
+        String outcome;
+        Map<String, Object> result = llmMatch;
+        if (llmId != null && llmConfidence > LLM_CONFIDENCE_THRESHOLD) {
+            outcome = "llm";
+        } else if (candidate != null && candidate.id().equals(llmId)) {
+            outcome = "agreed";
+            result = match(llmId, 1 - (1 - llmConfidence) * (1 - candidate.confidence()));
+        } else if (candidate != null && candidate.confidence() >= minConfidence) {
+            outcome = "suggested";
+            result = match(candidate.id(), candidate.confidence());
+        } else {
+            outcome = "none";
+        }
+        meterRegistry.counter("nlp.suggester.matches", "field", field, "outcome", outcome).increment();
+        return result;
+    }
+
+    /**
+     * Learn from a newly created transaction
+     * Model chưa được train thì bỏ qua: lần train đầu tiên đọc lại cả transaction này từ lịch sử.
+     */
+    public void record(Transaction transaction) {
+        if (transaction.getType() != TransactionType.EXPENSE && transaction.getType() != TransactionType.INCOME) {
+            return;
+        }
+        Set<String> tokens = tokens(transaction.getNote());
+        if (tokens.isEmpty() || (transaction.getCategoryId() == null && transaction.getAccountId() == null)) {
+            return;
+        }
+        UserModel model = models.get(transaction.getUserId());
+        if (model != null) {
+            model.add(tokens, transaction.getCategoryId(), transaction.getAccountId());
+        }
+        Update update = new Update();
+        for (String token : tokens) {
+            if (transaction.getCategoryId() != null) {
+                update.inc("categoryCounts." + token + "." + transaction.getCategoryId(), 1);
+            }
+            if (transaction.getAccountId() != null) {
+                update.inc("accountCounts." + token + "." + transaction.getAccountId(), 1);
+            }
+        }
+        try {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(transaction.getUserId())),
+                    update, NLPSuggestionModel.class);
+        } catch (DataAccessException e) {
+            log.warn("Failed to update suggestion model for user {}", transaction.getUserId(), e);
+        }
+    }
+
+    private UserModel load(String userId) {
+        NLPSuggestionModel stored = mongoTemplate.findById(userId, NLPSuggestionModel.class);
+        if (stored != null) {
+            return new UserModel(stored.getCategoryCounts(), stored.getAccountCounts());
+        }
+        return train(userId);
+    }
+
+    /**
+     * Build the model from the user's recent transactions and persist it
+     */
+    private UserModel train(String userId) {
+        long startNanos = System.nanoTime();
+        Query query = new Query(Criteria.where("userId").is(userId)
+                .and("deleted").is(false)
+                .and("type").in(TransactionType.EXPENSE, TransactionType.INCOME)
+                .and("noteSearch").nin(null, ""))
+                .with(Sort.by(Sort.Direction.DESC, "occurredAt"))
+                .limit(HISTORY_LIMIT);
+        query.fields().include("noteSearch", "categoryId", "accountId");
+        List<Transaction> history = mongoTemplate.find(query, Transaction.class);
+
+        UserModel model = new UserModel(null, null);
+        for (Transaction transaction : history) {
+            model.add(tokens(transaction.getNoteSearch()), transaction.getCategoryId(), transaction.getAccountId());
+        }
+        mongoTemplate.save(model.toDocument(userId));
+        log.info("Trained suggestion model for user {} from {} transactions in {}ms",
+                userId, history.size(), (System.nanoTime() - startNanos) / 1_000_000);
+        return model;
+    }
+
+    /**
+     * Folded word tokens, bỏ token ngắn và token có số (số tiền, ngày)
+     */
+    private static Set<String> tokens(String text) {
+        String folded = TextNormalizer.fold(text);
+        if (folded == null || folded.isEmpty()) {
+            return Set.of();
+        }
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String token : folded.split("[^\\p{L}\\d]+")) {
+            if (token.length() >= 2 && token.chars().noneMatch(Character::isDigit)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    private static Map<String, Object> match(String id, double confidence) {
+        Map<String, Object> match = new HashMap<>();
+        match.put("id", id);
+        match.put("confidence", confidence);
+        return match;
+    }
+
+    /**
+     * In-memory model of one user (thread-safe)
+     */
+    private static final class UserModel {
+
+        private final Map<String, Map<String, Integer>> categoryCounts;
+        private final Map<String, Map<String, Integer>> accountCounts;
+
+        UserModel(Map<String, Map<String, Integer>> categoryCounts, Map<String, Map<String, Integer>> accountCounts) {
+            this.categoryCounts = copy(categoryCounts);
+            this.accountCounts = copy(accountCounts);
+        }
+
+        synchronized void add(Set<String> tokens, String categoryId, String accountId) {
+            for (String token : tokens) {
+                if (categoryId != null) {
+                    categoryCounts.computeIfAbsent(token, key -> new HashMap<>()).merge(categoryId, 1, Integer::sum);
+                }
+                if (accountId != null) {
+                    accountCounts.computeIfAbsent(token, key -> new HashMap<>()).merge(accountId, 1, Integer::sum);
+                }
+            }
+        }
+
+        synchronized Suggestion predict(Set<String> tokens) {
+            return new Suggestion(predict(categoryCounts, tokens), predict(accountCounts, tokens));
+        }
+
+        synchronized NLPSuggestionModel toDocument(String userId) {
+            return NLPSuggestionModel.builder()
+                    .id(userId)
+                    .categoryCounts(copy(categoryCounts))
+                    .accountCounts(copy(accountCounts))
+                    .trainedAt(LocalDateTime.now())
+                    .build();
+        }
+
+        private static Candidate predict(Map<String, Map<String, Integer>> counts, Set<String> tokens) {
+            Map<String, Integer> scores = new HashMap<>();
+            int support = 0;
+            for (String token : tokens) {
+                Map<String, Integer> tokenCounts = counts.get(token);
+                if (tokenCounts == null) {
+                    continue;
+                }
+                for (Map.Entry<String, Integer> entry : tokenCounts.entrySet()) {
+                    scores.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                    support += entry.getValue();
+                }
+            }
+            if (support < MIN_SUPPORT) {
+                return null;
+            }
+            Map.Entry<String, Integer> best = scores.entrySet().stream()
+                    .max(Map.Entry.comparingByValue())
+                    .orElse(null);
+            return best != null ? new Candidate(best.getKey(), (double) best.getValue() / support) : null;
+        }
+
+        private static Map<String, Map<String, Integer>> copy(Map<String, Map<String, Integer>> counts) {
+            Map<String, Map<String, Integer>> result = new HashMap<>();
+            if (counts != null) {
+                counts.forEach((token, ids) -> result.put(token, new HashMap<>(ids)));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TtlCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Per-user cache of the NLP context (accounts, categories, open receivables/liabilities)
+ * 
+ * Tránh 4 lần query Mongo trước mỗi lần gọi Gemini khi user chat liên tục.
+ * Được invalidate bởi Account/Category/Receivable/Liability/Settlement service khi có ghi.
+ */
+@Slf4j
+@Service
+public class NLPContextCache {
+    
+    private final TtlCache<String, Map<String, Object>> cache;
+    
+    public NLPContextCache(
+            @Value("${nlp.context-cache.max-size:1000}") int maxSize,
+            @Value("${nlp.context-cache.ttl:PT5M}") Duration ttl) {
+        this.cache = new TtlCache<>(maxSize, ttl);
+    }
+    
+    /**
+     * Get cached context for a user or build it with the loader
+     */
+    public Map<String, Object> getOrLoad(String userId, Function<String, Map<String, Object>> loader) {
+        return cache.getOrLoad(userId, loader);
+    }
+    
+    /**
+     * Invalidate context of one user (gọi sau khi ghi dữ liệu của user)
+     */
+    public void invalidate(String userId) {
+        if (userId != null) {
+            cache.invalidate(userId);
+            log.debug("Invalidated NLP context for user {}", userId);
+        }
+    }
+    
+    /**
+     * Invalidate every user (vd. khi system categories thay đổi)
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+}
@@ -0,0 +1,206 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TextNormalizer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Relevance pre-filter for the Gemini prompt context
+ *
+ * Thay vì gửi toàn bộ accounts/categories/công nợ của user, chỉ giữ top-N ứng viên
+ * giống input nhất (fuzzy match trên text đã bỏ dấu):
+ * - token trùng hoàn toàn: 1.0
+ * - token là prefix của nhau (≥ 2 ký tự, vd. "viet" / "vietcombank"): 0.7
+ * - còn lại: Dice coefficient trên bigram ký tự (nếu ≥ 0.5) x 0.6, bắt lỗi gõ sai
+ * Ứng viên cùng điểm giữ nguyên thứ tự gốc, nên user ít dữ liệu vẫn nhận đủ context.
+ *
+ * Category: tên thường không chung token với input ("grab 45k" → "Di chuyển"), nên
+ * - system category luôn được giữ (danh sách cố định, nhỏ)
+ * - category của user được chấm thêm theo bảng từ khóa của fast path (tên khớp category của từ khóa: 1.0)
+ *   và gợi ý học từ lịch sử của user (NLPCategorySuggester, điểm = confidence)
+ */
+@Component
+public class NLPContextSelector {
+
+    private final int maxAccounts;
+    private final int maxCategories;
+    private final int maxCounterparties;
+    private final NLPFastPathParser fastPathParser;
+    private final NLPCategorySuggester categorySuggester;
+
+    public NLPContextSelector(
+            @Value("${nlp.prompt.max-accounts:5}") int maxAccounts,
+            @Value("${nlp.prompt.max-categories:8}") int maxCategories,
+            @Value("${nlp.prompt.max-counterparties:5}") int maxCounterparties,
+            NLPFastPathParser fastPathParser,
+            NLPCategorySuggester categorySuggester) {
+        this.maxAccounts = maxAccounts;
+        this.maxCategories = maxCategories;
+        this.maxCounterparties = maxCounterparties;
+        this.fastPathParser = fastPathParser;
+        this.categorySuggester = categorySuggester;
+    }
+
+    /**
+     * Select the most relevant slice of the context for an input text
+     *
+     * @param userId User của context (dùng gợi ý category học từ lịch sử)
+     * @return Context mới (context gốc được cache nên không sửa trực tiếp)
+     */
+    public Map<String, Object> select(String userId, String text, Map<String, Object> context) {
+        if (context == null) {
+            return null;
+        }
+        Set<String> inputTokens = tokens(text);
+        Map<String, Object> selected = new HashMap<>(context);
+        selected.put("accounts", top(context.get("accounts"), "name", inputTokens, maxAccounts));
+        selected.put("categories", selectCategories(userId, text, inputTokens, context.get("categories")));
+        if (context.containsKey("openReceivables")) {
+            selected.put("openReceivables",
+                    top(context.get("openReceivables"), "counterpartyName", inputTokens, maxCounterparties));
+        }
+        if (context.containsKey("openLiabilities")) {
+            selected.put("openLiabilities",
+                    top(context.get("openLiabilities"), "counterpartyName", inputTokens, maxCounterparties));
+        }
+        if (context.containsKey("postpaidAccounts")) {
+            selected.put("postpaidAccounts", top(context.get("postpaidAccounts"), "name", inputTokens, maxAccounts));
+        }
+        return selected;
+    }
+
+    /**
+     * System categories + top-N user categories (fuzzy tên, từ khóa, gợi ý từ lịch sử)
+     */
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> selectCategories(String userId, String text, Set<String> inputTokens,
+                                                       Object items) {
+        if (!(items instanceof List<?> list)) {
+            return List.of();
+        }
+        List<Map<String, Object>> system = new ArrayList<>();
+        List<Map<String, Object>> custom = new ArrayList<>();
+        for (Map<String, Object> category : (List<Map<String, Object>>) list) {
+            if (Boolean.TRUE.equals(category.get("isSystem"))) {
+                system.add(category);
+            } else {
+                custom.add(category);
+            }
+        }
+        if (custom.size() <= maxCategories) {
+            return (List<Map<String, Object>>) list;
+        }
+
+        Set<String> keywordCategories = fastPathParser.keywordCategoryNames(text);
+        NLPCategorySuggester.Candidate suggested = categorySuggester.suggest(userId, text).category();
+        List<Map<String, Object>> selected = new ArrayList<>(system);
+        selected.addAll(top(custom, maxCategories, category -> {
+            double score = score(inputTokens, tokens((String) category.get("name")));
+            if (keywordCategories.contains(TextNormalizer.fold((String) category.get("name")))) {
+                score = Math.max(score, 1.0);
+            }
+            if (suggested != null && suggested.id().equals(category.get("id"))) {
+                score = Math.max(score, suggested.confidence());
+            }
+            return score;
+        }));
+        return selected;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> top(Object items, String nameKey, Set<String> inputTokens, int limit) {
+        if (!(items instanceof List<?> list) || list.size() <= limit) {
+            return items instanceof List<?> ? (List<Map<String, Object>>) items : List.of();
+        }
+        return top((List<Map<String, Object>>) list, limit,
+                candidate -> score(inputTokens, tokens((String) candidate.get(nameKey))));
+    }
+
+    private List<Map<String, Object>> top(List<Map<String, Object>> candidates, int limit,
+                                          ToDoubleFunction<Map<String, Object>> scorer) {
+        Map<Map<String, Object>, Double> scores = new IdentityHashMap<>();
+        for (Map<String, Object> candidate : candidates) {
+            scores.put(candidate, scorer.applyAsDouble(candidate));
+        }
+        // Stable sort: cùng điểm giữ thứ tự gốc
+        List<Map<String, Object>> sorted = new ArrayList<>(candidates);
+        sorted.sort(Comparator.comparingDouble((Map<String, Object> candidate) -> scores.get(candidate)).reversed());
+        return sorted.subList(0, limit);
+    }
+
+    /**
+     * Average over name tokens of the best match against input tokens
+     */
+    private double score(Set<String> inputTokens, Set<String> nameTokens) {
+        if (inputTokens.isEmpty() || nameTokens.isEmpty()) {
+            return 0;
+        }
+        double total = 0;
+        for (String nameToken : nameTokens) {
+            double best = 0;
+            for (String inputToken : inputTokens) {
+                best = Math.max(best, similarity(inputToken, nameToken));
+                if (best == 1.0) {
+                    break;
+                }
+            }
+            total += best;
+        }
+        return total / nameTokens.size();
+    }
+
+    private double similarity(String a, String b) {
+        if (a.equals(b)) {
+            return 1.0;
+        }
+        if (Math.min(a.length(), b.length()) >= 2 && (a.startsWith(b) || b.startsWith(a))) {
+            return 0.7;
+        }
+        double dice = dice(a, b);
+        return dice >= 0.5 ? dice * 0.6 : 0;
+    }
+
+    private double dice(String a, String b) {
+        if (a.length() < 2 || b.length() < 2) {
+            return 0;
+        }
+        Set<String> bigramsA = bigrams(a);
+        Set<String> bigramsB = bigrams(b);
+        int common = 0;
+        for (String bigram : bigramsA) {
+            if (bigramsB.contains(bigram)) {
+                common++;
+            }
+        }
+        return 2.0 * common / (bigramsA.size() + bigramsB.size());
+    }
+
+    private Set<String> bigrams(String token) {
+        Set<String> bigrams = new HashSet<>();
+        for (int i = 0; i < token.length() - 1; i++) {
+            bigrams.add(token.substring(i, i + 2));
+        }
+        return bigrams;
+    }
+
+    private Set<String> tokens(String text) {
+        String folded = TextNormalizer.fold(text);
+        if (folded == null || folded.isEmpty()) {
+            return Set.of();
+        }
+        Set<String> tokens = new HashSet<>(Arrays.asList(folded.split("[^\\p{L}\\d]+")));
+        tokens.remove("");
+        return tokens;
+    }
+}
@@ -0,0 +1,182 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.exception.BusinessException;
+import com.portfolio.common.exception.NotFoundException;
+import com.portfolio.wallet.dto.request.AdjustBalanceRequest;
+import com.portfolio.wallet.dto.request.CreateLiabilityRequest;
+import com.portfolio.wallet.dto.request.CreateReceivableRequest;
+import com.portfolio.wallet.dto.request.CreateSettlementRequest;
+import com.portfolio.wallet.dto.request.CreateTransactionRequest;
+import com.portfolio.wallet.dto.response.ConfirmDraftData;
+import com.portfolio.wallet.dto.response.NLPCommitResponse;
+import com.portfolio.wallet.model.SettlementType;
+import com.portfolio.wallet.model.TransactionType;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Commit a stored NLP draft in one round trip
+ *
+ * Tạo entity trực tiếp từ draft đã resolve (NLPDraftStore) qua các service hiện có, client không phải
+ * gọi lại Transaction/Receivable/Liability/Settlement controller. Các service vẫn kiểm tra lại
+ * account/category (lookup theo _id): draft có thể đã cũ nếu dữ liệu bị xóa từ instance khác.
+ * Request được kiểm tra cùng constraints (@Valid) như REST controller trước khi gọi service.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NLPDraftCommitService {
+
+    private static final ZoneId VN_TIMEZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+
+    private final NLPDraftStore nlpDraftStore;
+    private final TransactionService transactionService;
+    private final ReceivableService receivableService;
+    private final LiabilityService liabilityService;
+    private final SettlementService settlementService;
+    private final AccountService accountService;
+    private final Validator validator;
+
+    /**
+     * Create the entity of a draft token
+     * Token chỉ dùng được một lần. Draft chỉ được trả lại khi lỗi xảy ra trước khi ghi gì vào DB
+     * (BusinessException/NotFoundException từ bước kiểm tra); lỗi khác có thể xảy ra sau khi entity đã lưu
+     * (không có Mongo transaction) nên token bị hủy để client retry không tạo bản ghi trùng.
+     */
+    public NLPCommitResponse commit(String draftToken, String userId) {
+        NLPDraftStore.StoredDraft stored = nlpDraftStore.take(draftToken, userId)
+                .orElseThrow(() -> new NotFoundException("Draft not found or expired"));
+        ConfirmDraftData data = stored.data();
+        log.debug("Committing NLP {} draft for user: {}", data.getDraftType(), userId);
+
+        Object result;
+        try {
+            result = switch (data.getDraftType()) {
+                case TRANSACTION -> commitTransaction((ConfirmDraftData.TransactionDraft) data.getDraft(), userId);
+                case RECEIVABLE -> commitReceivable((ConfirmDraftData.ReceivableDraft) data.getDraft(), userId);
+                case LIABILITY -> commitLiability((ConfirmDraftData.LiabilityDraft) data.getDraft(), userId);
+                case SETTLEMENT -> commitSettlement((ConfirmDraftData.SettlementDraft) data.getDraft(), userId);
+                case BALANCE_ADJUSTMENT -> commitBalanceAdjustment(
+                        (ConfirmDraftData.BalanceAdjustmentDraft) data.getDraft(), userId);
+            };
+        } catch (BusinessException e) {
+            nlpDraftStore.restore(draftToken, stored);
+            throw e;
+        } catch (RuntimeException e) {
+            log.warn("NLP {} draft commit failed for user {}, discarding the draft token",
+                    data.getDraftType(), userId, e);
+            throw e;
+        }
+        return NLPCommitResponse.builder()
+                .draftType(data.getDraftType())
+                .data(result)
+                .build();
+    }
+
+    private Object commitTransaction(ConfirmDraftData.TransactionDraft draft, String userId) {
+        TransactionType type;
+        try {
+            type = TransactionType.valueOf(draft.getType());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new BusinessException("INVALID_DRAFT", "Unsupported transaction type: " + draft.getType());
+        }
+        CreateTransactionRequest request = CreateTransactionRequest.builder()
+                .type(type)
+                .amount(draft.getAmount())
+                .currency(draft.getCurrency() != null ? draft.getCurrency() : "VND")
+                .occurredAt(parseDateTime(draft.getOccurredAt()))
+                .categoryId(draft.getCategoryId())
+                .accountId(draft.getAccountId())
+                .fromAccountId(draft.getFromAccountId())
+                .toAccountId(draft.getToAccountId())
+                .note(draft.getNote())
+                .build();
+        return transactionService.createTransaction(validated(request), userId);
+    }
+
+    private Object commitReceivable(ConfirmDraftData.ReceivableDraft draft, String userId) {
+        return receivableService.createReceivable(validated(CreateReceivableRequest.builder()
+                .counterpartyName(draft.getCounterpartyName())
+                .amount(draft.getAmount())
+                .currency(draft.getCurrency() != null ? draft.getCurrency() : "VND")
+                .occurredAt(parseDateTime(draft.getOccurredAt()))
+                .dueAt(parseDateTime(draft.getDueAt()))
+                .note(draft.getNote())
+                .build()), userId);
+    }
+
+    private Object commitLiability(ConfirmDraftData.LiabilityDraft draft, String userId) {
+        return liabilityService.createLiability(validated(CreateLiabilityRequest.builder()
+                .counterpartyName(draft.getCounterpartyName())
+                .amount(draft.getAmount())
+                .currency(draft.getCurrency() != null ? draft.getCurrency() : "VND")
+                .occurredAt(parseDateTime(draft.getOccurredAt()))
+                .dueAt(parseDateTime(draft.getDueAt()))
+                .note(draft.getNote())
+                .build()), userId);
+    }
+
+    private Object commitSettlement(ConfirmDraftData.SettlementDraft draft, String userId) {
+        SettlementType type;
+        try {
+            type = SettlementType.valueOf(draft.getType());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new BusinessException("INVALID_DRAFT", "Unsupported settlement type: " + draft.getType());
+        }
+        return settlementService.createSettlement(validated(CreateSettlementRequest.builder()
+                .type(type)
+                .receivableId(draft.getReceivableId())
+                .liabilityId(draft.getLiabilityId())
+                .amount(draft.getAmount())
+                .currency(draft.getCurrency() != null ? draft.getCurrency() : "VND")
+                .occurredAt(parseDateTime(draft.getSettledAt()))
+                .accountId(draft.getAccountId())
+                .note(draft.getNote())
+                .build()), userId);
+    }
+
+    private Object commitBalanceAdjustment(ConfirmDraftData.BalanceAdjustmentDraft draft, String userId) {
+        return accountService.adjustBalance(draft.getAccountId(), validated(AdjustBalanceRequest.builder()
+                .actualBalance(draft.getTargetBalance())
+                .note(draft.getNote())
+                .build()), userId);
+    }
+
+    /**
+     * Bean Validation của request (amount > 0, độ dài note...), vi phạm → INVALID_DRAFT
+     */
+    private <T> T validated(T request) {
+        Set<ConstraintViolation<T>> violations = validator.validate(request);
+        if (!violations.isEmpty()) {
+            throw new BusinessException("INVALID_DRAFT", violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
+        }
+        return request;
+    }
+
+    /**
+     * Draft date "yyyy-MM-ddTHH:mm:ss+07:00" → LocalDateTime giờ VN (như khi build draft)
+     */
+    private LocalDateTime parseDateTime(String value) {
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        try {
+            return OffsetDateTime.parse(value).atZoneSameInstant(VN_TIMEZONE).toLocalDateTime();
+        } catch (DateTimeParseException e) {
+            throw new BusinessException("INVALID_DRAFT", "Invalid draft date: " + value);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TtlCache;
+import com.portfolio.wallet.dto.response.ConfirmDraftData;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Short-lived store of resolved NLP drafts, keyed by draft token
+ *
+ * Draft (CONFIRM_DRAFT) đã đủ field được giữ lại để POST /nlp/commit tạo entity ngay từ draft đã
+ * resolve, không cần client gửi lại toàn bộ field (draft còn thiếu field đi qua NLP session).
+ * Commit lấy draft ra (chỉ một request nhận được) và trả lại nếu tạo entity thất bại,
+ * nên client có thể thử commit lại mà không phải parse lại.
+ * Chỉ nằm trong memory (draft token chỉ dùng được ở instance đã parse).
+ *
+ * Metric: nlp.drafts{outcome=stored|committed|restored|miss}
+ */
+@Service
+public class NLPDraftStore {
+
+    public record StoredDraft(String userId, ConfirmDraftData data) {
+    }
+
+    private final TtlCache<String, StoredDraft> drafts;
+    private final MeterRegistry meterRegistry;
+
+    public NLPDraftStore(
+            @Value("${nlp.draft.max-size:5000}") int maxSize,
+            @Value("${nlp.draft.ttl:PT10M}") Duration ttl,
+            MeterRegistry meterRegistry) {
+        this.drafts = new TtlCache<>(maxSize, ttl);
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Store a draft and return its token
+     */
+    public String save(String userId, ConfirmDraftData data) {
+        String token = UUID.randomUUID().toString();
+        drafts.put(token, new StoredDraft(userId, data));
+        meterRegistry.counter("nlp.drafts", "outcome", "stored").increment();
+        return token;
+    }
+
+    /**
+     * Take a draft of the user (chỉ lấy được một lần)
+     */
+    public Optional<StoredDraft> take(String token, String userId) {
+        StoredDraft draft = drafts.get(token);
+        if (draft == null || !draft.userId().equals(userId) || drafts.remove(token) == null) {
+            meterRegistry.counter("nlp.drafts", "outcome", "miss").increment();
+            return Optional.empty();
+        }
+        meterRegistry.counter("nlp.drafts", "outcome", "committed").increment();
+        return Optional.of(draft);
+    }
+
+    /**
+     * Put a taken draft back (commit thất bại) để token dùng lại được
+     */
+    public void restore(String token, StoredDraft draft) {
+        drafts.put(token, draft);
+        meterRegistry.counter("nlp.drafts", "outcome", "restored").increment();
+    }
+}
@@ -0,0 +1,76 @@
+package com.portfolio.wallet.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor for NLP post-processing (Mongo lookups, query aggregations, SSE sends)
+ *
+ * Tách khỏi thread HttpClient của GeminiService (gemini.api.threads): Mongo/client chậm không được
+ * làm nghẽn response và retry timer của các Gemini call khác. Queue đầy → RejectedExecutionException,
+ * future phụ thuộc hoàn thành với lỗi thay vì chạy trên thread gọi.
+ *
+ * Metric: nlp.executor.queue, nlp.executor.rejected
+ */
+@Component
+public class NLPExecutor implements Executor {
+
+    private final int threads;
+    private final int queueSize;
+    private final MeterRegistry meterRegistry;
+    private ThreadPoolExecutor executor;
+    private Counter rejections;
+
+    public NLPExecutor(
+            @Value("${nlp.executor.threads:8}") int threads,
+            @Value("${nlp.executor.queue-size:500}") int queueSize,
+            MeterRegistry meterRegistry) {
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void start() {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    Thread thread = new Thread(runnable, "nlp-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.rejections = Counter.builder("nlp.executor.rejected")
+                .description("NLP post-processing tasks rejected because the queue was full")
+                .register(meterRegistry);
+        Gauge.builder("nlp.executor.queue", executor, pool -> pool.getQueue().size())
+                .description("NLP post-processing tasks waiting for a worker")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void stop() {
+        executor.shutdown();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        try {
+            executor.execute(command);
+        } catch (RejectedExecutionException e) {
+            rejections.increment();
+            throw e;
+        }
+    }
+}
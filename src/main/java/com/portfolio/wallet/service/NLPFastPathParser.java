@@ -0,0 +1,478 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TextNormalizer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.Normalizer;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rule-based fast path for simple NLP inputs
+ *
+ * Xử lý các câu đơn giản kiểu "ăn bún 50k", "lương tháng 1 10tr", "hôm qua grab 45k momo"
+ * mà không cần gọi Gemini:
+ * - Số tiền viết tắt: 50k, 1.5tr, 1tr5, 2 triệu, 50.000
+ * - Ngày tương đối: hôm nay/hôm qua/hôm kia, N ngày trước, d/M, d/M/yyyy
+ * - Category/account: khớp tên (không dấu) trong context của user, hoặc từ khóa phổ biến,
+ *   hoặc categoryFallback (thói quen của user học từ lịch sử)
+ *
+ * Chỉ trả về kết quả khi chắc chắn (đúng 1 số tiền + tìm được category), ngược lại để Gemini xử lý.
+ * Kết quả có cùng format với response của Gemini để dùng lại logic build draft của NLPService.
+ * Metric: nlp.fastpath.attempts{outcome=hit|miss}
+ */
+@Slf4j
+@Service
+public class NLPFastPathParser {
+
+    private static final double CONFIDENCE = 0.9;
+    private static final double NAME_MATCH_CONFIDENCE = 0.95;
+    private static final double KEYWORD_MATCH_CONFIDENCE = 0.85;
+    private static final double SINGLE_ACCOUNT_CONFIDENCE = 0.8;
+
+    /**
+     * Số tiền có đơn vị: 50k, 1.5tr, 1tr5, 2 trieu, 3 cu (trên text đã fold)
+     */
+    private static final Pattern UNIT_AMOUNT = Pattern.compile(
+            "(?<![\\p{L}\\d.,])(\\d+(?:[.,]\\d+)?)\\s*(k|nghin|ngan|tr|trieu|cu|m)(\\d)?(?![\\p{L}\\d])");
+
+    /**
+     * Số tiền không có đơn vị: 50.000, 50000, 50000d, 50.000 vnd
+     */
+    private static final Pattern PLAIN_AMOUNT = Pattern.compile(
+            "(?<![\\p{L}\\d.,/])(\\d{1,3}(?:[.,]\\d{3})+|\\d{4,})(?:\\s*(?:d|vnd|dong))?(?![\\p{L}\\d/])");
+
+    private static final Pattern DAYS_AGO = Pattern.compile("(?<![\\p{L}\\d])(\\d{1,2})\\s+ngay\\s+truoc(?![\\p{L}])");
+    private static final Pattern EXPLICIT_DATE = Pattern.compile(
+            "(?<![\\d/])(\\d{1,2})/(\\d{1,2})(?:/(\\d{4}))?(?![\\d/])");
+
+    private static final Map<Pattern, Integer> RELATIVE_DAYS = new LinkedHashMap<>();
+    static {
+        for (String prefix : List.of("hom", "sang", "trua", "chieu", "toi")) {
+            RELATIVE_DAYS.put(wordPattern(prefix + " nay"), 0);
+            RELATIVE_DAYS.put(wordPattern(prefix + " qua"), -1);
+        }
+        RELATIVE_DAYS.put(wordPattern("hom kia"), -2);
+    }
+
+    /**
+     * Câu có các từ này không phải giao dịch đơn giản (công nợ, chuyển khoản, truy vấn...) → Gemini
+     */
+    private static final Pattern COMPLEX_INTENT = Pattern.compile(
+            "(?<![\\p{L}])(cho vay|di vay|vay tien|cho muon|muon tien|tra no|thu no|chuyen|rut|nap|so du|dieu chinh"
+                    + "|bao nhieu|tong|thong ke|liet ke)(?![\\p{L}])|\\?");
+
+    private static final Pattern INCOME_KEYWORDS = Pattern.compile(
+            "(?<![\\p{L}])(luong|thuong|thu nhap|nhan tien|duoc cho|duoc tang|hoan tien|co tuc)(?![\\p{L}])");
+
+    /**
+     * Từ khóa phổ biến → tên system category (đã fold), pattern compile sẵn một lần
+     */
+    private record Keyword(String phrase, String category, Pattern pattern) {
+    }
+
+    private static final List<Keyword> CATEGORY_KEYWORDS = new ArrayList<>();
+    static {
+        addKeywords("an uong", "an", "uong", "bun", "pho", "com", "banh mi", "cafe", "ca phe", "cf", "tra sua",
+                "tra da", "nhau", "lau", "nuong", "an sang", "an trua", "an toi", "do an", "nuoc ngot", "bia");
+        addKeywords("di chuyen", "xang", "grab", "taxi", "xe om", "gui xe", "ve xe", "bus", "do xang", "xanh sm");
+        addKeywords("mua sam", "mua", "shopee", "lazada", "tiki", "quan ao", "giay", "dep", "sieu thi");
+        addKeywords("giai tri", "phim", "xem phim", "game", "karaoke", "du lich", "netflix", "spotify");
+        addKeywords("suc khoe", "thuoc", "kham", "benh vien", "nha khoa", "gym", "bao hiem");
+        addKeywords("giao duc", "hoc", "hoc phi", "sach", "khoa hoc");
+        addKeywords("hoa don", "tien dien", "tien nuoc", "dien", "internet", "wifi", "tien nha", "thue nha",
+                "dien thoai", "cuoc dien thoai", "4g");
+        addKeywords("luong", "luong");
+        addKeywords("thuong", "thuong");
+    }
+
+    private static void addKeywords(String category, String... keywords) {
+        for (String keyword : keywords) {
+            if (CATEGORY_KEYWORDS.stream().noneMatch(existing -> existing.phrase().equals(keyword))) {
+                CATEGORY_KEYWORDS.add(new Keyword(keyword, category, wordPattern(keyword)));
+            }
+        }
+    }
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public NLPFastPathParser(MeterRegistry meterRegistry) {
+        this.hits = Counter.builder("nlp.fastpath.attempts")
+                .description("Inputs handled by the local rule-based parser")
+                .tag("outcome", "hit")
+                .register(meterRegistry);
+        this.misses = Counter.builder("nlp.fastpath.attempts")
+                .description("Inputs handled by the local rule-based parser")
+                .tag("outcome", "miss")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Try to parse a simple transaction locally
+     *
+     * @return Response cùng format với Gemini (intent, confidence, entities), empty nếu cần Gemini
+     */
+    public Optional<Map<String, Object>> tryParse(String text, Map<String, Object> context, String timezone) {
+        return tryParse(text, context, timezone, null);
+    }
+
+    /**
+     * Try to parse a simple transaction locally
+     *
+     * @param categoryFallback Nguồn category khi không khớp tên/từ khóa (vd. model học từ lịch sử user),
+     *                         trả về match {id, confidence} hoặc null
+     */
+    public Optional<Map<String, Object>> tryParse(String text, Map<String, Object> context, String timezone,
+                                                  Function<String, Map<String, Object>> categoryFallback) {
+        Optional<Map<String, Object>> result = parse(text, context, timezone, categoryFallback);
+        if (result.isPresent()) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        if (log.isDebugEnabled()) {
+            double total = hits.count() + misses.count();
+            log.debug("NLP fast path {} (hit rate {}%)", result.isPresent() ? "hit" : "miss",
+                    Math.round(hits.count() * 100 / total));
+        }
+        return result;
+    }
+
+    /**
+     * Amount in a follow-up answer ("50k", "2tr5", "120.000")
+     */
+    public Optional<BigDecimal> extractAmount(String text) {
+        if (text == null || text.isBlank()) {
+            return Optional.empty();
+        }
+        BigDecimal amount = parseAmount(fold(text), new ArrayList<>());
+        return amount != null && amount.signum() > 0 ? Optional.of(amount) : Optional.empty();
+    }
+
+    /**
+     * Category id từ câu trả lời (tên category hoặc từ khóa phổ biến)
+     */
+    public Optional<String> matchCategoryId(String text, Map<String, Object> context) {
+        return idOf(text == null ? null : matchCategory(fold(text), context));
+    }
+
+    /**
+     * Account id từ câu trả lời (tên account)
+     */
+    public Optional<String> matchAccountId(String text, Map<String, Object> context) {
+        return idOf(text == null ? null : matchAccount(fold(text), context));
+    }
+
+    /**
+     * System category names (đã fold) có từ khóa phổ biến xuất hiện trong text
+     */
+    public Set<String> keywordCategoryNames(String text) {
+        if (text == null || text.isBlank()) {
+            return Set.of();
+        }
+        String folded = fold(text);
+        Set<String> names = new HashSet<>();
+        for (Keyword keyword : CATEGORY_KEYWORDS) {
+            if (!names.contains(keyword.category()) && keyword.pattern().matcher(folded).find()) {
+                names.add(keyword.category());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Id of the item whose name appears in the text (ưu tiên tên dài nhất)
+     *
+     * @param items   Danh sách trong context (vd. openReceivables)
+     * @param nameKey Field chứa tên (vd. counterpartyName)
+     */
+    @SuppressWarnings("unchecked")
+    public Optional<String> matchNameId(String text, Object items, String nameKey) {
+        if (text == null || !(items instanceof List<?> list)) {
+            return Optional.empty();
+        }
+        String folded = fold(text);
+        Map<String, Object> best = null;
+        int bestLength = 0;
+        for (Map<String, Object> item : (List<Map<String, Object>>) list) {
+            String name = TextNormalizer.fold((String) item.get(nameKey));
+            if (name != null && name.length() > bestLength && containsPhrase(folded, name)) {
+                best = item;
+                bestLength = name.length();
+            }
+        }
+        return idOf(best);
+    }
+
+    private Optional<String> idOf(Map<String, Object> item) {
+        return item != null && item.get("id") instanceof String id ? Optional.of(id) : Optional.empty();
+    }
+
+    private Optional<Map<String, Object>> parse(String text, Map<String, Object> context, String timezone,
+                                                Function<String, Map<String, Object>> categoryFallback) {
+        if (text == null || text.isBlank() || text.contains("\n")) {
+            return Optional.empty();
+        }
+        // NFC trước: dấu dạng tổ hợp (NFD, vd. "a\u0306n") làm vỡ ranh giới từ của pattern
+        text = Normalizer.normalize(text, Normalizer.Form.NFC);
+        // Cùng độ dài với text (đã NFC) để cắt note theo vị trí match
+        String folded = TextNormalizer.foldPreservingLength(text);
+        if (COMPLEX_INTENT.matcher(folded).find()) {
+            return Optional.empty();
+        }
+
+        List<int[]> removedRanges = new ArrayList<>();
+
+        // Amount: đúng 1 số tiền
+        BigDecimal amount = parseAmount(folded, removedRanges);
+        if (amount == null || amount.signum() <= 0) {
+            return Optional.empty();
+        }
+
+        LocalDateTime occurredAt = parseRelativeDate(folded, zoneOf(timezone), removedRanges);
+
+        String transactionType = INCOME_KEYWORDS.matcher(folded).find() ? "INCOME" : "EXPENSE";
+
+        // Category: bắt buộc phải có để coi là chắc chắn
+        Map<String, Object> categoryMatch = matchCategory(folded, context);
+        if (categoryMatch == null && categoryFallback != null) {
+            categoryMatch = categoryFallback.apply(text);
+        }
+        if (categoryMatch == null) {
+            return Optional.empty();
+        }
+
+        Map<String, Object> entities = new HashMap<>();
+        entities.put("amount", amount);
+        entities.put("transactionType", transactionType);
+        entities.put("categoryMatch", categoryMatch);
+        Map<String, Object> accountMatch = matchAccount(folded, context);
+        if (accountMatch != null) {
+            entities.put("accountMatch", accountMatch);
+        }
+        entities.put("date", occurredAt.format(DateTimeFormatter.ISO_LOCAL_DATE_TIME));
+        String note = buildNote(text, removedRanges);
+        if (note != null) {
+            entities.put("note", note);
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("intent", "CREATE_TRANSACTION");
+        response.put("confidence", CONFIDENCE);
+        response.put("entities", entities);
+        return Optional.of(response);
+    }
+
+    private BigDecimal parseAmount(String folded, List<int[]> removedRanges) {
+        List<MatchResult> unitMatches = UNIT_AMOUNT.matcher(folded).results().toList();
+        if (unitMatches.size() == 1) {
+            MatchResult m = unitMatches.get(0);
+            BigDecimal value = new BigDecimal(m.group(1).replace(',', '.'));
+            String unit = m.group(2);
+            BigDecimal multiplier = unit.equals("k") || unit.equals("nghin") || unit.equals("ngan")
+                    ? BigDecimal.valueOf(1_000)
+                    : BigDecimal.valueOf(1_000_000);
+            BigDecimal amount = value.multiply(multiplier);
+            if (m.group(3) != null) {
+                // 1tr5 = 1.500.000, 2k5 = 2.500
+                amount = amount.add(new BigDecimal(m.group(3)).multiply(multiplier).divide(BigDecimal.TEN));
+            }
+            removedRanges.add(new int[]{m.start(), m.end()});
+            return amount.setScale(0, RoundingMode.HALF_UP);
+        }
+        if (!unitMatches.isEmpty()) {
+            return null; // Nhiều số tiền → không chắc chắn
+        }
+
+        List<MatchResult> plainMatches = PLAIN_AMOUNT.matcher(folded).results().toList();
+        if (plainMatches.size() != 1) {
+            return null;
+        }
+        MatchResult m = plainMatches.get(0);
+        removedRanges.add(new int[]{m.start(), m.end()});
+        return new BigDecimal(m.group(1).replace(".", "").replace(",", ""));
+    }
+
+    private LocalDateTime parseRelativeDate(String folded, ZoneId zone, List<int[]> removedRanges) {
+        LocalDateTime now = LocalDateTime.now(zone);
+
+        for (Map.Entry<Pattern, Integer> entry : RELATIVE_DAYS.entrySet()) {
+            Matcher m = entry.getKey().matcher(folded);
+            if (m.find()) {
+                removedRanges.add(new int[]{m.start(), m.end()});
+                return now.plusDays(entry.getValue());
+            }
+        }
+
+        Matcher daysAgo = DAYS_AGO.matcher(folded);
+        if (daysAgo.find()) {
+            removedRanges.add(new int[]{daysAgo.start(), daysAgo.end()});
+            return now.minusDays(Integer.parseInt(daysAgo.group(1)));
+        }
+
+        Matcher explicit = EXPLICIT_DATE.matcher(folded);
+        if (explicit.find()) {
+            try {
+                int year = explicit.group(3) != null ? Integer.parseInt(explicit.group(3)) : now.getYear();
+                LocalDate date = LocalDate.of(year,
+                        Integer.parseInt(explicit.group(2)),
+                        Integer.parseInt(explicit.group(1)));
+                removedRanges.add(new int[]{explicit.start(), explicit.end()});
+                return date.atStartOfDay();
+            } catch (DateTimeException e) {
+                log.debug("Ignoring invalid date in input: {}", explicit.group());
+            }
+        }
+        return now;
+    }
+
+    /**
+     * Match category: tên category của user/system trước, sau đó tới từ khóa phổ biến
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> matchCategory(String folded, Map<String, Object> context) {
+        List<Map<String, Object>> categories =
+                (List<Map<String, Object>>) context.getOrDefault("categories", List.of());
+
+        // 1. Tên category xuất hiện trong câu (ưu tiên tên dài nhất)
+        Map<String, Object> best = null;
+        int bestLength = 0;
+        for (Map<String, Object> category : categories) {
+            String name = TextNormalizer.fold((String) category.get("name"));
+            if (name != null && name.length() > bestLength && containsPhrase(folded, name)) {
+                best = category;
+                bestLength = name.length();
+            }
+        }
+        if (best != null) {
+            return match(best.get("id"), NAME_MATCH_CONFIDENCE);
+        }
+
+        // 2. Từ khóa → system category (ưu tiên từ khóa dài nhất, vd. "tien dien" hơn "dien")
+        String bestCategoryName = null;
+        int bestKeywordLength = 0;
+        for (Keyword keyword : CATEGORY_KEYWORDS) {
+            if (keyword.phrase().length() > bestKeywordLength && keyword.pattern().matcher(folded).find()) {
+                bestCategoryName = keyword.category();
+                bestKeywordLength = keyword.phrase().length();
+            }
+        }
+        if (bestCategoryName == null) {
+            return null;
+        }
+        for (Map<String, Object> category : categories) {
+            if (bestCategoryName.equals(TextNormalizer.fold((String) category.get("name")))) {
+                return match(category.get("id"), KEYWORD_MATCH_CONFIDENCE);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Match account by name; user chỉ có 1 account thì dùng luôn account đó
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> matchAccount(String folded, Map<String, Object> context) {
+        List<Map<String, Object>> accounts =
+                (List<Map<String, Object>>) context.getOrDefault("accounts", List.of());
+
+        Map<String, Object> best = null;
+        int bestLength = 0;
+        for (Map<String, Object> account : accounts) {
+            String name = TextNormalizer.fold((String) account.get("name"));
+            if (name != null && name.length() > bestLength && containsPhrase(folded, name)) {
+                best = account;
+                bestLength = name.length();
+            }
+        }
+        if (best != null) {
+            return match(best.get("id"), NAME_MATCH_CONFIDENCE);
+        }
+        if (accounts.size() == 1) {
+            return match(accounts.get(0).get("id"), SINGLE_ACCOUNT_CONFIDENCE);
+        }
+        return null;
+    }
+
+    /**
+     * Note = câu gốc bỏ phần số tiền và ngày
+     */
+    private String buildNote(String text, List<int[]> removedRanges) {
+        StringBuilder note = new StringBuilder(text);
+        removedRanges.sort((a, b) -> Integer.compare(b[0], a[0]));
+        for (int[] range : removedRanges) {
+            note.replace(range[0], range[1], " ");
+        }
+        String result = note.toString().replaceAll("\\s+", " ").trim();
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * NFC rồi fold (giữ độ dài so với text đã NFC)
+     */
+    private static String fold(String text) {
+        return TextNormalizer.foldPreservingLength(Normalizer.normalize(text, Normalizer.Form.NFC));
+    }
+
+    /**
+     * Tên (account/category/người) xuất hiện như một cụm từ trọn vẹn, cùng ranh giới với wordPattern
+     * Không compile regex: tên thay đổi theo context của từng user, chạy cho mỗi request
+     */
+    private boolean containsPhrase(String folded, String phrase) {
+        if (phrase.isBlank()) {
+            return false;
+        }
+        for (int start = folded.indexOf(phrase); start >= 0; start = folded.indexOf(phrase, start + 1)) {
+            int end = start + phrase.length();
+            if ((start == 0 || !isWordChar(folded.charAt(start - 1)))
+                    && (end == folded.length() || !isWordChar(folded.charAt(end)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetter(c) || (c >= '0' && c <= '9');
+    }
+
+    private static Pattern wordPattern(String phrase) {
+        return Pattern.compile("(?<![\\p{L}\\d])" + Pattern.quote(phrase) + "(?![\\p{L}\\d])");
+    }
+
+    private Map<String, Object> match(Object id, double confidence) {
+        Map<String, Object> match = new HashMap<>();
+        match.put("id", id);
+        match.put("confidence", confidence);
+        return match;
+    }
+
+    private ZoneId zoneOf(String timezone) {
+        try {
+            return ZoneId.of(timezone);
+        } catch (DateTimeException | NullPointerException e) {
+            return ZoneId.of("Asia/Ho_Chi_Minh");
+        }
+    }
+}
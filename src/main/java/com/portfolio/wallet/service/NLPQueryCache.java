@@ -0,0 +1,60 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TtlCache;
+import com.portfolio.wallet.dto.response.QueryResultData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Cache of QUERY_DATA results per (user, normalized query, data version)
+ * 
+ * Mỗi lần ghi transaction/category của user thì data version tăng, các kết quả cũ không còn
+ * được đọc tới (tự hết hạn theo TTL/LRU). Version được đọc trước khi tính nên kết quả tính
+ * song song với một lần ghi sẽ nằm dưới version cũ, không bao giờ trả về sau lần ghi đó.
+ * 
+ * Version lấy từ một bộ đếm chung, không bao giờ dùng lại, và được giữ trong TtlCache (cùng giới hạn với
+ * kết quả) thay vì map không giới hạn: entry bị evict/hết hạn thì user nhận version mới, chỉ mất cache hit
+ * chứ không đọc lại kết quả cũ.
+ */
+@Slf4j
+@Service
+public class NLPQueryCache {
+    
+    private final TtlCache<String, QueryResultData> cache;
+    private final TtlCache<String, Long> dataVersions;
+    private final AtomicLong versionSequence = new AtomicLong();
+    
+    public NLPQueryCache(
+            @Value("${nlp.query-cache.max-size:2000}") int maxSize,
+            @Value("${nlp.query-cache.ttl:PT10M}") Duration ttl) {
+        this.cache = new TtlCache<>(maxSize, ttl);
+        this.dataVersions = new TtlCache<>(maxSize, ttl);
+    }
+    
+    /**
+     * Get cached result or compute it
+     * 
+     * @param normalizedQuery Query đã chuẩn hóa (metric, khoảng ngày, filter, groupBy)
+     */
+    public QueryResultData getOrCompute(String userId, String normalizedQuery, Supplier<QueryResultData> compute) {
+        long version = dataVersions.getOrLoad(userId, ignored -> versionSequence.incrementAndGet());
+        String key = userId + "|" + version + "|" + normalizedQuery;
+        return cache.getOrLoad(key, ignored -> compute.get());
+    }
+    
+    /**
+     * Bump data version of a user (gọi sau khi ghi transaction/category của user)
+     * Xóa version hiện tại: lần đọc sau lấy version mới từ bộ đếm
+     */
+    public void invalidate(String userId) {
+        if (userId != null) {
+            dataVersions.invalidate(userId);
+            log.debug("Bumped NLP query data version for user {}", userId);
+        }
+    }
+}
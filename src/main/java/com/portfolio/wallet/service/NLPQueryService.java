@@ -0,0 +1,160 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.wallet.dto.response.QueryResultData;
+import com.portfolio.wallet.model.TransactionType;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * QUERY_DATA engine
+ * 
+ * Chuyển query đã extract (metric, khoảng ngày, category/account, groupBy) thành aggregation
+ * trên daily rollup + transactions (TransactionRollupService.sumBy), chỉ trả về tổng theo nhóm,
+ * không kéo transaction về JVM. Kết quả được cache theo (user, query, data version).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class NLPQueryService {
+    
+    private static final int MAX_BREAKDOWN_ITEMS = 10;
+    private static final DateTimeFormatter LABEL_DATE_FORMATTER = DateTimeFormatter.ofPattern("dd/MM/yyyy");
+    
+    private final TransactionRollupService transactionRollupService;
+    private final NLPQueryCache nlpQueryCache;
+    
+    public enum Metric {
+        EXPENSE, INCOME, NET
+    }
+    
+    public enum GroupBy {
+        NONE, CATEGORY, ACCOUNT
+    }
+    
+    /**
+     * Normalized query
+     * 
+     * @param periodLabel Nhãn hiển thị ("Tháng này", "Hôm qua"...), null thì dùng khoảng ngày
+     * @param from        Ngày bắt đầu (inclusive)
+     * @param to          Ngày kết thúc (exclusive)
+     * @param categoryId  Lọc theo category (optional)
+     * @param accountId   Lọc theo account (optional)
+     */
+    public record QuerySpec(Metric metric, String periodLabel, LocalDate from, LocalDate to,
+                            String categoryId, String accountId, GroupBy groupBy) {
+        
+        String cacheKey() {
+            return String.join("|", metric.name(), String.valueOf(periodLabel), from.toString(), to.toString(),
+                    String.valueOf(categoryId), String.valueOf(accountId), groupBy.name());
+        }
+    }
+    
+    /**
+     * Answer a query for a user
+     * 
+     * @param names id -> tên category/account để hiển thị
+     */
+    public QueryResultData execute(String userId, QuerySpec spec, Map<String, String> names) {
+        return nlpQueryCache.getOrCompute(userId, spec.cacheKey(), () -> compute(userId, spec, names));
+    }
+    
+    private QueryResultData compute(String userId, QuerySpec spec, Map<String, String> names) {
+        log.debug("Computing NLP query for user {}: {}", userId, spec);
+        
+        String groupField = switch (spec.groupBy()) {
+            case CATEGORY -> "categoryId";
+            case ACCOUNT -> "accountId";
+            case NONE -> "type";
+        };
+        
+        // group value -> signed total (INCOME cộng, EXPENSE trừ với NET; EXPENSE/INCOME là số dương)
+        Map<String, BigDecimal> totals = new HashMap<>();
+        for (TransactionType type : typesOf(spec.metric())) {
+            Criteria filter = Criteria.where("type").is(type);
+            if (spec.categoryId() != null) {
+                filter = filter.and("categoryId").is(spec.categoryId());
+            }
+            if (spec.accountId() != null) {
+                filter = filter.and("accountId").is(spec.accountId());
+            }
+            boolean negate = spec.metric() == Metric.NET && type == TransactionType.EXPENSE;
+            transactionRollupService.sumBy(userId, spec.from().atStartOfDay(), spec.to().atStartOfDay(), filter, groupField)
+                    .forEach((group, total) -> totals.merge(
+                            spec.groupBy() == GroupBy.NONE ? "total" : String.valueOf(group),
+                            negate ? total.sum().negate() : total.sum(),
+                            BigDecimal::add));
+        }
+        
+        BigDecimal total = totals.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+        List<QueryResultData.BreakdownItem> breakdown = null;
+        if (spec.groupBy() != GroupBy.NONE) {
+            breakdown = totals.entrySet().stream()
+                    .filter(entry -> entry.getValue().signum() != 0)
+                    .sorted(Map.Entry.<String, BigDecimal>comparingByValue().reversed())
+                    .limit(MAX_BREAKDOWN_ITEMS)
+                    .map(entry -> QueryResultData.BreakdownItem.builder()
+                            .label(names.getOrDefault(entry.getKey(), "Khác"))
+                            .value(entry.getValue())
+                            .build())
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+        
+        return QueryResultData.builder()
+                .queryType(QueryResultData.QueryType.SUMMARY)
+                .summary(buildSummary(spec, total, names))
+                .breakdown(breakdown)
+                .build();
+    }
+    
+    private List<TransactionType> typesOf(Metric metric) {
+        return switch (metric) {
+            case EXPENSE -> List.of(TransactionType.EXPENSE);
+            case INCOME -> List.of(TransactionType.INCOME);
+            case NET -> List.of(TransactionType.INCOME, TransactionType.EXPENSE);
+        };
+    }
+    
+    /**
+     * Vd. "Tháng này bạn đã chi 2.500.000đ cho Ăn uống"
+     */
+    private String buildSummary(QuerySpec spec, BigDecimal total, Map<String, String> names) {
+        StringBuilder summary = new StringBuilder(periodLabel(spec)).append(" bạn ");
+        switch (spec.metric()) {
+            case EXPENSE -> summary.append("đã chi ").append(formatAmount(total));
+            case INCOME -> summary.append("đã thu ").append(formatAmount(total));
+            case NET -> summary.append(total.signum() >= 0 ? "dư " : "thâm hụt ").append(formatAmount(total.abs()));
+        }
+        if (spec.categoryId() != null) {
+            summary.append(" cho ").append(names.getOrDefault(spec.categoryId(), "category đã chọn"));
+        }
+        if (spec.accountId() != null) {
+            summary.append(" từ ").append(names.getOrDefault(spec.accountId(), "tài khoản đã chọn"));
+        }
+        return summary.toString();
+    }
+    
+    private String periodLabel(QuerySpec spec) {
+        if (spec.periodLabel() != null) {
+            return spec.periodLabel();
+        }
+        return "Từ " + spec.from().format(LABEL_DATE_FORMATTER)
+                + " đến " + spec.to().minusDays(1).format(LABEL_DATE_FORMATTER);
+    }
+    
+    private String formatAmount(BigDecimal amount) {
+        return NumberFormat.getNumberInstance(Locale.forLanguageTag("vi-VN")).format(amount) + "đ";
+    }
+}
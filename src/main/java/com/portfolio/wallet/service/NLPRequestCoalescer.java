@@ -0,0 +1,104 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TtlCache;
+import com.portfolio.wallet.dto.response.NLPResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight coalescing for NLP parse requests
+ *
+ * Double tap / client retry gửi cùng text trong vòng 1 giây:
+ * - Request trùng (userId, text đã chuẩn hóa, timezone, locale) đang chạy → dùng chung future, không gọi Gemini lần 2
+ * - Kết quả thành công được giữ thêm vài giây để hấp thụ replay ngay sau đó
+ *
+ * Metric: nlp.coalescing.requests{outcome=miss|joined|cached}
+ */
+@Slf4j
+@Service
+public class NLPRequestCoalescer {
+
+    private final Map<String, CompletableFuture<NLPResponse>> inFlight = new ConcurrentHashMap<>();
+    private final TtlCache<String, NLPResponse> recentResponses;
+    private final Counter misses;
+    private final Counter joined;
+    private final Counter cached;
+
+    public NLPRequestCoalescer(
+            @Value("${nlp.coalescing.response-cache-size:1000}") int maxSize,
+            @Value("${nlp.coalescing.response-ttl:PT3S}") Duration ttl,
+            MeterRegistry meterRegistry) {
+        this.recentResponses = new TtlCache<>(maxSize, ttl);
+        this.misses = counter(meterRegistry, "miss");
+        this.joined = counter(meterRegistry, "joined");
+        this.cached = counter(meterRegistry, "cached");
+    }
+
+    /**
+     * Build the coalescing key: text chỉ chuẩn hóa khoảng trắng/hoa thường, giữ nguyên dấu
+     */
+    public String key(String userId, String text, String timezone, String locale) {
+        String normalizedText = Normalizer.normalize(text == null ? "" : text, Normalizer.Form.NFC)
+                .trim()
+                .replaceAll("\\s+", " ")
+                .toLowerCase(Locale.ROOT);
+        return String.join("|", userId, String.valueOf(timezone), String.valueOf(locale), normalizedText);
+    }
+
+    /**
+     * Run the call once per key; concurrent duplicates share its result
+     */
+    public CompletableFuture<NLPResponse> execute(String key, Supplier<CompletableFuture<NLPResponse>> call) {
+        NLPResponse recent = recentResponses.get(key);
+        if (recent != null) {
+            cached.increment();
+            return CompletableFuture.completedFuture(recent);
+        }
+
+        CompletableFuture<NLPResponse> promise = new CompletableFuture<>();
+        CompletableFuture<NLPResponse> existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            joined.increment();
+            log.debug("Joined in-flight NLP request");
+            return existing.copy();
+        }
+
+        misses.increment();
+        try {
+            call.get().whenComplete((response, error) -> {
+                // Cache trước rồi mới bỏ khỏi in-flight để không có khoảng trống giữa 2 bước
+                if (error == null && response != null && response.getResponseType() != NLPResponse.ResponseType.ERROR) {
+                    recentResponses.put(key, response);
+                }
+                inFlight.remove(key, promise);
+                if (error != null) {
+                    promise.completeExceptionally(error);
+                } else {
+                    promise.complete(response);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+        return promise.copy();
+    }
+
+    private Counter counter(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("nlp.coalescing.requests")
+                .description("NLP parse requests by coalescing outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
@@ -1,5 +1,6 @@
 package com.portfolio.wallet.service;
 
+import com.portfolio.wallet.dto.request.ParseTransactionBatchRequest;
 import com.portfolio.wallet.dto.request.ParseTransactionRequest;
 import com.portfolio.wallet.dto.response.*;
 import com.portfolio.wallet.model.*;
@@ -9,12 +10,16 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.time.DayOfWeek;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -30,6 +35,16 @@ public class NLPService {
     private final CategoryRepository categoryRepository;
     private final ReceivableRepository receivableRepository;
     private final LiabilityRepository liabilityRepository;
+    private final NLPContextCache nlpContextCache;
+    private final NLPFastPathParser nlpFastPathParser;
+    private final NLPQueryService nlpQueryService;
+    private final NLPRequestCoalescer nlpRequestCoalescer;
+    private final NLPSessionStore nlpSessionStore;
+    private final NLPCategorySuggester nlpCategorySuggester;
+    private final NLPStageMetrics nlpStageMetrics;
+    private final NLPDraftStore nlpDraftStore;
+    private final NLPUsageMeter nlpUsageMeter;
+    private final NLPExecutor nlpExecutor;
     
     private static final DateTimeFormatter ISO_FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
     private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("d/M/yyyy");
@@ -39,48 +54,399 @@ public class NLPService {
     
     /**
      * Parse user text input and return NLP response
+     * 
+     * Không chặn thread gọi trong lúc chờ Gemini; xử lý response (Mongo lookup, query) chạy trên NLPExecutor,
+     * không chiếm thread HttpClient của GeminiService.
+     * Request trùng đang chạy / vừa xong được gộp lại (NLPRequestCoalescer).
+     * Có sessionId (draft trước còn thiếu field) thì text là câu trả lời, được ghép vào draft local.
      */
-    public NLPResponse parseTransaction(ParseTransactionRequest request, String userId) {
+    public CompletableFuture<NLPResponse> parseTransaction(ParseTransactionRequest request, String userId) {
+        String timezone = request.getTimezone() != null ? request.getTimezone() : "Asia/Ho_Chi_Minh";
+        String locale = request.getLocale() != null ? request.getLocale() : "vi-VN";
+        if (request.getSessionId() != null) {
+            Optional<NLPSession> session = nlpSessionStore.find(request.getSessionId(), userId);
+            if (session.isPresent()) {
+                return continueSession(session.get(), request.getText(), userId);
+            }
+            log.debug("NLP session {} expired or not found, parsing as a new input", request.getSessionId());
+        }
+        String key = nlpRequestCoalescer.key(userId, request.getText(), timezone, locale);
+        return nlpRequestCoalescer.execute(key, () -> doParseTransaction(request.getText(), userId, timezone, locale, null));
+    }
+    
+    /**
+     * Parse user text input, pushing progressive events while Gemini streams its answer
+     * 
+     * events nhận ("intent", {intent, confidence}) ngay khi model trả intent hợp lệ, rồi ("entities", map)
+     * mỗi khi entities từng phần thay đổi (match được đổi thành id + tên account/category/công nợ).
+     * Future trả NLPResponse cuối cùng như parseTransaction. Session / fast path không cần Gemini nên
+     * trả kết quả luôn, không có event. Không gộp qua NLPRequestCoalescer vì mỗi stream có listener riêng.
+     * Event và future cuối cùng được gọi tuần tự trên NLPExecutor (không phải thread nhận stream của Gemini).
+     */
+    public CompletableFuture<NLPResponse> streamParseTransaction(ParseTransactionRequest request, String userId,
+                                                                 BiConsumer<String, Object> events) {
+        if (request.getSessionId() != null) {
+            return parseTransaction(request, userId);
+        }
+        String timezone = request.getTimezone() != null ? request.getTimezone() : "Asia/Ho_Chi_Minh";
+        String locale = request.getLocale() != null ? request.getLocale() : "vi-VN";
+        return doParseTransaction(request.getText(), userId, timezone, locale, events);
+    }
+    
+    /**
+     * @param events Listener của streamParseTransaction (null = gọi Gemini không stream)
+     */
+    private CompletableFuture<NLPResponse> doParseTransaction(String text, String userId, String timezone, String locale,
+                                                              BiConsumer<String, Object> events) {
+        Map<String, Object> context;
         try {
-            // Load context for user
-            Map<String, Object> context = buildContext(userId);
+            // Load context for user (cached per user, invalidated on writes)
+            context = nlpContextCache.getOrLoad(userId, this::buildContext);
             
-            // Call Gemini to parse text
-            Map<String, Object> geminiResponse = geminiService.parseText(
-                request.getText(),
-                context,
-                request.getTimezone() != null ? request.getTimezone() : "Asia/Ho_Chi_Minh",
-                request.getLocale() != null ? request.getLocale() : "vi-VN"
-            );
-            
-            // Process Gemini response and build NLPResponse
-            return processGeminiResponse(geminiResponse, userId, context);
+            // Câu đơn giản ("ăn bún 50k") → parse local, không cần gọi Gemini
+            Optional<Map<String, Object>> fastPath = nlpStageMetrics.time("fastPath", () ->
+                    nlpFastPathParser.tryParse(text, context, timezone,
+                            input -> nlpCategorySuggester.categoryMatch(userId, input)));
+            if (fastPath.isPresent()) {
+                NLPResponse response = processGeminiResponse(fastPath.get(), userId, context);
+                return CompletableFuture.completedFuture(
+                        attachSession(response, fastPath.get(), text, userId, timezone, locale, null));
+            }
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(buildParseErrorResponse(e));
+        }
+        
+        // Hết token budget trong ngày → không gọi Gemini
+        if (!nlpUsageMeter.hasBudget(userId)) {
+            return CompletableFuture.completedFuture(buildQuotaExceededResponse());
+        }
+        
+        // Call Gemini to parse text, then build NLPResponse from its response
+        CompletableFuture<Map<String, Object>> geminiCall;
+        StreamProgress progress = null;
+        if (events == null) {
+            geminiCall = geminiService.parseTextAsync(userId, text, context, timezone, locale);
+        } else {
+            StreamProgress streamProgress = new StreamProgress();
+            geminiCall = geminiService.streamTextAsync(userId, text, context, timezone, locale,
+                    partial -> streamProgress.emit(() -> emitPartial(partial, context, streamProgress, events),
+                            nlpExecutor));
+            progress = streamProgress;
+        }
+        CompletableFuture<NLPResponse> result = geminiCall
+            .thenApplyAsync(geminiResponse -> attachSession(processGeminiResponse(geminiResponse, userId, context),
+                    geminiResponse, text, userId, timezone, locale, null), nlpExecutor)
+            .exceptionally(error -> buildParseErrorResponse(GeminiService.unwrap(error)));
+        if (progress == null) {
+            return result;
+        }
+        // Kết quả cuối hoàn thành sau mọi event từng phần, trên NLPExecutor
+        StreamProgress finalProgress = progress;
+        return result.thenComposeAsync(response -> finalProgress.emitted.thenApply(ignored -> response), nlpExecutor);
+    }
+    
+    /**
+     * Intent / entities đã đẩy ra của một stream
+     * Partial đến tuần tự trên cùng một subscriber, được nối thành chuỗi task trên NLPExecutor nên vẫn tuần tự.
+     */
+    private static final class StreamProgress {
+        private String intent;
+        private Map<String, Object> entities;
+        private volatile CompletableFuture<Void> emitted = CompletableFuture.completedFuture(null);
+        
+        void emit(Runnable task, Executor executor) {
+            emitted = emitted.thenRunAsync(task, executor)
+                    .exceptionally(error -> {
+                        log.debug("Dropping NLP stream partial: {}", error.getMessage());
+                        return null;
+                    });
+        }
+    }
+    
+    /**
+     * Emit intent (một lần) và entities từng phần khi chúng thay đổi
+     */
+    @SuppressWarnings("unchecked")
+    private void emitPartial(Map<String, Object> partial, Map<String, Object> context, StreamProgress progress,
+                             BiConsumer<String, Object> events) {
+        if (progress.intent == null && partial.get("intent") instanceof String intent
+                && Arrays.stream(NLPResponse.Intent.values()).anyMatch(value -> value.name().equals(intent))) {
+            progress.intent = intent;
+            Map<String, Object> data = new HashMap<>();
+            data.put("intent", intent);
+            data.put("confidence", getDoubleValue(partial.get("confidence")));
+            events.accept("intent", data);
+        }
+        if (progress.intent == null || !(partial.get("entities") instanceof Map<?, ?> entities) || entities.isEmpty()) {
+            return;
+        }
+        Map<String, Object> view = new LinkedHashMap<>();
+        ((Map<String, Object>) entities).forEach((field, value) -> {
+            switch (field) {
+                case "accountMatch" -> putMatch(view, "account", value, context.get("accounts"), "name");
+                case "categoryMatch" -> putMatch(view, "category", value, context.get("categories"), "name");
+                case "receivableMatch" -> putMatch(view, "receivable", value, context.get("openReceivables"), "counterpartyName");
+                case "liabilityMatch" -> putMatch(view, "liability", value, context.get("openLiabilities"), "counterpartyName");
+                default -> view.put(field, value);
+            }
+        });
+        if (!view.equals(progress.entities)) {
+            progress.entities = view;
+            events.accept("entities", view);
+        }
+    }
+    
+    /**
+     * match {id} → {prefix}Id + {prefix}Name (tên lấy từ context, bỏ qua id không có trong context)
+     */
+    @SuppressWarnings("unchecked")
+    private void putMatch(Map<String, Object> view, String prefix, Object match, Object items, String nameKey) {
+        if (!(match instanceof Map<?, ?> matchMap) || !(matchMap.get("id") instanceof String id) || !(items instanceof List)) {
+            return;
+        }
+        for (Map<String, Object> item : (List<Map<String, Object>>) items) {
+            if (id.equals(item.get("id"))) {
+                view.put(prefix + "Id", id);
+                view.put(prefix + "Name", item.get(nameKey));
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Apply a follow-up answer to a stored session
+     * 
+     * - Câu trả lời là một lệnh mới hoàn chỉnh (fast path parse được) → bỏ session, xử lý lệnh mới
+     * - Resolve được ít nhất 1 field còn thiếu (số tiền, account, category, công nợ, người) → build lại
+     *   draft từ entities đã lưu, không gọi Gemini
+     * - Còn lại → parse lại (text gốc + câu trả lời) như client vẫn làm trước đây
+     */
+    private CompletableFuture<NLPResponse> continueSession(NLPSession session, String answer, String userId) {
+        String timezone = session.getTimezone();
+        String locale = session.getLocale();
+        try {
+            Map<String, Object> context = nlpContextCache.getOrLoad(userId, this::buildContext);
+            Optional<Map<String, Object>> fastPath = nlpFastPathParser.tryParse(answer, context, timezone,
+                    input -> nlpCategorySuggester.categoryMatch(userId, input));
+            if (fastPath.isPresent()) {
+                nlpSessionStore.remove(session.getId());
+                NLPResponse response = processGeminiResponse(fastPath.get(), userId, context);
+                return CompletableFuture.completedFuture(
+                        attachSession(response, fastPath.get(), answer, userId, timezone, locale, null));
+            }
             
-        } catch (IllegalStateException e) {
-            log.error("Gemini API not configured", e);
-            return buildErrorResponse("API_NOT_CONFIGURED", "Tính năng AI chưa được cấu hình. Vui lòng liên hệ admin.", null);
-        } catch (RuntimeException e) {
-            String errorMessage = e.getMessage();
-            if (errorMessage != null && errorMessage.contains("429")) {
-                log.error("Gemini API rate limit exceeded", e);
-                return buildErrorResponse("RATE_LIMIT_EXCEEDED", "Đã vượt quá giới hạn sử dụng. Vui lòng thử lại sau vài giây.", "API quota exceeded");
-            } else if (errorMessage != null && errorMessage.contains("quota")) {
-                log.error("Gemini API quota exceeded", e);
-                return buildErrorResponse("QUOTA_EXCEEDED", "Đã hết quota sử dụng. Vui lòng thử lại sau.", "API quota exceeded");
-            } else {
-                log.error("Error parsing transaction text", e);
-                return buildErrorResponse("PARSE_ERROR", "Không thể phân tích lệnh. Vui lòng thử lại.", null);
+            Map<String, Object> entities = resolveAnswer(session, answer, context);
+            if (entities != null) {
+                Map<String, Object> parsed = new HashMap<>();
+                parsed.put("intent", session.getIntent());
+                parsed.put("confidence", session.getConfidence());
+                parsed.put("entities", entities);
+                NLPResponse response = processGeminiResponse(parsed, userId, context);
+                return CompletableFuture.completedFuture(
+                        attachSession(response, parsed, session.getText(), userId, timezone, locale, session.getId()));
             }
         } catch (Exception e) {
-            log.error("Unexpected error parsing transaction text", e);
-            return buildErrorResponse("UNKNOWN_ERROR", "Đã xảy ra lỗi không xác định. Vui lòng thử lại.", null);
+            return CompletableFuture.completedFuture(buildParseErrorResponse(e));
         }
+        
+        nlpSessionStore.remove(session.getId());
+        String combined = session.getText() + " " + answer;
+        String key = nlpRequestCoalescer.key(userId, combined, timezone, locale);
+        return nlpRequestCoalescer.execute(key, () -> doParseTransaction(combined, userId, timezone, locale, null));
+    }
+    
+    /**
+     * Fill pending fields of the session from the answer
+     * 
+     * @return Entities mới, null nếu câu trả lời không resolve được field nào
+     */
+    private Map<String, Object> resolveAnswer(NLPSession session, String answer, Map<String, Object> context) {
+        Map<String, Object> entities = new HashMap<>(session.getEntities() != null ? session.getEntities() : Map.of());
+        List<String> pendingFields = session.getPendingFields() != null ? session.getPendingFields() : List.of();
+        boolean resolved = false;
+        for (String field : pendingFields) {
+            Optional<?> value = switch (field) {
+                case "amount", "targetBalance" -> nlpFastPathParser.extractAmount(answer);
+                case "categoryId" -> nlpFastPathParser.matchCategoryId(answer, context);
+                case "accountId", "fromAccountId" -> nlpFastPathParser.matchAccountId(answer, context);
+                case "receivableId" -> nlpFastPathParser.matchNameId(answer, context.get("openReceivables"), "counterpartyName");
+                case "liabilityId" -> nlpFastPathParser.matchNameId(answer, context.get("openLiabilities"), "counterpartyName");
+                default -> Optional.empty();
+            };
+            if (value.isEmpty()) {
+                continue;
+            }
+            // User trả lời trực tiếp → confidence tuyệt đối
+            switch (field) {
+                case "amount", "targetBalance" -> entities.put(field, value.get());
+                case "categoryId" -> entities.put("categoryMatch", Map.of("id", value.get(), "confidence", 1.0));
+                case "accountId", "fromAccountId" -> entities.put("accountMatch", Map.of("id", value.get(), "confidence", 1.0));
+                case "receivableId" -> entities.put("receivableMatch", Map.of("id", value.get(), "confidence", 1.0));
+                case "liabilityId" -> entities.put("liabilityMatch", Map.of("id", value.get(), "confidence", 1.0));
+                default -> { }
+            }
+            resolved = true;
+        }
+        if (!resolved && pendingFields.contains("counterpartyName") && answer != null && !answer.isBlank()) {
+            entities.put("counterparty", answer.trim());
+            resolved = true;
+        }
+        return resolved ? entities : null;
+    }
+    
+    /**
+     * Keep the parse result in a session while the draft still has fields to confirm
+     * 
+     * @param sessionId Session đang tiếp tục (null = tạo mới)
+     */
+    @SuppressWarnings("unchecked")
+    private NLPResponse attachSession(NLPResponse response, Map<String, Object> parsed, String text, String userId,
+                                      String timezone, String locale, String sessionId) {
+        List<String> pendingFields = response.getData() instanceof ConfirmDraftData draft
+                && draft.getNeedConfirmFields() != null ? draft.getNeedConfirmFields() : List.of();
+        if (pendingFields.isEmpty()) {
+            if (sessionId != null) {
+                nlpSessionStore.remove(sessionId);
+            }
+            return response;
+        }
+        Object entities = parsed.get("entities");
+        NLPSession session = nlpSessionStore.save(NLPSession.builder()
+                .id(sessionId)
+                .userId(userId)
+                .text(text)
+                .intent(String.valueOf(parsed.getOrDefault("intent", "UNKNOWN")))
+                .confidence(getDoubleValue(parsed.get("confidence")))
+                .entities(entities instanceof Map ? new HashMap<>((Map<String, Object>) entities) : new HashMap<>())
+                .pendingFields(new ArrayList<>(pendingFields))
+                .timezone(timezone)
+                .locale(locale)
+                .build());
+        response.setSessionId(session.getId());
+        return response;
+    }
+    
+    /**
+     * Parse many lines (vd. cả ngày chi tiêu dán vào) with a single Gemini call
+     * 
+     * Dòng đơn giản đi fast path; các dòng còn lại gửi chung 1 prompt, Gemini trả JSON array.
+     * 
+     * @return Danh sách NLPResponse cùng thứ tự với request.lines
+     */
+    public CompletableFuture<List<NLPResponse>> parseTransactionBatch(ParseTransactionBatchRequest request, String userId) {
+        List<String> lines = request.getLines();
+        String timezone = request.getTimezone() != null ? request.getTimezone() : "Asia/Ho_Chi_Minh";
+        NLPResponse[] responses = new NLPResponse[lines.size()];
+        List<Integer> geminiIndexes = new ArrayList<>();
+        Map<String, Object> context;
+        try {
+            context = nlpContextCache.getOrLoad(userId, this::buildContext);
+            for (int i = 0; i < lines.size(); i++) {
+                Optional<Map<String, Object>> fastPath = nlpFastPathParser.tryParse(lines.get(i), context, timezone,
+                        input -> nlpCategorySuggester.categoryMatch(userId, input));
+                if (fastPath.isPresent()) {
+                    responses[i] = processParsedLine(fastPath.get(), userId, context);
+                } else {
+                    geminiIndexes.add(i);
+                }
+            }
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture(Collections.nCopies(lines.size(), buildParseErrorResponse(e)));
+        }
+        if (geminiIndexes.isEmpty()) {
+            return CompletableFuture.completedFuture(Arrays.asList(responses));
+        }
+        
+        if (!nlpUsageMeter.hasBudget(userId)) {
+            NLPResponse quotaResponse = buildQuotaExceededResponse();
+            geminiIndexes.forEach(index -> responses[index] = quotaResponse);
+            return CompletableFuture.completedFuture(Arrays.asList(responses));
+        }
+        
+        List<String> geminiLines = geminiIndexes.stream().map(lines::get).collect(Collectors.toList());
+        log.debug("Batch parse for user {}: {} lines, {} sent to Gemini", userId, lines.size(), geminiLines.size());
+        return geminiService.parseBatchAsync(
+                userId,
+                geminiLines,
+                context,
+                timezone,
+                request.getLocale() != null ? request.getLocale() : "vi-VN"
+            )
+            .thenApplyAsync(results -> {
+                for (int j = 0; j < geminiIndexes.size(); j++) {
+                    responses[geminiIndexes.get(j)] = j < results.size()
+                            ? processParsedLine(results.get(j), userId, context)
+                            : buildErrorResponse("PARSE_ERROR", "Không thể phân tích lệnh. Vui lòng thử lại.", null);
+                }
+                return Arrays.asList(responses);
+            }, nlpExecutor)
+            .exceptionally(error -> {
+                NLPResponse errorResponse = buildParseErrorResponse(GeminiService.unwrap(error));
+                geminiIndexes.forEach(index -> responses[index] = errorResponse);
+                return Arrays.asList(responses);
+            });
+    }
+    
+    /**
+     * Lỗi ở 1 dòng không làm hỏng cả batch
+     */
+    private NLPResponse processParsedLine(Map<String, Object> parsed, String userId, Map<String, Object> context) {
+        try {
+            return processGeminiResponse(parsed, userId, context);
+        } catch (Exception e) {
+            return buildParseErrorResponse(e);
+        }
+    }
+
+    private NLPResponse buildQuotaExceededResponse() {
+        return buildErrorResponse("AI_QUOTA_EXCEEDED", "Bạn đã dùng hết hạn mức AI hôm nay. Vui lòng thử lại vào ngày mai.",
+                "Daily token budget exceeded");
+    }
+
+    /**
+     * Map errors from parsing (Gemini call, response processing) to an error NLPResponse
+     */
+    private NLPResponse buildParseErrorResponse(Throwable e) {
+        // Bị chặn trước khi gọi network (chưa cấu hình / circuit open / bulkhead đầy)
+        if (e instanceof GeminiService.GeminiUnavailableException unavailable) {
+            log.warn("Gemini call rejected: {}", unavailable.getMessage());
+            if ("API_NOT_CONFIGURED".equals(unavailable.getErrorCode())) {
+                return buildErrorResponse("API_NOT_CONFIGURED", "Tính năng AI chưa được cấu hình. Vui lòng liên hệ admin.", null);
+            }
+            return buildErrorResponse("RATE_LIMIT_EXCEEDED", "Đã vượt quá giới hạn sử dụng. Vui lòng thử lại sau vài giây.", "AI service temporarily unavailable");
+        }
+        
+        GeminiService.GeminiApiException apiError = findCause(e, GeminiService.GeminiApiException.class);
+        if (apiError != null && apiError.getStatusCode() == 429) {
+            log.error("Gemini API rate limit exceeded", e);
+            return buildErrorResponse("RATE_LIMIT_EXCEEDED", "Đã vượt quá giới hạn sử dụng. Vui lòng thử lại sau vài giây.", "API quota exceeded");
+        }
+        if (apiError != null && apiError.getMessage().contains("quota")) {
+            log.error("Gemini API quota exceeded", e);
+            return buildErrorResponse("QUOTA_EXCEEDED", "Đã hết quota sử dụng. Vui lòng thử lại sau.", "API quota exceeded");
+        }
+        if (e instanceof RuntimeException) {
+            log.error("Error parsing transaction text", e);
+            return buildErrorResponse("PARSE_ERROR", "Không thể phân tích lệnh. Vui lòng thử lại.", null);
+        }
+        log.error("Unexpected error parsing transaction text", e);
+        return buildErrorResponse("UNKNOWN_ERROR", "Đã xảy ra lỗi không xác định. Vui lòng thử lại.", null);
+    }
+    
+    private <T extends Throwable> T findCause(Throwable error, Class<T> type) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return type.cast(cause);
+            }
+        }
+        return null;
     }
     
     /**
      * Build context data for Gemini prompt
      */
     private Map<String, Object> buildContext(String userId) {
+        long startNanos = System.nanoTime();
         Map<String, Object> context = new HashMap<>();
         
         // Load accounts
@@ -159,14 +525,53 @@ public class NLPService {
             .collect(Collectors.toList());
         context.put("openLiabilities", liabilityList);
         
-        return context;
+        nlpStageMetrics.record("buildContext", startNanos);
+        // Context được cache và dùng chung giữa các request nên không cho phép sửa
+        return Collections.unmodifiableMap(context);
     }
     
     /**
      * Process Gemini response and build NLPResponse
+     * Draft đã đủ field được lưu lại (NLPDraftStore) và trả kèm draftToken để commit trong một bước.
      */
-    @SuppressWarnings("unchecked")
     private NLPResponse processGeminiResponse(Map<String, Object> geminiResponse, String userId, Map<String, Object> context) {
+        NLPResponse response = buildIntentResponse(geminiResponse, userId, context);
+        if (response.getData() instanceof ConfirmDraftData draft
+                && (draft.getNeedConfirmFields() == null || draft.getNeedConfirmFields().isEmpty())
+                && hasValidAmount(draft)) {
+            response.setDraftToken(nlpDraftStore.save(userId, draft));
+        }
+        return response;
+    }
+    
+    /**
+     * Amount > 0 (số dư mục tiêu >= 0): Gemini trả số 0/âm thì không cấp draftToken
+     */
+    private boolean hasValidAmount(ConfirmDraftData data) {
+        Object draft = data.getDraft();
+        BigDecimal amount;
+        if (draft instanceof ConfirmDraftData.TransactionDraft transaction) {
+            amount = transaction.getAmount();
+        } else if (draft instanceof ConfirmDraftData.ReceivableDraft receivable) {
+            amount = receivable.getAmount();
+        } else if (draft instanceof ConfirmDraftData.LiabilityDraft liability) {
+            amount = liability.getAmount();
+        } else if (draft instanceof ConfirmDraftData.SettlementDraft settlement) {
+            amount = settlement.getAmount();
+        } else if (draft instanceof ConfirmDraftData.BalanceAdjustmentDraft adjustment) {
+            return adjustment.getTargetBalance() != null && adjustment.getTargetBalance().signum() >= 0;
+        } else {
+            return false;
+        }
+        return amount != null && amount.signum() > 0;
+    }
+    
+    /**
+     * Build the response of the parsed intent (draft / query result / error)
+     */
+    @SuppressWarnings("unchecked")
+    private NLPResponse buildIntentResponse(Map<String, Object> geminiResponse, String userId, Map<String, Object> context) {
+        long startNanos = System.nanoTime();
         String intentStr = (String) geminiResponse.getOrDefault("intent", "UNKNOWN");
         Double confidence = getDoubleValue(geminiResponse.get("confidence"));
         if (confidence == null) confidence = 0.5;
@@ -180,22 +585,26 @@ public class NLPService {
         
         Map<String, Object> entities = (Map<String, Object>) geminiResponse.getOrDefault("entities", new HashMap<>());
         
-        // Handle different intents
-        switch (intent) {
-            case CREATE_TRANSACTION:
-                return buildTransactionDraftResponse(entities, userId, context, confidence);
-            case CREATE_RECEIVABLE:
-                return buildReceivableDraftResponse(entities, userId, confidence);
-            case CREATE_LIABILITY:
-                return buildLiabilityDraftResponse(entities, userId, confidence);
-            case CREATE_SETTLEMENT:
-                return buildSettlementDraftResponse(entities, userId, context, confidence);
-            case ADJUST_BALANCE:
-                return buildBalanceAdjustmentDraftResponse(entities, userId, confidence);
-            case QUERY_DATA:
-                return buildQueryResponse(entities, userId, confidence);
-            default:
-                return buildErrorResponse("UNKNOWN_INTENT", "Không hiểu lệnh. Vui lòng thử lại với cú pháp khác.", null);
+        try {
+            // Handle different intents
+            switch (intent) {
+                case CREATE_TRANSACTION:
+                    return buildTransactionDraftResponse(entities, userId, context, confidence);
+                case CREATE_RECEIVABLE:
+                    return buildReceivableDraftResponse(entities, userId, confidence);
+                case CREATE_LIABILITY:
+                    return buildLiabilityDraftResponse(entities, userId, confidence);
+                case CREATE_SETTLEMENT:
+                    return buildSettlementDraftResponse(entities, userId, context, confidence);
+                case ADJUST_BALANCE:
+                    return buildBalanceAdjustmentDraftResponse(entities, userId, confidence);
+                case QUERY_DATA:
+                    return buildQueryResponse(entities, userId, context, confidence);
+                default:
+                    return buildErrorResponse("UNKNOWN_INTENT", "Không hiểu lệnh. Vui lòng thử lại với cú pháp khác.", null);
+            }
+        } finally {
+            nlpStageMetrics.record("buildDraft", startNanos);
         }
     }
     
@@ -211,6 +620,9 @@ public class NLPService {
         List<String> needConfirmFields = new ArrayList<>();
         List<ConfirmDraftData.AutoFilledField> autoFilledFields = new ArrayList<>();
         
+        // Thói quen của user (học từ lịch sử) điền/xếp lại category và account khi Gemini không chắc
+        NLPCategorySuggester.Suggestion suggestion = nlpCategorySuggester.suggest(userId, (String) entities.get("note"));
+        
         // Amount
         BigDecimal amount = getBigDecimalValue(entities.get("amount"));
         if (amount != null) {
@@ -234,7 +646,8 @@ public class NLPService {
         }
         
         // Category
-        Map<String, Object> categoryMatch = (Map<String, Object>) entities.get("categoryMatch");
+        Map<String, Object> categoryMatch = nlpCategorySuggester.rerank("categoryId",
+            (Map<String, Object>) entities.get("categoryMatch"), suggestion.category());
         if (categoryMatch != null) {
             String categoryId = (String) categoryMatch.get("id");
             Double catConfidence = getDoubleValue(categoryMatch.get("confidence"));
@@ -259,7 +672,8 @@ public class NLPService {
         }
         
         // Account
-        Map<String, Object> accountMatch = (Map<String, Object>) entities.get("accountMatch");
+        Map<String, Object> accountMatch = nlpCategorySuggester.rerank("accountId",
+            (Map<String, Object>) entities.get("accountMatch"), suggestion.account());
         if (accountMatch != null) {
             String accountId = (String) accountMatch.get("id");
             Double accConfidence = getDoubleValue(accountMatch.get("confidence"));
@@ -943,9 +1357,100 @@ public class NLPService {
     /**
      * Build query response (simplified for Phase 1)
      */
-    private NLPResponse buildQueryResponse(Map<String, Object> entities, String userId, Double confidence) {
-        // TODO: Implement in Phase 3
-        return buildErrorResponse("NOT_IMPLEMENTED", "Tính năng truy vấn chưa được hỗ trợ trong Phase 1", null);
+    @SuppressWarnings("unchecked")
+    private NLPResponse buildQueryResponse(Map<String, Object> entities, String userId,
+                                           Map<String, Object> context, Double confidence) {
+        Map<String, Object> query = entities.get("query") instanceof Map
+                ? (Map<String, Object>) entities.get("query")
+                : new HashMap<>();
+        
+        NLPQueryService.Metric metric = parseEnum(NLPQueryService.Metric.class, query.get("metric"), NLPQueryService.Metric.EXPENSE);
+        NLPQueryService.GroupBy groupBy = parseEnum(NLPQueryService.GroupBy.class, query.get("groupBy"), NLPQueryService.GroupBy.NONE);
+        
+        // Khoảng ngày [from, to) theo giờ VN
+        LocalDate today = LocalDate.now(VN_TIMEZONE);
+        String period = query.get("period") != null ? query.get("period").toString() : "THIS_MONTH";
+        String periodLabel;
+        LocalDate from;
+        LocalDate to;
+        switch (period) {
+            case "TODAY" -> { periodLabel = "Hôm nay"; from = today; to = today.plusDays(1); }
+            case "YESTERDAY" -> { periodLabel = "Hôm qua"; from = today.minusDays(1); to = today; }
+            case "THIS_WEEK" -> { periodLabel = "Tuần này"; from = today.with(DayOfWeek.MONDAY); to = today.plusDays(1); }
+            case "LAST_WEEK" -> { periodLabel = "Tuần trước"; to = today.with(DayOfWeek.MONDAY); from = to.minusWeeks(1); }
+            case "LAST_MONTH" -> { periodLabel = "Tháng trước"; to = today.withDayOfMonth(1); from = to.minusMonths(1); }
+            case "THIS_YEAR" -> { periodLabel = "Năm nay"; from = today.withDayOfYear(1); to = today.plusDays(1); }
+            case "CUSTOM" -> {
+                periodLabel = null;
+                LocalDate start = parseQueryDate(query.get("startDate"));
+                LocalDate end = parseQueryDate(query.get("endDate"));
+                if (start == null) {
+                    return buildErrorResponse("INVALID_QUERY", "Không xác định được khoảng thời gian. Vui lòng thử lại.", null);
+                }
+                from = start;
+                to = (end != null ? end : today).plusDays(1);
+                if (!from.isBefore(to)) {
+                    return buildErrorResponse("INVALID_QUERY", "Khoảng thời gian không hợp lệ.", null);
+                }
+            }
+            default -> { periodLabel = "Tháng này"; from = today.withDayOfMonth(1); to = today.plusDays(1); }
+        }
+        
+        // Chỉ lọc theo category/account có trong context của user
+        Map<String, String> names = new HashMap<>();
+        ((List<Map<String, Object>>) context.getOrDefault("categories", List.of()))
+                .forEach(category -> names.put((String) category.get("id"), (String) category.get("name")));
+        ((List<Map<String, Object>>) context.getOrDefault("accounts", List.of()))
+                .forEach(account -> names.put((String) account.get("id"), (String) account.get("name")));
+        String categoryId = matchedId(entities.get("categoryMatch"), names);
+        String accountId = matchedId(entities.get("accountMatch"), names);
+        
+        NLPQueryService.QuerySpec spec = new NLPQueryService.QuerySpec(
+                metric, periodLabel, from, to, categoryId, accountId, groupBy);
+        QueryResultData result = nlpQueryService.execute(userId, spec, names);
+        
+        return NLPResponse.builder()
+            .responseType(NLPResponse.ResponseType.QUERY_RESULT)
+            .intent(NLPResponse.Intent.QUERY_DATA)
+            .confidence(confidence)
+            .message(result.getSummary())
+            .data(result)
+            .build();
+    }
+    
+    /**
+     * Parse "YYYY-MM-DD" (hoặc các format của parseDate)
+     */
+    private LocalDate parseQueryDate(Object value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(value.toString());
+        } catch (Exception e) {
+            LocalDateTime dateTime = parseDate(value.toString());
+            return dateTime != null ? dateTime.toLocalDate() : null;
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private String matchedId(Object match, Map<String, String> knownIds) {
+        if (!(match instanceof Map)) {
+            return null;
+        }
+        Object id = ((Map<String, Object>) match).get("id");
+        return id != null && knownIds.containsKey(id.toString()) ? id.toString() : null;
+    }
+    
+    private <E extends Enum<E>> E parseEnum(Class<E> type, Object value, E defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(type, value.toString().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return defaultValue;
+        }
     }
     
     /**
@@ -0,0 +1,108 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TtlCache;
+import com.portfolio.wallet.model.NLPSession;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Short-lived store of multi-turn NLP sessions
+ *
+ * In-memory (bounded, TTL, LRU) là nguồn chính. Bật nlp.session.mongo-spill thì session được
+ * ghi thêm vào collection nlp_sessions, nên session bị đẩy khỏi memory (LRU) hoặc nằm ở instance
+ * khác vẫn đọc lại được cho tới khi hết TTL.
+ *
+ * Metric: nlp.session.lookups{outcome=hit|spill_hit|miss}
+ */
+@Slf4j
+@Service
+public class NLPSessionStore {
+
+    private final TtlCache<String, NLPSession> sessions;
+    private final Duration ttl;
+    private final boolean mongoSpill;
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+
+    public NLPSessionStore(
+            @Value("${nlp.session.max-size:5000}") int maxSize,
+            @Value("${nlp.session.ttl:PT10M}") Duration ttl,
+            @Value("${nlp.session.mongo-spill:false}") boolean mongoSpill,
+            MongoTemplate mongoTemplate,
+            MeterRegistry meterRegistry) {
+        this.sessions = new TtlCache<>(maxSize, ttl);
+        this.ttl = ttl;
+        this.mongoSpill = mongoSpill;
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Save a session (id null → tạo session mới), gia hạn TTL
+     */
+    public NLPSession save(NLPSession session) {
+        if (session.getId() == null) {
+            session.setId(UUID.randomUUID().toString());
+        }
+        session.setExpiresAt(LocalDateTime.now().plus(ttl));
+        sessions.put(session.getId(), session);
+        if (mongoSpill) {
+            try {
+                mongoTemplate.save(session);
+            } catch (DataAccessException e) {
+                // Memory vẫn giữ session, chỉ mất khả năng đọc lại từ instance khác
+                log.warn("Failed to spill NLP session {} to Mongo", session.getId(), e);
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Find an active session of the user
+     */
+    public Optional<NLPSession> find(String sessionId, String userId) {
+        NLPSession session = sessions.get(sessionId);
+        String outcome = "hit";
+        if (session == null && mongoSpill) {
+            try {
+                session = mongoTemplate.findById(sessionId, NLPSession.class);
+            } catch (DataAccessException e) {
+                log.warn("Failed to read NLP session {} from Mongo", sessionId, e);
+            }
+            if (session != null && session.getExpiresAt() != null && session.getExpiresAt().isAfter(LocalDateTime.now())) {
+                sessions.put(sessionId, session);
+                outcome = "spill_hit";
+            } else {
+                session = null;
+            }
+        }
+        if (session == null || !userId.equals(session.getUserId())) {
+            meterRegistry.counter("nlp.session.lookups", "outcome", "miss").increment();
+            return Optional.empty();
+        }
+        meterRegistry.counter("nlp.session.lookups", "outcome", outcome).increment();
+        return Optional.of(session);
+    }
+
+    public void remove(String sessionId) {
+        sessions.invalidate(sessionId);
+        if (mongoSpill) {
+            try {
+                mongoTemplate.remove(new Query(Criteria.where("_id").is(sessionId)), NLPSession.class);
+            } catch (DataAccessException e) {
+                log.warn("Failed to remove NLP session {} from Mongo", sessionId, e);
+            }
+        }
+    }
+}
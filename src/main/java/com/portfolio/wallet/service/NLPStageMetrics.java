@@ -0,0 +1,49 @@
+package com.portfolio.wallet.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Per-stage timings of the NLP pipeline
+ *
+ * Stage: buildContext, fastPath, buildPrompt, http (gồm retry), parseResponse, buildDraft.
+ * Timer có percentiles (p50/p95/p99) nên dashboard và NLPBenchmarkRunner đọc trực tiếp được.
+ * Metric: nlp.stage.duration{stage}
+ */
+@Component
+@RequiredArgsConstructor
+public class NLPStageMetrics {
+
+    public static final String METRIC = "nlp.stage.duration";
+
+    private final MeterRegistry meterRegistry;
+
+    public void record(String stage, long startNanos) {
+        timer(stage).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Run and time a stage (ghi cả khi stage throw)
+     */
+    public <T> T time(String stage, Supplier<T> call) {
+        long startNanos = System.nanoTime();
+        try {
+            return call.get();
+        } finally {
+            record(stage, startNanos);
+        }
+    }
+
+    private Timer timer(String stage) {
+        return Timer.builder(METRIC)
+                .description("NLP pipeline stage duration")
+                .tag("stage", stage)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,244 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TtlCache;
+import com.portfolio.wallet.model.NLPUsage;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-user metering of Gemini calls and daily token budgets
+ *
+ * - record(): cộng dồn call / token / ký tự prompt-response / latency trong memory theo (user, ngày)
+ * - Flush định kỳ (nlp.usage.flush-interval) bằng $inc vào nlp_usage, tổng sau flush được dùng lại
+ *   cho budget nên usage từ instance khác cũng được tính (trễ tối đa một chu kỳ flush)
+ * - hasBudget(): tổng token trong ngày < nlp.usage.daily-token-budget (0 = không giới hạn).
+ *   Kiểm tra trước khi gọi Gemini nên call đang chạy song song có thể vượt budget một chút.
+ *   Mongo lỗi thì cho qua (fail open), không chặn user vì lỗi metering.
+ *
+ * Metric: nlp.usage.budget.rejections
+ */
+@Slf4j
+@Service
+public class NLPUsageMeter {
+
+    private static final ZoneId VN_TIMEZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+
+    private final long dailyTokenBudget;
+    private final Duration flushInterval;
+    private final MongoTemplate mongoTemplate;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * userId:date → usage chưa flush (chỉ sửa trong compute/merge của map)
+     */
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+
+    /**
+     * userId:date → tổng token trong ngày (đã flush + chưa flush)
+     */
+    private final TtlCache<String, AtomicLong> dailyTokens;
+    private ScheduledExecutorService scheduler;
+
+    public NLPUsageMeter(
+            @Value("${nlp.usage.daily-token-budget:200000}") long dailyTokenBudget,
+            @Value("${nlp.usage.flush-interval:PT30S}") Duration flushInterval,
+            @Value("${nlp.usage.max-users:10000}") int maxUsers,
+            MongoTemplate mongoTemplate,
+            MeterRegistry meterRegistry) {
+        this.dailyTokenBudget = dailyTokenBudget;
+        this.flushInterval = flushInterval;
+        this.dailyTokens = new TtlCache<>(maxUsers, Duration.ofDays(1));
+        this.mongoTemplate = mongoTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void start() {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "nlp-usage-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMs = flushInterval.toMillis();
+        scheduler.scheduleWithFixedDelay(this::flushSafely, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        scheduler.shutdown();
+        flushSafely();
+    }
+
+    /**
+     * Record one upstream call of a user
+     */
+    public void record(String userId, long promptTokens, long outputTokens, int promptChars, int responseChars,
+                       long latencyNanos) {
+        if (userId == null) {
+            return;
+        }
+        String date = LocalDate.now(VN_TIMEZONE).toString();
+        String key = key(userId, date);
+        pending.compute(key, (k, current) -> {
+            Pending next = current != null ? current : new Pending(userId, date);
+            next.calls++;
+            next.promptTokens += promptTokens;
+            next.outputTokens += outputTokens;
+            next.promptChars += promptChars;
+            next.responseChars += responseChars;
+            next.latencyMs += TimeUnit.NANOSECONDS.toMillis(latencyNanos);
+            return next;
+        });
+        AtomicLong used = dailyTokens.get(key);
+        if (used != null) {
+            used.addAndGet(promptTokens + outputTokens);
+        }
+    }
+
+    /**
+     * User còn token budget hôm nay
+     */
+    public boolean hasBudget(String userId) {
+        if (dailyTokenBudget <= 0 || userId == null) {
+            return true;
+        }
+        long used;
+        try {
+            used = usedToday(userId);
+        } catch (DataAccessException e) {
+            log.warn("Failed to read AI usage of user {}, allowing call", userId, e);
+            return true;
+        }
+        if (used < dailyTokenBudget) {
+            return true;
+        }
+        meterRegistry.counter("nlp.usage.budget.rejections").increment();
+        log.info("User {} exceeded daily AI token budget ({} / {})", userId, used, dailyTokenBudget);
+        return false;
+    }
+
+    public long usedToday(String userId) {
+        return dailyTokens.getOrLoad(key(userId, LocalDate.now(VN_TIMEZONE).toString()), this::loadUsed).get();
+    }
+
+    /**
+     * Top users by tokens of a day (flush trước để gồm cả usage chưa ghi)
+     */
+    public List<NLPUsage> topConsumers(LocalDate date, int limit) {
+        flushSafely();
+        Query query = new Query(Criteria.where("date").is(date.toString()))
+                .with(Sort.by(Sort.Direction.DESC, "totalTokens"))
+                .limit(limit);
+        return mongoTemplate.find(query, NLPUsage.class);
+    }
+
+    /**
+     * Write pending usage to Mongo; lỗi thì trả lại vào pending để lần sau flush tiếp
+     */
+    public void flush() {
+        for (String key : new ArrayList<>(pending.keySet())) {
+            Pending usage = pending.remove(key);
+            if (usage == null) {
+                continue;
+            }
+            Update update = new Update()
+                    .setOnInsert("userId", usage.userId)
+                    .setOnInsert("date", usage.date)
+                    .inc("calls", usage.calls)
+                    .inc("promptTokens", usage.promptTokens)
+                    .inc("outputTokens", usage.outputTokens)
+                    .inc("totalTokens", usage.promptTokens + usage.outputTokens)
+                    .inc("promptChars", usage.promptChars)
+                    .inc("responseChars", usage.responseChars)
+                    .inc("totalLatencyMs", usage.latencyMs)
+                    .set("updatedAt", LocalDateTime.now());
+            NLPUsage saved;
+            try {
+                saved = mongoTemplate.findAndModify(new Query(Criteria.where("_id").is(key)), update,
+                        FindAndModifyOptions.options().upsert(true).returnNew(true), NLPUsage.class);
+            } catch (DataAccessException e) {
+                log.warn("Failed to flush AI usage {}, will retry", key, e);
+                pending.merge(key, usage, Pending::merge);
+                continue;
+            }
+            // Đồng bộ với tổng trong Mongo (gồm usage của các instance khác)
+            AtomicLong used = dailyTokens.get(key);
+            if (used != null && saved != null) {
+                used.set(saved.getTotalTokens() + unflushedTokens(key));
+            }
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("AI usage flush failed", e);
+        }
+    }
+
+    private AtomicLong loadUsed(String key) {
+        NLPUsage stored = mongoTemplate.findById(key, NLPUsage.class);
+        return new AtomicLong((stored != null ? stored.getTotalTokens() : 0) + unflushedTokens(key));
+    }
+
+    private long unflushedTokens(String key) {
+        Pending usage = pending.get(key);
+        return usage != null ? usage.promptTokens + usage.outputTokens : 0;
+    }
+
+    private static String key(String userId, String date) {
+        return userId + ":" + date;
+    }
+
+    private static final class Pending {
+
+        private final String userId;
+        private final String date;
+        private long calls;
+        private long promptTokens;
+        private long outputTokens;
+        private long promptChars;
+        private long responseChars;
+        private long latencyMs;
+
+        Pending(String userId, String date) {
+            this.userId = userId;
+            this.date = date;
+        }
+
+        Pending merge(Pending other) {
+            calls += other.calls;
+            promptTokens += other.promptTokens;
+            outputTokens += other.outputTokens;
+            promptChars += other.promptChars;
+            responseChars += other.responseChars;
+            latencyMs += other.latencyMs;
+            return this;
+        }
+    }
+}
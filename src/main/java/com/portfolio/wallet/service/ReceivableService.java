@@ -20,7 +20,9 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
@@ -33,15 +35,21 @@ public class ReceivableService {
     private final ReceivableRepository receivableRepository;
     private final AccountRepository accountRepository;
     private final TransactionService transactionService;
+    private final AccountBalanceService accountBalanceService;
+    private final NLPContextCache nlpContextCache;
     
     // Constructor với @Lazy để tránh circular dependency
     public ReceivableService(
             ReceivableRepository receivableRepository,
             AccountRepository accountRepository,
-            @Lazy TransactionService transactionService) {
+            @Lazy TransactionService transactionService,
+            AccountBalanceService accountBalanceService,
+            NLPContextCache nlpContextCache) {
         this.receivableRepository = receivableRepository;
         this.accountRepository = accountRepository;
         this.transactionService = transactionService;
+        this.accountBalanceService = accountBalanceService;
+        this.nlpContextCache = nlpContextCache;
     }
     
     /**
@@ -123,6 +131,7 @@ public class ReceivableService {
             // Update status before saving
             updateStatus(receivable);
             Receivable saved = receivableRepository.save(receivable);
+            accountBalanceService.applyChange(Collections.emptyMap(), accountBalanceService.contributionOf(saved));
             
             // Nếu có accountId, tự động tạo transaction EXPENSE để ghi nhận tiền cho vay (tiền đi ra)
             if (saved.getAccountId() != null && !saved.getAccountId().isEmpty()) {
@@ -148,6 +157,7 @@ public class ReceivableService {
                 }
             }
             
+            nlpContextCache.invalidate(userId);
             log.info("Receivable created successfully: {}", saved.getId());
             return ReceivableResponse.from(saved);
         } catch (Exception e) {
@@ -166,6 +176,9 @@ public class ReceivableService {
         Receivable receivable = receivableRepository.findByIdAndUserIdAndDeletedFalse(id, userId)
                 .orElseThrow(() -> new NotFoundException("Receivable not found"));
         
+        // Snapshot phần đóng góp vào số dư trước khi sửa
+        Map<String, BigDecimal> balanceBefore = accountBalanceService.contributionOf(receivable);
+        
         // Update fields if provided
         if (request.getCounterpartyName() != null) {
             receivable.setCounterpartyName(request.getCounterpartyName());
@@ -198,6 +211,8 @@ public class ReceivableService {
         // Update status before saving
         updateStatus(receivable);
         Receivable updated = receivableRepository.save(receivable);
+        accountBalanceService.applyChange(balanceBefore, accountBalanceService.contributionOf(updated));
+        nlpContextCache.invalidate(userId);
         log.info("Receivable updated successfully: {}", updated.getId());
         return ReceivableResponse.from(updated);
     }
@@ -212,9 +227,13 @@ public class ReceivableService {
         Receivable receivable = receivableRepository.findByIdAndUserIdAndDeletedFalse(id, userId)
                 .orElseThrow(() -> new NotFoundException("Receivable not found"));
         
+        Map<String, BigDecimal> balanceBefore = accountBalanceService.contributionOf(receivable);
+        
         // Soft delete
         receivable.setDeleted(true);
         receivableRepository.save(receivable);
+        accountBalanceService.applyChange(balanceBefore, accountBalanceService.contributionOf(receivable));
+        nlpContextCache.invalidate(userId);
         log.info("Receivable deleted successfully: {}", id);
     }
     
@@ -228,9 +247,12 @@ public class ReceivableService {
         Receivable receivable = receivableRepository.findById(receivableId)
                 .orElseThrow(() -> new NotFoundException("Receivable not found"));
         
+        Map<String, BigDecimal> balanceBefore = accountBalanceService.contributionOf(receivable);
         receivable.setPaidAmount(paidAmount);
         updateStatus(receivable);
         receivableRepository.save(receivable);
+        accountBalanceService.applyChange(balanceBefore, accountBalanceService.contributionOf(receivable));
+        nlpContextCache.invalidate(receivable.getUserId());
     }
     
     /**
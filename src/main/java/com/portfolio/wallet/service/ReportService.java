@@ -1,28 +1,21 @@
 package com.portfolio.wallet.service;
 
 import com.portfolio.wallet.dto.response.DashboardReportResponse;
-import com.portfolio.wallet.model.Transaction;
 import com.portfolio.wallet.model.TransactionType;
 import com.portfolio.wallet.repository.AccountRepository;
 import com.portfolio.wallet.repository.CategoryRepository;
-import com.portfolio.wallet.repository.TransactionRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.aggregation.Aggregation;
-import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
-
 /**
  * Report service
  * 
@@ -33,10 +26,10 @@ import static org.springframework.data.mongodb.core.aggregation.Aggregation.*;
 @RequiredArgsConstructor
 public class ReportService {
     
-    private final TransactionRepository transactionRepository;
     private final AccountRepository accountRepository;
     private final CategoryRepository categoryRepository;
-    private final MongoTemplate mongoTemplate;
+    private final BalanceAggregationService balanceAggregationService;
+    private final TransactionRollupService transactionRollupService;
     
     /**
      * Get dashboard report for a user
@@ -99,28 +92,18 @@ public class ReportService {
             log.debug("Calculated date range from period '{}': {} to {}", period, startDate, endDate);
         }
         
-        // Get all transactions for the period
-        List<Transaction> transactions = transactionRepository.findByUserIdAndOccurredAtBetweenAndDeletedFalse(
-                userId, startDate, endDate);
-        
-        // Calculate totals
-        BigDecimal totalIncome = transactions.stream()
-                .filter(t -> t.getType() == TransactionType.INCOME)
-                .map(Transaction::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
-        
-        BigDecimal totalExpense = transactions.stream()
-                .filter(t -> t.getType() == TransactionType.EXPENSE)
-                .map(Transaction::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        // Calculate totals (đọc từ daily rollup)
+        Map<TransactionType, BigDecimal> totals = getTotalsByType(userId, startDate, endDate);
+        BigDecimal totalIncome = totals.getOrDefault(TransactionType.INCOME, BigDecimal.ZERO);
+        BigDecimal totalExpense = totals.getOrDefault(TransactionType.EXPENSE, BigDecimal.ZERO);
         
         BigDecimal netSavings = totalIncome.subtract(totalExpense);
         
         // Get accounts overview
-        List<DashboardReportResponse.AccountBalance> accountsOverview = getAccountsOverview(userId, transactions);
+        List<DashboardReportResponse.AccountBalance> accountsOverview = getAccountsOverview(userId);
         
         // Get top categories
-        List<DashboardReportResponse.CategorySummary> topCategories = getTopCategories(userId, transactions);
+        List<DashboardReportResponse.CategorySummary> topCategories = getTopCategories(userId, startDate, endDate);
         
         return DashboardReportResponse.builder()
                 .totalIncome(totalIncome)
@@ -163,72 +146,51 @@ public class ReportService {
      * Get accounts overview with balances
      * 
      * Tính current balance từ TẤT CẢ transactions (không chỉ trong period) để có số dư chính xác
+     * Số dư của mọi account được tính trong 1 aggregation (BalanceAggregationService)
      */
-    private List<DashboardReportResponse.AccountBalance> getAccountsOverview(
-            String userId, List<Transaction> transactions) {
+    private List<DashboardReportResponse.AccountBalance> getAccountsOverview(String userId) {
         
         // Get all accounts for user
         var accounts = accountRepository.findByUserIdAndDeletedFalse(userId);
+        Map<String, BalanceAggregationService.BalanceBreakdown> balances =
+                balanceAggregationService.calculateBalances(userId);
         
         return accounts.stream()
-                .map(account -> {
-                    // Calculate balance từ TẤT CẢ transactions (không chỉ trong period)
-                    // Bắt đầu từ 0, không còn openingBalance
-                    BigDecimal balance = BigDecimal.ZERO;
-                    
-                    // Get all transactions for this account
-                    List<Transaction> accountTransactions = transactionRepository.findByAccountIdAndDeletedFalse(account.getId());
-                    List<Transaction> fromAccountTransactions = transactionRepository.findByFromAccountIdAndDeletedFalse(account.getId());
-                    List<Transaction> toAccountTransactions = transactionRepository.findByToAccountIdAndDeletedFalse(account.getId());
-                    
-                    // Process account transactions
-                    for (Transaction t : accountTransactions) {
-                        if (t.getType() == TransactionType.INCOME) {
-                            balance = balance.add(t.getAmount());
-                        } else if (t.getType() == TransactionType.EXPENSE) {
-                            balance = balance.subtract(t.getAmount());
-                        } else if (t.getType() == TransactionType.RECEIVABLE_SETTLEMENT) {
-                            balance = balance.add(t.getAmount());
-                        } else if (t.getType() == TransactionType.LIABILITY_SETTLEMENT) {
-                            balance = balance.subtract(t.getAmount());
-                        } else if (t.getType() == TransactionType.BALANCE_ADJUSTMENT) {
-                            balance = balance.add(t.getAmount());
-                        }
-                    }
-                    
-                    // Subtract TRANSFER_OUT
-                    for (Transaction t : fromAccountTransactions) {
-                        if (t.getType() == TransactionType.TRANSFER) {
-                            balance = balance.subtract(t.getAmount());
-                        }
-                    }
-                    
-                    // Add TRANSFER_IN
-                    for (Transaction t : toAccountTransactions) {
-                        if (t.getType() == TransactionType.TRANSFER) {
-                            balance = balance.add(t.getAmount());
-                        }
-                    }
-                    
-                    return DashboardReportResponse.AccountBalance.builder()
-                            .accountId(account.getId())
-                            .accountName(account.getName())
-                            .balance(balance)
-                            .build();
-                })
+                .map(account -> DashboardReportResponse.AccountBalance.builder()
+                        .accountId(account.getId())
+                        .accountName(account.getName())
+                        .balance(balances.getOrDefault(account.getId(), BalanceAggregationService.BalanceBreakdown.ZERO)
+                                .transactions())
+                        .build())
                 .collect(Collectors.toList());
     }
     
+    /**
+     * Sum INCOME / EXPENSE in the period from daily rollups
+     */
+    private Map<TransactionType, BigDecimal> getTotalsByType(String userId, LocalDateTime startDate, LocalDateTime endDate) {
+        Map<String, TransactionRollupService.GroupTotal> rows = transactionRollupService.sumBy(
+                userId, startDate, endDate,
+                Criteria.where("type").in(TransactionType.INCOME, TransactionType.EXPENSE),
+                "type");
+        
+        Map<TransactionType, BigDecimal> totals = new EnumMap<>(TransactionType.class);
+        rows.forEach((type, total) -> totals.put(TransactionType.valueOf(type), total.sum()));
+        return totals;
+    }
+    
     /**
      * Get top categories by expense
+     * 
+     * Tổng theo category được đọc từ daily rollup, chi phí phụ thuộc số ngày trong khoảng thời gian
      */
     private List<DashboardReportResponse.CategorySummary> getTopCategories(
-            String userId, List<Transaction> transactions) {
+            String userId, LocalDateTime startDate, LocalDateTime endDate) {
         
-        // Filter expense transactions with category
-        Map<String, List<Transaction>> transactionsByCategory = transactions.stream()
-                .filter(t -> t.getType() == TransactionType.EXPENSE && t.getCategoryId() != null)
-                .collect(Collectors.groupingBy(Transaction::getCategoryId));
+        Map<String, TransactionRollupService.GroupTotal> rows = transactionRollupService.sumBy(
+                userId, startDate, endDate,
+                Criteria.where("type").is(TransactionType.EXPENSE).and("categoryId").ne(null),
+                "categoryId");
         
         // Get category names
         var categories = categoryRepository.findAllCategoriesForUser(userId);
@@ -239,27 +201,16 @@ public class ReportService {
                         (existing, replacement) -> existing
                 ));
         
-        // Calculate totals per category
-        List<DashboardReportResponse.CategorySummary> categorySummaries = transactionsByCategory.entrySet().stream()
-                .map(entry -> {
-                    String categoryId = entry.getKey();
-                    List<Transaction> categoryTransactions = entry.getValue();
-                    
-                    BigDecimal totalAmount = categoryTransactions.stream()
-                            .map(Transaction::getAmount)
-                            .reduce(BigDecimal.ZERO, BigDecimal::add);
-                    
-                    return DashboardReportResponse.CategorySummary.builder()
-                            .categoryId(categoryId)
-                            .categoryName(categoryNameMap.getOrDefault(categoryId, "Unknown"))
-                            .totalAmount(totalAmount)
-                            .transactionCount((long) categoryTransactions.size())
-                            .build();
-                })
+        return rows.entrySet().stream()
+                .filter(entry -> entry.getKey() != null && entry.getValue().count() > 0)
+                .map(entry -> DashboardReportResponse.CategorySummary.builder()
+                        .categoryId(entry.getKey())
+                        .categoryName(categoryNameMap.getOrDefault(entry.getKey(), "Unknown"))
+                        .totalAmount(entry.getValue().sum())
+                        .transactionCount(entry.getValue().count())
+                        .build())
                 .sorted((a, b) -> b.getTotalAmount().compareTo(a.getTotalAmount())) // Sort by amount desc
                 .limit(5) // Top 5
                 .collect(Collectors.toList());
-        
-        return categorySummaries;
     }
 }
@@ -5,6 +5,7 @@ import com.portfolio.common.exception.NotFoundException;
 import com.portfolio.wallet.dto.request.CreateSettlementRequest;
 import com.portfolio.wallet.dto.request.UpdateSettlementRequest;
 import com.portfolio.wallet.dto.response.SettlementResponse;
+import com.portfolio.wallet.model.BigDecimalConverter;
 import com.portfolio.wallet.model.Receivable;
 import com.portfolio.wallet.model.Liability;
 import com.portfolio.wallet.model.Settlement;
@@ -14,8 +15,13 @@ import com.portfolio.wallet.repository.LiabilityRepository;
 import com.portfolio.wallet.repository.SettlementRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -37,6 +43,8 @@ public class SettlementService {
     private final LiabilityRepository liabilityRepository;
     private final ReceivableService receivableService;
     private final LiabilityService liabilityService;
+    private final MongoTemplate mongoTemplate;
+    private final NLPContextCache nlpContextCache;
     
     /**
      * Get all settlements for a user (paginated)
@@ -123,6 +131,7 @@ public class SettlementService {
                 request.getAccountId()
         );
         
+        nlpContextCache.invalidate(userId);
         log.info("Settlement created successfully: {}", saved.getId());
         return SettlementResponse.from(saved);
     }
@@ -188,6 +197,7 @@ public class SettlementService {
         // Update paid amount in receivable/liability
         updatePaidAmount(settlement.getType(), settlement.getReceivableId(), settlement.getLiabilityId());
         
+        nlpContextCache.invalidate(userId);
         log.info("Settlement updated successfully: {}", updated.getId());
         return SettlementResponse.from(updated);
     }
@@ -209,6 +219,7 @@ public class SettlementService {
         // Update paid amount in receivable/liability
         updatePaidAmount(settlement.getType(), settlement.getReceivableId(), settlement.getLiabilityId());
         
+        nlpContextCache.invalidate(userId);
         log.info("Settlement deleted successfully: {}", id);
     }
     
@@ -290,16 +301,19 @@ public class SettlementService {
      * Calculate total settlements for a receivable or liability
      */
     private BigDecimal calculateTotalSettlements(SettlementType type, String receivableId, String liabilityId) {
-        List<Settlement> settlements;
-        if (type == SettlementType.RECEIVABLE) {
-            settlements = settlementRepository.findByReceivableIdAndDeletedFalse(receivableId);
-        } else {
-            settlements = settlementRepository.findByLiabilityIdAndDeletedFalse(liabilityId);
-        }
+        Criteria criteria = type == SettlementType.RECEIVABLE
+                ? Criteria.where("receivableId").is(receivableId)
+                : Criteria.where("liabilityId").is(liabilityId);
+        criteria = criteria.and("deleted").is(false);
         
-        return settlements.stream()
-                .map(Settlement::getAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        // $sum phía server, không load settlement về JVM
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(criteria),
+                Aggregation.group().sum(ConvertOperators.valueOf("amount").convertToDecimal()).as("total"));
+        Document result = mongoTemplate.aggregate(aggregation, Settlement.class, Document.class)
+                .getUniqueMappedResult();
+        
+        return result != null ? BigDecimalConverter.toBigDecimal(result.get("total")) : BigDecimal.ZERO;
     }
     
     /**
@@ -0,0 +1,539 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.common.util.TtlCache;
+import com.portfolio.wallet.model.BigDecimalConverter;
+import com.portfolio.wallet.model.Transaction;
+import com.portfolio.wallet.model.TransactionDailyRollup;
+import com.portfolio.wallet.model.TransactionRollupState;
+import com.portfolio.wallet.model.TransactionType;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.Decimal128;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.ConvertOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Daily transaction rollup service
+ * 
+ * Duy trì collection transaction_daily_rollups: (userId, day, type, categoryId, accountId) -> sum/count.
+ * - Write path: mỗi lần tạo/sửa/xóa transaction, $inc phần chênh lệch vào rollup của ngày tương ứng
+ * - Read path: các ngày trọn vẹn trong khoảng đọc từ rollup, phần ngày lẻ ở 2 đầu đọc từ transactions
+ * - User chưa có rollup (dữ liệu cũ) được backfill nền từ lịch sử bằng 1 aggregation ($merge);
+ *   trong lúc chờ, read path tính trực tiếp trên transactions (không ghi gì)
+ * - Mỗi lần ghi transaction nằm giữa beginWrite/endWrite: cả hai đều tăng writeVersion, pendingWrites đếm
+ *   số lần ghi đang dở. Rebuild chỉ đánh dấu xong nếu writeVersion không đổi và không có lần ghi nào đang
+ *   dở, nếu không thì chạy lại: transaction đã được $merge đọc nhưng $inc tới sau sẽ không bị cộng 2 lần
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TransactionRollupService {
+    
+    private static final String COLLECTION = "transaction_daily_rollups";
+    private static final String NONE = "-";
+    private static final int MAX_REBUILD_ATTEMPTS = 3;
+    private static final Duration REBUILD_LEASE = Duration.ofMinutes(10);
+    
+    private final MongoTemplate mongoTemplate;
+    
+    /**
+     * userId đã có rollup; TTL ngắn để instance khác thấy needsRebuild sau tối đa 1 phút
+     */
+    private final TtlCache<String, Boolean> readyUsers = new TtlCache<>(10_000, Duration.ofMinutes(1));
+    
+    @Value("${wallet.rollup.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+    
+    @Value("${wallet.rollup.backfill-interval:PT5M}")
+    private Duration backfillInterval;
+    
+    private ScheduledExecutorService scheduler;
+    
+    /**
+     * Contribution of one transaction to a rollup bucket
+     */
+    public record Contribution(String id, String userId, String day, TransactionType type,
+                               String categoryId, String accountId, BigDecimal amount) {
+    }
+    
+    /**
+     * Sum and count of a group
+     */
+    public record GroupTotal(BigDecimal sum, long count) {
+        
+        public GroupTotal add(GroupTotal other) {
+            return new GroupTotal(sum.add(other.sum), count + other.count);
+        }
+    }
+    
+    /**
+     * Rollup bucket of a transaction
+     * 
+     * @return null nếu transaction đã xóa hoặc thiếu dữ liệu
+     */
+    public Contribution contributionOf(Transaction transaction) {
+        if (transaction == null || Boolean.TRUE.equals(transaction.getDeleted())
+                || transaction.getAmount() == null || transaction.getType() == null
+                || transaction.getOccurredAt() == null) {
+            return null;
+        }
+        String day = transaction.getOccurredAt().toLocalDate().toString();
+        String id = String.join(":",
+                transaction.getUserId(),
+                day,
+                transaction.getType().name(),
+                transaction.getCategoryId() != null ? transaction.getCategoryId() : NONE,
+                transaction.getAccountId() != null ? transaction.getAccountId() : NONE);
+        return new Contribution(id, transaction.getUserId(), day, transaction.getType(),
+                transaction.getCategoryId(), transaction.getAccountId(), transaction.getAmount());
+    }
+    
+    /**
+     * Mark the start of a transaction write (gọi trước khi lưu transaction, kết thúc bằng endWrite trong finally)
+     * 
+     * Rebuild đọc writeVersion trước khi đọc lịch sử: lần ghi bắt đầu sau đó làm markRebuilt thất bại,
+     * kể cả khi transaction đã được $merge đọc còn $inc chưa tới.
+     */
+    public void beginWrite(String userId) {
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(userId)),
+                new Update().inc("writeVersion", 1L).inc("pendingWrites", 1L).set("lastWriteAt", LocalDateTime.now()),
+                TransactionRollupState.class);
+    }
+    
+    /**
+     * Mark the end of a transaction write (sau $inc rollup, hoặc khi ghi thất bại)
+     */
+    public void endWrite(String userId) {
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(userId)),
+                new Update().inc("writeVersion", 1L).inc("pendingWrites", -1L),
+                TransactionRollupState.class);
+    }
+    
+    /**
+     * Apply the difference between two contributions using $inc (giữa beginWrite/endWrite)
+     */
+    public void applyChange(Contribution before, Contribution after) {
+        if (before != null && after != null && before.id().equals(after.id())) {
+            increment(after, after.amount().subtract(before.amount()), 0);
+            return;
+        }
+        if (before != null) {
+            increment(before, before.amount().negate(), -1);
+        }
+        if (after != null) {
+            increment(after, after.amount(), 1);
+        }
+    }
+    
+    /**
+     * Apply a newly created transaction
+     */
+    public void applyCreated(Transaction transaction) {
+        applyChange(null, contributionOf(transaction));
+    }
+    
+    /**
+     * Sum transactions of a user in (startDate, endDate) grouped by a field
+     * 
+     * @param filter     Điều kiện bổ sung trên type/categoryId/accountId (có ở cả transactions và rollup)
+     * @param groupField "type", "categoryId" hoặc "accountId"
+     * @return Map group value -> sum/count
+     */
+    public Map<String, GroupTotal> sumBy(String userId, LocalDateTime startDate, LocalDateTime endDate,
+                                         Criteria filter, String groupField) {
+        if (!isReady(userId)) {
+            // Chưa backfill xong → tính trực tiếp trên transactions
+            return sumTransactions(userId, filter, groupField,
+                    Criteria.where("occurredAt").gt(startDate).lt(endDate));
+        }
+        
+        LocalDate firstFullDay = startDate.toLocalDate().atStartOfDay().equals(startDate)
+                ? startDate.toLocalDate()
+                : startDate.toLocalDate().plusDays(1);
+        LocalDate endDay = endDate.toLocalDate(); // exclusive
+        
+        Map<String, GroupTotal> totals = new HashMap<>();
+        if (!firstFullDay.isBefore(endDay)) {
+            // Khoảng thời gian không chứa ngày trọn vẹn nào
+            mergeInto(totals, sumTransactions(userId, filter, groupField,
+                    Criteria.where("occurredAt").gt(startDate).lt(endDate)));
+            return totals;
+        }
+        
+        mergeInto(totals, sumRollups(userId, filter, groupField, firstFullDay, endDay));
+        
+        List<Criteria> partialDays = new ArrayList<>();
+        if (startDate.isBefore(firstFullDay.atStartOfDay())) {
+            partialDays.add(Criteria.where("occurredAt").gt(startDate).lt(firstFullDay.atStartOfDay()));
+        }
+        if (endDay.atStartOfDay().isBefore(endDate)) {
+            partialDays.add(Criteria.where("occurredAt").gte(endDay.atStartOfDay()).lt(endDate));
+        }
+        if (!partialDays.isEmpty()) {
+            mergeInto(totals, sumTransactions(userId, filter, groupField,
+                    new Criteria().orOperator(partialDays.toArray(new Criteria[0]))));
+        }
+        return totals;
+    }
+    
+    /**
+     * Sum expenses of a user per (month, categoryId) for several months in one aggregation
+     * 
+     * Chỉ đọc: user chưa backfill xong thì tính trực tiếp trên transactions, không rebuild.
+     * 
+     * @return Map month -> (categoryId -> total), categoryId null = expense không có category
+     */
+    public Map<YearMonth, Map<String, BigDecimal>> sumExpensesByMonthAndCategory(String userId,
+                                                                                 Collection<YearMonth> months) {
+        Map<YearMonth, Map<String, BigDecimal>> totals = new HashMap<>();
+        if (months.isEmpty()) {
+            return totals;
+        }
+        boolean ready = isReady(userId);
+        Aggregation aggregation = ready
+                ? expensesByMonthFromRollups(userId, months)
+                : expensesByMonthFromTransactions(userId, months);
+        String collection = ready ? COLLECTION : "transactions";
+        
+        for (Document row : mongoTemplate.aggregate(aggregation, collection, Document.class).getMappedResults()) {
+            Document key = row.get("_id", Document.class);
+            totals.computeIfAbsent(YearMonth.parse(key.getString("month")), month -> new HashMap<>())
+                    .merge(key.getString("categoryId"), BigDecimalConverter.toBigDecimal(row.get("total")),
+                            BigDecimal::add);
+        }
+        return totals;
+    }
+    
+    /**
+     * Rebuild all rollups of a user from transaction history
+     * 
+     * Bucket được ghi đè bằng $merge (không xóa trước) nên dashboard vẫn đọc được trong lúc rebuild.
+     * Bucket không còn transaction nào (và không được cập nhật trong lúc rebuild) sẽ bị xóa.
+     * Lần ghi chen vào (writeVersion đổi hoặc pendingWrites > 0) có thể bị $merge ghi đè hoặc cộng 2 lần,
+     * nên chạy lại (tối đa MAX_REBUILD_ATTEMPTS, sau đó needsRebuild: đọc từ transactions tới khi backfill xong).
+     */
+    public void rebuild(String userId) {
+        TransactionRollupState state = acquireLease(userId);
+        if (state == null) {
+            log.debug("Rollup rebuild for user {} is already running", userId);
+            return;
+        }
+        try {
+            Long writeVersion = state.getWriteVersion();
+            for (int attempt = 1; attempt <= MAX_REBUILD_ATTEMPTS; attempt++) {
+                rebuildBuckets(userId);
+                if (markRebuilt(userId, writeVersion)) {
+                    log.info("Rebuilt daily rollups for user {}", userId);
+                    return;
+                }
+                log.debug("Rollups of user {} changed during rebuild (attempt {})", userId, attempt);
+                TransactionRollupState current = mongoTemplate.findById(userId, TransactionRollupState.class);
+                writeVersion = current != null ? current.getWriteVersion() : null;
+            }
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+                    new Update().set("needsRebuild", true), TransactionRollupState.class);
+            readyUsers.invalidate(userId);
+            log.warn("Could not rebuild daily rollups for user {} after {} attempts, left for backfill",
+                    userId, MAX_REBUILD_ATTEMPTS);
+        } finally {
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(userId)),
+                    new Update().unset("rebuildingSince"), TransactionRollupState.class);
+        }
+    }
+    
+    /**
+     * Backfill rollups for every user that has not been rebuilt yet
+     */
+    public void backfill() {
+        List<String> userIds = mongoTemplate.findDistinct(new Query(), "userId", "transactions", String.class);
+        Set<String> ready = new HashSet<>(mongoTemplate.findDistinct(
+                new Query(Criteria.where("rebuiltAt").ne(null).and("needsRebuild").ne(true)),
+                "_id", TransactionRollupState.class, String.class));
+        
+        int rebuilt = 0;
+        for (String userId : userIds) {
+            if (userId != null && !ready.contains(userId)) {
+                rebuild(userId);
+                rebuilt++;
+            }
+        }
+        if (rebuilt > 0) {
+            log.info("Rollup backfill finished: {} users rebuilt", rebuilt);
+        }
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!backfillOnStartup) {
+            return;
+        }
+        // Chạy định kỳ để user mới (chưa có rollup) cũng được backfill, không rebuild trên request thread
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rollup-backfill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::backfillSafely, 0, backfillInterval.toMillis(),
+                TimeUnit.MILLISECONDS);
+    }
+    
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    /**
+     * Rollup của user đã được tính từ lịch sử và không bị đánh dấu needsRebuild (cache trong memory)
+     */
+    private boolean isReady(String userId) {
+        return readyUsers.getOrLoad(userId, id -> {
+            TransactionRollupState state = mongoTemplate.findById(id, TransactionRollupState.class);
+            return state != null && state.getRebuiltAt() != null && !Boolean.TRUE.equals(state.getNeedsRebuild())
+                    ? Boolean.TRUE
+                    : null;
+        }) != null;
+    }
+    
+    private void backfillSafely() {
+        try {
+            backfill();
+        } catch (Exception e) {
+            log.error("Rollup backfill failed: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Recompute every bucket of a user from transactions and $merge them into the rollup collection
+     */
+    private void rebuildBuckets(String userId) {
+        String rebuildId = UUID.randomUUID().toString();
+        LocalDateTime startedAt = LocalDateTime.now();
+        
+        Document day = new Document("$dateToString", new Document("format", "%Y-%m-%d")
+                .append("date", "$occurredAt")
+                .append("timezone", mongoTimezone()));
+        Aggregation aggregation = Aggregation.newAggregation(
+                stage(new Document("$match", new Document("userId", userId)
+                        .append("deleted", false)
+                        .append("occurredAt", new Document("$ne", null)))),
+                stage(new Document("$group", new Document("_id", new Document("userId", "$userId")
+                        .append("day", day)
+                        .append("type", "$type")
+                        .append("categoryId", "$categoryId")
+                        .append("accountId", "$accountId"))
+                        .append("sum", new Document("$sum", new Document("$toDecimal", "$amount")))
+                        .append("count", new Document("$sum", 1L)))),
+                stage(new Document("$project", new Document("_id", new Document("$concat", Arrays.asList(
+                        "$_id.userId", ":", "$_id.day", ":", "$_id.type", ":",
+                        new Document("$ifNull", Arrays.asList("$_id.categoryId", NONE)), ":",
+                        new Document("$ifNull", Arrays.asList("$_id.accountId", NONE)))))
+                        .append("userId", "$_id.userId")
+                        .append("day", "$_id.day")
+                        .append("type", "$_id.type")
+                        .append("categoryId", "$_id.categoryId")
+                        .append("accountId", "$_id.accountId")
+                        .append("sum", 1)
+                        .append("count", 1)
+                        .append("rebuildId", new Document("$literal", rebuildId))
+                        .append("updatedAt", new Document("$literal",
+                                Date.from(startedAt.atZone(ZoneId.systemDefault()).toInstant()))))),
+                stage(new Document("$merge", new Document("into", COLLECTION)
+                        .append("on", "_id")
+                        .append("whenMatched", "replace")
+                        .append("whenNotMatched", "insert")))
+        );
+        mongoTemplate.aggregate(aggregation, "transactions", Document.class);
+        
+        mongoTemplate.remove(new Query(Criteria.where("userId").is(userId)
+                .and("rebuildId").ne(rebuildId)
+                .and("updatedAt").lt(startedAt)), TransactionDailyRollup.class);
+    }
+    
+    /**
+     * Take the rebuild lease of a user (lease quá REBUILD_LEASE coi như instance đã chết)
+     * 
+     * @return state sau khi lấy lease (writeVersion trước khi đọc lịch sử), null nếu đang có rebuild khác
+     */
+    private TransactionRollupState acquireLease(String userId) {
+        LocalDateTime now = LocalDateTime.now();
+        Query query = new Query(new Criteria().andOperator(
+                Criteria.where("_id").is(userId),
+                new Criteria().orOperator(
+                        Criteria.where("rebuildingSince").is(null),
+                        Criteria.where("rebuildingSince").lt(now.minus(REBUILD_LEASE)))));
+        try {
+            return mongoTemplate.findAndModify(query, new Update().set("rebuildingSince", now),
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), TransactionRollupState.class);
+        } catch (DuplicateKeyException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Mark the rollup of a user as rebuilt if no write started or finished since {@code writeVersion} was read
+     * and none is in progress
+     * 
+     * pendingWrites > 0 mà lần ghi cuối đã quá REBUILD_LEASE thì coi như instance chết giữa chừng (endWrite
+     * không chạy) và reset bộ đếm.
+     */
+    private boolean markRebuilt(String userId, Long writeVersion) {
+        LocalDateTime now = LocalDateTime.now();
+        Query query = new Query(new Criteria().andOperator(
+                Criteria.where("_id").is(userId).and("writeVersion").is(writeVersion),
+                new Criteria().orOperator(
+                        Criteria.where("pendingWrites").not().gt(0),
+                        Criteria.where("lastWriteAt").lt(now.minus(REBUILD_LEASE)))));
+        Update update = new Update()
+                .set("rebuiltAt", now)
+                .set("needsRebuild", false)
+                .set("pendingWrites", 0L);
+        return mongoTemplate.updateFirst(query, update, TransactionRollupState.class).getMatchedCount() == 1;
+    }
+    
+    private Aggregation expensesByMonthFromRollups(String userId, Collection<YearMonth> months) {
+        List<Document> dayRanges = months.stream()
+                .map(month -> new Document("day", new Document("$gte", month.atDay(1).toString())
+                        .append("$lt", month.plusMonths(1).atDay(1).toString())))
+                .toList();
+        return Aggregation.newAggregation(
+                stage(new Document("$match", new Document("userId", userId)
+                        .append("type", TransactionType.EXPENSE.name())
+                        .append("$or", dayRanges))),
+                stage(new Document("$group", new Document("_id", new Document("month",
+                        new Document("$substrCP", Arrays.asList("$day", 0, 7)))
+                        .append("categoryId", "$categoryId"))
+                        .append("total", new Document("$sum", "$sum")))));
+    }
+    
+    /**
+     * Same shape as {@link #expensesByMonthFromRollups}, computed from transactions (user chưa có rollup)
+     */
+    private Aggregation expensesByMonthFromTransactions(String userId, Collection<YearMonth> months) {
+        List<Document> periods = months.stream()
+                .map(month -> new Document("occurredAt", new Document("$gte", toDate(month.atDay(1)))
+                        .append("$lt", toDate(month.plusMonths(1).atDay(1)))))
+                .toList();
+        return Aggregation.newAggregation(
+                stage(new Document("$match", new Document("userId", userId)
+                        .append("deleted", false)
+                        .append("type", TransactionType.EXPENSE.name())
+                        .append("$or", periods))),
+                stage(new Document("$group", new Document("_id", new Document("month",
+                        new Document("$dateToString", new Document("format", "%Y-%m")
+                                .append("date", "$occurredAt")
+                                .append("timezone", mongoTimezone())))
+                        .append("categoryId", "$categoryId"))
+                        .append("total", new Document("$sum", new Document("$toDecimal", "$amount"))))));
+    }
+    
+    private static Date toDate(LocalDate day) {
+        return Date.from(day.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+    
+    private void increment(Contribution contribution, BigDecimal delta, long countDelta) {
+        if (delta.signum() == 0 && countDelta == 0) {
+            return;
+        }
+        Query query = new Query(Criteria.where("_id").is(contribution.id()));
+        Update update = new Update()
+                .inc("sum", new Decimal128(delta))
+                .inc("count", countDelta)
+                .setOnInsert("userId", contribution.userId())
+                .setOnInsert("day", contribution.day())
+                .setOnInsert("type", contribution.type().name())
+                .setOnInsert("categoryId", contribution.categoryId())
+                .setOnInsert("accountId", contribution.accountId())
+                .set("updatedAt", LocalDateTime.now());
+        mongoTemplate.upsert(query, update, TransactionDailyRollup.class);
+    }
+    
+    private Map<String, GroupTotal> sumRollups(String userId, Criteria filter, String groupField,
+                                               LocalDate fromDay, LocalDate toDayExclusive) {
+        Criteria criteria = Criteria.where("userId").is(userId)
+                .and("day").gte(fromDay.toString()).lt(toDayExclusive.toString());
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(filter != null ? new Criteria().andOperator(criteria, filter) : criteria),
+                Aggregation.group(groupField).sum("sum").as("sum").sum("count").as("count"));
+        return toGroupTotals(mongoTemplate.aggregate(aggregation, TransactionDailyRollup.class, Document.class)
+                .getMappedResults());
+    }
+    
+    private Map<String, GroupTotal> sumTransactions(String userId, Criteria filter, String groupField,
+                                                    Criteria period) {
+        Criteria criteria = new Criteria().andOperator(
+                Criteria.where("userId").is(userId).and("deleted").is(false), period);
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(filter != null ? new Criteria().andOperator(criteria, filter) : criteria),
+                Aggregation.group(groupField)
+                        .sum(ConvertOperators.valueOf("amount").convertToDecimal()).as("sum")
+                        .count().as("count"));
+        return toGroupTotals(mongoTemplate.aggregate(aggregation, Transaction.class, Document.class)
+                .getMappedResults());
+    }
+    
+    private Map<String, GroupTotal> toGroupTotals(List<Document> rows) {
+        Map<String, GroupTotal> totals = new HashMap<>();
+        for (Document row : rows) {
+            Object count = row.get("count");
+            totals.put(row.getString("_id"), new GroupTotal(
+                    BigDecimalConverter.toBigDecimal(row.get("sum")),
+                    count instanceof Number number ? number.longValue() : 0L));
+        }
+        return totals;
+    }
+    
+    private void mergeInto(Map<String, GroupTotal> target, Map<String, GroupTotal> source) {
+        source.forEach((key, total) -> target.merge(key, total, GroupTotal::add));
+    }
+    
+    /**
+     * Timezone của JVM theo định dạng MongoDB chấp nhận (Olson id hoặc +HH:mm)
+     */
+    private String mongoTimezone() {
+        ZoneId zone = ZoneId.systemDefault().normalized();
+        if (zone instanceof ZoneOffset offset) {
+            return offset.getTotalSeconds() == 0 ? "+00:00" : offset.getId();
+        }
+        return zone.getId();
+    }
+    
+    private static AggregationOperation stage(Document document) {
+        return context -> document;
+    }
+}
@@ -0,0 +1,133 @@
+package com.portfolio.wallet.service;
+
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.portfolio.common.util.TextNormalizer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transaction note search
+ * 
+ * Tìm kiếm note qua text index {userId: 1, noteSearch: "text"} thay vì regex không neo:
+ * - noteSearch là note đã bỏ dấu/chữ thường nên tìm "ca phe" khớp "Cà phê"
+ * - default_language = none: không stemming/stop words tiếng Anh (vd. "an" vẫn được index)
+ * - Prefix userId: mỗi lần tìm chỉ quét phần index của user
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TransactionSearchService {
+    
+    private static final String COLLECTION = "transactions";
+    private static final String TEXT_INDEX_NAME = "user_note_text_idx";
+    
+    private final MongoTemplate mongoTemplate;
+    
+    @Value("${wallet.search.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+    
+    @Value("${wallet.search.backfill-batch-size:500}")
+    private int batchSize;
+    
+    /**
+     * Create the text index (idempotent)
+     * Chạy khi khởi tạo bean để index có trước khi nhận request tìm kiếm
+     */
+    @PostConstruct
+    public void ensureTextIndex() {
+        try {
+            mongoTemplate.getCollection(COLLECTION).createIndex(
+                    Indexes.compoundIndex(Indexes.ascending("userId"), Indexes.text("noteSearch")),
+                    new IndexOptions().name(TEXT_INDEX_NAME).defaultLanguage("none"));
+        } catch (Exception e) {
+            log.error("Failed to create transaction note text index: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Build $text criteria for a keyword
+     * 
+     * Mỗi từ được đặt trong dấu ngoặc kép nên kết quả phải chứa TẤT CẢ các từ (giống regex cũ),
+     * thứ tự kết quả có thể xếp theo textScore.
+     * 
+     * @return null nếu keyword rỗng
+     */
+    public TextCriteria keywordCriteria(String keyword) {
+        String folded = TextNormalizer.fold(keyword);
+        if (folded == null || folded.isEmpty()) {
+            return null;
+        }
+        TextCriteria criteria = TextCriteria.forDefaultLanguage();
+        for (String term : folded.split(" ")) {
+            criteria.matchingPhrase(term);
+        }
+        return criteria;
+    }
+    
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!backfillOnStartup) {
+            return;
+        }
+        CompletableFuture.runAsync(this::backfill)
+                .exceptionally(e -> {
+                    log.error("Note search backfill failed: {}", e.getMessage(), e);
+                    return null;
+                });
+    }
+    
+    /**
+     * Fill noteSearch for transactions saved before the field existed (batched by _id)
+     */
+    public void backfill() {
+        long updated = 0;
+        Object lastId = null;
+        
+        while (true) {
+            Criteria criteria = Criteria.where("note").type(2).and("noteSearch").exists(false); // 2 = string
+            if (lastId != null) {
+                criteria = criteria.and("_id").gt(lastId);
+            }
+            Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).limit(batchSize);
+            query.fields().include("note");
+            
+            List<Document> batch = mongoTemplate.find(query, Document.class, COLLECTION);
+            if (batch.isEmpty()) {
+                break;
+            }
+            
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLLECTION);
+            for (Document document : batch) {
+                String note = document.getString("note");
+                // Chỉ set nếu note chưa bị sửa trong lúc backfill
+                bulk.updateOne(
+                        new Query(Criteria.where("_id").is(document.get("_id")).and("note").is(note)
+                                .and("noteSearch").exists(false)),
+                        new Update().set("noteSearch", TextNormalizer.fold(note)));
+            }
+            updated += bulk.execute().getModifiedCount();
+            lastId = batch.get(batch.size() - 1).get("_id");
+        }
+        
+        if (updated > 0) {
+            log.info("Backfilled noteSearch for {} transactions", updated);
+        }
+    }
+}
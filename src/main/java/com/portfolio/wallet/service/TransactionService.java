@@ -5,6 +5,7 @@ import com.portfolio.common.exception.NotFoundException;
 import com.portfolio.wallet.dto.request.CreateTransactionRequest;
 import com.portfolio.wallet.dto.request.TransactionFilters;
 import com.portfolio.wallet.dto.request.UpdateTransactionRequest;
+import com.portfolio.wallet.dto.response.CursorPageResponse;
 import com.portfolio.wallet.dto.response.TransactionResponse;
 import com.portfolio.wallet.model.Transaction;
 import com.portfolio.wallet.model.TransactionType;
@@ -23,11 +24,17 @@ import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.data.mongodb.core.query.TextQuery;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Transaction service
@@ -37,12 +44,19 @@ import java.util.List;
 @RequiredArgsConstructor
 public class TransactionService {
     
+    private static final int MAX_CURSOR_PAGE_SIZE = 100;
+    
     private final TransactionRepository transactionRepository;
     private final AccountRepository accountRepository;
     private final CategoryRepository categoryRepository;
     private final ReceivableRepository receivableRepository;
     private final LiabilityRepository liabilityRepository;
     private final SettlementService settlementService;
+    private final AccountBalanceService accountBalanceService;
+    private final TransactionRollupService transactionRollupService;
+    private final NLPQueryCache nlpQueryCache;
+    private final NLPCategorySuggester nlpCategorySuggester;
+    private final TransactionSearchService transactionSearchService;
     private final MongoTemplate mongoTemplate;
     
     /**
@@ -84,10 +98,94 @@ public class TransactionService {
         );
     }
     
+    /**
+     * Get transactions for a user with keyset (cursor) pagination
+     * 
+     * Sắp xếp theo (occurredAt desc, _id desc), trang tiếp theo bắt đầu sau phần tử cuối của trang trước
+     * nên không cần skip; count chỉ chạy khi includeTotal = true.
+     */
+    public CursorPageResponse<TransactionResponse> getTransactionsByCursor(
+            String userId,
+            TransactionFilters filters,
+            String cursor,
+            int size,
+            boolean includeTotal) {
+        log.debug("Getting transactions by cursor for user: {} with filters: {}", userId, filters);
+        
+        int pageSize = Math.max(1, Math.min(size, MAX_CURSOR_PAGE_SIZE));
+        Criteria criteria = buildCriteria(userId, filters);
+        
+        Query query;
+        if (cursor != null && !cursor.isEmpty()) {
+            TransactionCursor position = TransactionCursor.decode(cursor);
+            query = new Query(new Criteria().andOperator(criteria, new Criteria().orOperator(
+                    Criteria.where("occurredAt").lt(position.occurredAt()),
+                    Criteria.where("occurredAt").is(position.occurredAt()).and("id").lt(position.id()))));
+        } else {
+            query = new Query(criteria);
+        }
+        
+        // Keyword: lọc qua text index, giữ thứ tự (occurredAt, _id) để cursor ổn định
+        TextCriteria keywordCriteria = filters != null
+                ? transactionSearchService.keywordCriteria(filters.getKeyword())
+                : null;
+        if (keywordCriteria != null) {
+            query.addCriteria(keywordCriteria);
+        }
+        query.with(Sort.by(Sort.Direction.DESC, "occurredAt").and(Sort.by(Sort.Direction.DESC, "id")));
+        query.limit(pageSize + 1); // Lấy thêm 1 phần tử để biết còn trang tiếp theo không
+        
+        List<Transaction> transactions = mongoTemplate.find(query, Transaction.class);
+        boolean hasNext = transactions.size() > pageSize;
+        if (hasNext) {
+            transactions = transactions.subList(0, pageSize);
+        }
+        
+        String nextCursor = null;
+        if (hasNext) {
+            Transaction last = transactions.get(transactions.size() - 1);
+            nextCursor = new TransactionCursor(last.getOccurredAt(), last.getId()).encode();
+        }
+        
+        Long total = null;
+        if (includeTotal) {
+            Query countQuery = new Query(criteria);
+            if (keywordCriteria != null) {
+                countQuery.addCriteria(keywordCriteria);
+            }
+            total = mongoTemplate.count(countQuery, Transaction.class);
+        }
+        
+        return CursorPageResponse.<TransactionResponse>builder()
+                .content(transactions.stream().map(TransactionResponse::from).toList())
+                .size(pageSize)
+                .nextCursor(nextCursor)
+                .hasNext(hasNext)
+                .totalElements(total)
+                .build();
+    }
+    
     /**
      * Build MongoDB query from filters
+     * 
+     * keyword dùng text index (TransactionSearchService), kết quả xếp theo độ liên quan trước
      */
     private Query buildQuery(String userId, TransactionFilters filters) {
+        TextCriteria keywordCriteria = filters != null
+                ? transactionSearchService.keywordCriteria(filters.getKeyword())
+                : null;
+        if (keywordCriteria == null) {
+            return new Query(buildCriteria(userId, filters));
+        }
+        return TextQuery.queryText(keywordCriteria)
+                .sortByScore()
+                .addCriteria(buildCriteria(userId, filters));
+    }
+    
+    /**
+     * Build MongoDB criteria from filters
+     */
+    private Criteria buildCriteria(String userId, TransactionFilters filters) {
         Criteria criteria = Criteria.where("userId").is(userId)
                 .and("deleted").is(false);
         
@@ -127,12 +225,32 @@ public class TransactionService {
                 criteria.and("amount").lte(filters.getMaxAmount());
             }
             
-            if (filters.getKeyword() != null && !filters.getKeyword().trim().isEmpty()) {
-                criteria.and("note").regex(filters.getKeyword().trim(), "i"); // Case-insensitive
-            }
         }
         
-        return new Query(criteria);
+        return criteria;
+    }
+    
+    /**
+     * Position of the last item of a cursor page: (occurredAt, id), encoded as opaque base64 token
+     */
+    private record TransactionCursor(LocalDateTime occurredAt, String id) {
+        
+        String encode() {
+            String raw = occurredAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+        
+        static TransactionCursor decode(String token) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new TransactionCursor(
+                        LocalDateTime.parse(raw.substring(0, separator)),
+                        raw.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new BusinessException("INVALID_CURSOR", "Invalid pagination cursor");
+            }
+        }
     }
     
     /**
@@ -188,7 +306,17 @@ public class TransactionService {
                 .deleted(false)
                 .build();
         
-        Transaction saved = transactionRepository.save(transaction);
+        Transaction saved;
+        transactionRollupService.beginWrite(userId);
+        try {
+            saved = transactionRepository.save(transaction);
+            accountBalanceService.applyCreated(saved);
+            transactionRollupService.applyCreated(saved);
+        } finally {
+            transactionRollupService.endWrite(userId);
+        }
+        nlpQueryCache.invalidate(userId);
+        nlpCategorySuggester.record(saved);
         
         // Nếu là giao dịch thanh toán công nợ thì tự động tạo Settlement gắn kèm
         if (saved.getType() == TransactionType.RECEIVABLE_SETTLEMENT
@@ -232,6 +360,10 @@ public class TransactionService {
         // Validate update request
         validateUpdateRequest(request, userId, transaction);
         
+        // Snapshot phần đóng góp vào số dư trước khi sửa
+        Map<String, BigDecimal> balanceBefore = accountBalanceService.contributionOf(transaction);
+        TransactionRollupService.Contribution rollupBefore = transactionRollupService.contributionOf(transaction);
+        
         // Update fields if provided
         if (request.getType() != null) {
             transaction.setType(request.getType());
@@ -264,7 +396,16 @@ public class TransactionService {
             transaction.setAttachmentIds(request.getAttachmentIds());
         }
         
-        Transaction updated = transactionRepository.save(transaction);
+        Transaction updated;
+        transactionRollupService.beginWrite(userId);
+        try {
+            updated = transactionRepository.save(transaction);
+            accountBalanceService.applyChange(balanceBefore, accountBalanceService.contributionOf(updated));
+            transactionRollupService.applyChange(rollupBefore, transactionRollupService.contributionOf(updated));
+        } finally {
+            transactionRollupService.endWrite(userId);
+        }
+        nlpQueryCache.invalidate(userId);
         log.info("Transaction updated successfully: {}", updated.getId());
         return TransactionResponse.from(updated);
     }
@@ -279,9 +420,20 @@ public class TransactionService {
         Transaction transaction = transactionRepository.findByIdAndUserIdAndDeletedFalse(id, userId)
                 .orElseThrow(() -> new NotFoundException("Transaction not found"));
         
+        Map<String, BigDecimal> balanceBefore = accountBalanceService.contributionOf(transaction);
+        TransactionRollupService.Contribution rollupBefore = transactionRollupService.contributionOf(transaction);
+        
         // Soft delete
         transaction.setDeleted(true);
-        transactionRepository.save(transaction);
+        transactionRollupService.beginWrite(userId);
+        try {
+            transactionRepository.save(transaction);
+            accountBalanceService.applyChange(balanceBefore, accountBalanceService.contributionOf(transaction));
+            transactionRollupService.applyChange(rollupBefore, transactionRollupService.contributionOf(transaction));
+        } finally {
+            transactionRollupService.endWrite(userId);
+        }
+        nlpQueryCache.invalidate(userId);
         log.info("Transaction deleted successfully: {}", id);
     }
     
@@ -0,0 +1,172 @@
+package com.portfolio.wallet.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local HTTP stub of the Gemini generateContent API (dùng cho NLPBenchmarkRunner)
+ *
+ * - POST .../models/{model}:generateContent: lấy USER INPUT / USER INPUTS từ prompt, trả response
+ *   định sẵn theo input (bọc trong candidates + usageMetadata như Gemini); input lạ → intent UNKNOWN
+ * - Latency = latency + random(0, jitter); errorRate → trả errorStatus; malformedRate → JSON bị cắt
+ *   giữa chừng (để đo cả đường repair)
+ * - cachedContents → 404 (coi như model không hỗ trợ context caching)
+ */
+@Slf4j
+public class GeminiStubServer implements AutoCloseable {
+
+    private static final String UNKNOWN_RESPONSE = "{\"intent\":\"UNKNOWN\",\"confidence\":0.0,\"entities\":{}}";
+    private static final Pattern SINGLE_INPUT = Pattern.compile("USER INPUT:\\n\"(.*)\"\\n", Pattern.DOTALL);
+    private static final Pattern BATCH_LINE = Pattern.compile("^\\d+\\. \"(.*)\"$", Pattern.MULTILINE);
+
+    public record Options(Duration latency, Duration jitter, double errorRate, int errorStatus,
+                          double malformedRate, int threads) {
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, String> responses;
+    private final Options options;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong malformed = new AtomicLong();
+
+    /**
+     * @param responses Input (đã trim) → JSON text model trả về
+     */
+    public GeminiStubServer(int port, Map<String, String> responses, Options options) throws IOException {
+        this.responses = responses;
+        this.options = options;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        this.executor = Executors.newFixedThreadPool(options.threads());
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+        log.info("Gemini stub listening on port {} ({})", server.getAddress().getPort(), options);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getInjectedErrors() {
+        return injectedErrors.get();
+    }
+
+    public long getMalformed() {
+        return malformed.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            if (!"POST".equals(exchange.getRequestMethod()) || !path.endsWith(":generateContent")) {
+                send(exchange, 404, "{\"error\":{\"code\":404,\"message\":\"Not supported by stub\",\"status\":\"NOT_FOUND\"}}");
+                return;
+            }
+            calls.incrementAndGet();
+            byte[] requestBody;
+            try (InputStream in = exchange.getRequestBody()) {
+                requestBody = in.readAllBytes();
+            }
+            sleep();
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (random.nextDouble() < options.errorRate()) {
+                injectedErrors.incrementAndGet();
+                send(exchange, options.errorStatus(), "{\"error\":{\"code\":" + options.errorStatus()
+                        + ",\"message\":\"Injected by stub\",\"status\":\"UNAVAILABLE\"}}");
+                return;
+            }
+
+            String prompt = promptText(requestBody);
+            String text = prompt.contains("USER INPUTS") ? batchResponse(prompt) : singleResponse(prompt);
+            if (random.nextDouble() < options.malformedRate()) {
+                malformed.incrementAndGet();
+                text = text.substring(0, text.length() / 2);
+            }
+            send(exchange, 200, objectMapper.writeValueAsString(Map.of(
+                    "candidates", List.of(Map.of(
+                            "content", Map.of("role", "model", "parts", List.of(Map.of("text", text))),
+                            "finishReason", "STOP")),
+                    "usageMetadata", Map.of(
+                            "promptTokenCount", (prompt.length() + 3) / 4,
+                            "candidatesTokenCount", (text.length() + 3) / 4,
+                            "totalTokenCount", (prompt.length() + text.length() + 6) / 4))));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String promptText(byte[] requestBody) throws IOException {
+        JsonNode body = objectMapper.readTree(requestBody);
+        return body.path("contents").path(0).path("parts").path(0).path("text").asText("");
+    }
+
+    private String singleResponse(String prompt) {
+        Matcher matcher = SINGLE_INPUT.matcher(prompt);
+        return matcher.find() ? responses.getOrDefault(matcher.group(1).trim(), UNKNOWN_RESPONSE) : UNKNOWN_RESPONSE;
+    }
+
+    private String batchResponse(String prompt) {
+        List<String> items = new ArrayList<>();
+        Matcher matcher = BATCH_LINE.matcher(prompt.substring(prompt.indexOf("USER INPUTS")));
+        while (matcher.find()) {
+            items.add(responses.getOrDefault(matcher.group(1).trim(), UNKNOWN_RESPONSE));
+        }
+        return "[" + String.join(",", items) + "]";
+    }
+
+    private void sleep() {
+        long delayMs = options.latency().toMillis();
+        if (!options.jitter().isZero()) {
+            delayMs += ThreadLocalRandom.current().nextLong(options.jitter().toMillis() + 1);
+        }
+        if (delayMs <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.portfolio.wallet.service;
+
+import com.portfolio.PortfolioApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+
+/**
+ * Entry point of the offline NLP benchmark (test classpath only, không đóng gói vào app.jar)
+ *
+ * Chạy: ./mvnw spring-boot:test-run -Dspring-boot.run.main-class=com.portfolio.wallet.service.NLPBenchmarkApplication
+ */
+public class NLPBenchmarkApplication {
+
+    public static void main(String[] args) {
+        new SpringApplicationBuilder(PortfolioApplication.class)
+                .profiles("nlp-benchmark")
+                .run(args);
+    }
+}
@@ -0,0 +1,435 @@
+package com.portfolio.wallet.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.portfolio.wallet.dto.request.CreateAccountRequest;
+import com.portfolio.wallet.dto.request.CreateCategoryRequest;
+import com.portfolio.wallet.dto.request.ParseTransactionRequest;
+import com.portfolio.wallet.dto.response.ConfirmDraftData;
+import com.portfolio.wallet.dto.response.NLPResponse;
+import com.portfolio.wallet.model.Account;
+import com.portfolio.wallet.model.AccountType;
+import com.portfolio.wallet.model.Category;
+import com.portfolio.wallet.repository.AccountRepository;
+import com.portfolio.wallet.repository.CategoryRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Offline NLP benchmark (profile nlp-benchmark)
+ *
+ * Replay corpus tiếng Việt qua NLPService.parseTransaction với Gemini là GeminiStubServer chạy local
+ * (không tốn quota), rồi log báo cáo:
+ * - Thời gian từng stage (nlp.stage.duration: buildContext, fastPath, buildPrompt, http, parseResponse, buildDraft)
+ * - End-to-end latency p50/p95/p99 và throughput với nlp.benchmark.concurrency request đồng thời
+ * - Accuracy so với expected (intent, responseType, từng field của draft)
+ *
+ * Corpus (nlp.benchmark.corpus): fixtures (accounts, categories được tạo cho benchmark user nếu chưa có)
+ * + cases {text, gemini, expected}. Trong gemini, accountMatch/categoryMatch ghi theo "name" và được đổi
+ * thành id của benchmark user trước khi nạp vào stub.
+ *
+ * Chạy qua NLPBenchmarkApplication (test classpath, cần MongoDB local).
+ */
+@Slf4j
+@Component
+@Profile("nlp-benchmark")
+@RequiredArgsConstructor
+public class NLPBenchmarkRunner implements ApplicationRunner {
+
+    private static final String TIMEZONE = "Asia/Ho_Chi_Minh";
+    private static final String LOCALE = "vi-VN";
+
+    private final NLPService nlpService;
+    private final NLPContextCache nlpContextCache;
+    private final AccountService accountService;
+    private final CategoryService categoryService;
+    private final AccountRepository accountRepository;
+    private final CategoryRepository categoryRepository;
+    private final MeterRegistry meterRegistry;
+    private final ConfigurableApplicationContext applicationContext;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Value("${nlp.benchmark.corpus:classpath:nlp-benchmark/corpus.json}")
+    private Resource corpus;
+
+    @Value("${nlp.benchmark.user-id:nlp-benchmark}")
+    private String userId;
+
+    /**
+     * Số lần replay toàn bộ corpus
+     */
+    @Value("${nlp.benchmark.iterations:5}")
+    private int iterations;
+
+    @Value("${nlp.benchmark.concurrency:8}")
+    private int concurrency;
+
+    /**
+     * Bỏ NLP context cache trước mỗi request để đo buildContext mỗi lần
+     */
+    @Value("${nlp.benchmark.cold-context:false}")
+    private boolean coldContext;
+
+    /**
+     * Accuracy (exact match) tối thiểu, thấp hơn → exit code 1
+     */
+    @Value("${nlp.benchmark.min-accuracy:0.0}")
+    private double minAccuracy;
+
+    @Value("${nlp.benchmark.exit-on-finish:true}")
+    private boolean exitOnFinish;
+
+    @Value("${nlp.benchmark.stub.port:18089}")
+    private int stubPort;
+
+    @Value("${nlp.benchmark.stub.latency:PT0.3S}")
+    private Duration stubLatency;
+
+    @Value("${nlp.benchmark.stub.jitter:PT0.2S}")
+    private Duration stubJitter;
+
+    @Value("${nlp.benchmark.stub.error-rate:0.0}")
+    private double stubErrorRate;
+
+    @Value("${nlp.benchmark.stub.error-status:503}")
+    private int stubErrorStatus;
+
+    @Value("${nlp.benchmark.stub.malformed-rate:0.0}")
+    private double stubMalformedRate;
+
+    @Value("${nlp.benchmark.stub.threads:64}")
+    private int stubThreads;
+
+    private record Corpus(List<Map<String, Object>> accounts, List<String> categories, List<Case> cases) {
+    }
+
+    private record Case(String text, Map<String, Object> gemini, Map<String, Object> expected) {
+    }
+
+    private record Outcome(Case benchmarkCase, NLPResponse response, long nanos) {
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Corpus loaded = loadCorpus();
+        seedFixtures(loaded);
+        Map<String, String> stubResponses = stubResponses(loaded.cases());
+
+        int exitCode;
+        GeminiStubServer.Options options = new GeminiStubServer.Options(stubLatency, stubJitter, stubErrorRate,
+                stubErrorStatus, stubMalformedRate, stubThreads);
+        try (GeminiStubServer stub = new GeminiStubServer(stubPort, stubResponses, options)) {
+            stub.start();
+            log.info("NLP benchmark: {} cases x {} iterations, concurrency {}, user {}",
+                    loaded.cases().size(), iterations, concurrency, userId);
+
+            long startNanos = System.nanoTime();
+            List<Outcome> outcomes = replay(loaded.cases());
+            long wallNanos = System.nanoTime() - startNanos;
+
+            reportStages();
+            reportThroughput(outcomes, wallNanos, stub);
+            double accuracy = reportAccuracy(outcomes);
+            exitCode = accuracy < minAccuracy ? 1 : 0;
+        }
+
+        if (exitOnFinish) {
+            int code = exitCode;
+            System.exit(SpringApplication.exit(applicationContext, () -> code));
+        }
+    }
+
+    private Corpus loadCorpus() throws IOException {
+        Map<String, Object> root;
+        try (InputStream in = corpus.getInputStream()) {
+            root = objectMapper.readValue(in, new TypeReference<Map<String, Object>>() { });
+        }
+        Map<String, Object> fixtures = objectMapper.convertValue(root.getOrDefault("fixtures", Map.of()),
+                new TypeReference<Map<String, Object>>() { });
+        List<Map<String, Object>> accounts = objectMapper.convertValue(fixtures.getOrDefault("accounts", List.of()),
+                new TypeReference<List<Map<String, Object>>>() { });
+        List<String> categories = objectMapper.convertValue(fixtures.getOrDefault("categories", List.of()),
+                new TypeReference<List<String>>() { });
+        List<Case> cases = objectMapper.convertValue(root.getOrDefault("cases", List.of()),
+                        new TypeReference<List<Map<String, Object>>>() { })
+                .stream()
+                .map(item -> new Case(
+                        (String) item.get("text"),
+                        objectMapper.convertValue(item.getOrDefault("gemini", Map.of()),
+                                new TypeReference<Map<String, Object>>() { }),
+                        objectMapper.convertValue(item.getOrDefault("expected", Map.of()),
+                                new TypeReference<Map<String, Object>>() { })))
+                .collect(Collectors.toList());
+        return new Corpus(accounts, categories, cases);
+    }
+
+    /**
+     * Tạo accounts/categories của corpus cho benchmark user (bỏ qua cái đã có theo tên)
+     */
+    private void seedFixtures(Corpus loaded) {
+        Map<String, String> accountIds = accountIds();
+        for (Map<String, Object> account : loaded.accounts()) {
+            String name = (String) account.get("name");
+            if (!accountIds.containsKey(key(name))) {
+                accountService.createAccount(CreateAccountRequest.builder()
+                        .name(name)
+                        .type(AccountType.valueOf(String.valueOf(account.getOrDefault("type", "CASH"))))
+                        .currency("VND")
+                        .build(), userId);
+            }
+        }
+        Map<String, String> categoryIds = categoryIds();
+        for (String name : loaded.categories()) {
+            if (!categoryIds.containsKey(key(name))) {
+                categoryService.createCategory(CreateCategoryRequest.builder().name(name).build(), userId);
+            }
+        }
+        nlpContextCache.invalidate(userId);
+    }
+
+    /**
+     * Response của stub theo input: accountMatch/categoryMatch {"name"} → {"id"} của benchmark user
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, String> stubResponses(List<Case> cases) throws IOException {
+        Map<String, String> accountIds = accountIds();
+        Map<String, String> categoryIds = categoryIds();
+        Map<String, String> responses = new HashMap<>();
+        for (Case benchmarkCase : cases) {
+            if (benchmarkCase.gemini().isEmpty()) {
+                continue;
+            }
+            Map<String, Object> gemini = objectMapper.convertValue(benchmarkCase.gemini(),
+                    new TypeReference<Map<String, Object>>() { });
+            if (gemini.get("entities") instanceof Map<?, ?> entities) {
+                resolveMatch((Map<String, Object>) entities, "accountMatch", accountIds);
+                resolveMatch((Map<String, Object>) entities, "categoryMatch", categoryIds);
+            }
+            responses.put(benchmarkCase.text().trim(), objectMapper.writeValueAsString(gemini));
+        }
+        return responses;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void resolveMatch(Map<String, Object> entities, String field, Map<String, String> ids) {
+        if (!(entities.get(field) instanceof Map<?, ?> match) || !(match.get("name") instanceof String name)) {
+            return;
+        }
+        Map<String, Object> resolved = new HashMap<>((Map<String, Object>) match);
+        resolved.remove("name");
+        String id = ids.get(key(name));
+        if (id == null) {
+            log.warn("NLP benchmark: {} '{}' is not in the fixtures, leaving it unresolved", field, name);
+            return;
+        }
+        resolved.put("id", id);
+        entities.put(field, resolved);
+    }
+
+    private List<Outcome> replay(List<Case> cases) throws InterruptedException {
+        List<Callable<Outcome>> tasks = new ArrayList<>();
+        for (int i = 0; i < iterations; i++) {
+            for (Case benchmarkCase : cases) {
+                tasks.add(() -> parse(benchmarkCase));
+            }
+        }
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            List<Outcome> outcomes = new ArrayList<>(tasks.size());
+            for (Future<Outcome> future : workers.invokeAll(tasks)) {
+                try {
+                    outcomes.add(future.get());
+                } catch (ExecutionException e) {
+                    log.warn("NLP benchmark request failed", e.getCause());
+                }
+            }
+            return outcomes;
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private Outcome parse(Case benchmarkCase) {
+        if (coldContext) {
+            nlpContextCache.invalidate(userId);
+        }
+        ParseTransactionRequest request = ParseTransactionRequest.builder()
+                .text(benchmarkCase.text())
+                .timezone(TIMEZONE)
+                .locale(LOCALE)
+                .build();
+        long startNanos = System.nanoTime();
+        NLPResponse response;
+        try {
+            response = nlpService.parseTransaction(request, userId).join();
+        } catch (CompletionException e) {
+            log.debug("NLP benchmark parse failed for '{}'", benchmarkCase.text(), e);
+            response = null;
+        }
+        return new Outcome(benchmarkCase, response, System.nanoTime() - startNanos);
+    }
+
+    private void reportStages() {
+        StringBuilder report = new StringBuilder("NLP benchmark stage timings (ms):\n");
+        report.append(String.format(Locale.ROOT, "  %-14s %8s %9s %9s %9s %9s %9s%n",
+                "stage", "count", "mean", "p50", "p95", "p99", "max"));
+        for (Timer timer : meterRegistry.find(NLPStageMetrics.METRIC).timers()) {
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            Map<Double, Double> percentiles = Arrays.stream(snapshot.percentileValues())
+                    .collect(Collectors.toMap(ValueAtPercentile::percentile,
+                            value -> value.value(TimeUnit.MILLISECONDS), (a, b) -> a));
+            report.append(String.format(Locale.ROOT, "  %-14s %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    timer.getId().getTag("stage"), snapshot.count(),
+                    snapshot.mean(TimeUnit.MILLISECONDS),
+                    percentiles.getOrDefault(0.5, Double.NaN),
+                    percentiles.getOrDefault(0.95, Double.NaN),
+                    percentiles.getOrDefault(0.99, Double.NaN),
+                    snapshot.max(TimeUnit.MILLISECONDS)));
+        }
+        log.info(report.toString());
+    }
+
+    private void reportThroughput(List<Outcome> outcomes, long wallNanos, GeminiStubServer stub) {
+        long[] latencies = outcomes.stream().mapToLong(Outcome::nanos).sorted().toArray();
+        double seconds = wallNanos / 1e9;
+        log.info("NLP benchmark throughput: {} requests in {}s = {} req/s (concurrency {}); "
+                        + "latency ms p50={} p95={} p99={} max={}; stub calls={} (injected errors={}, malformed={})",
+                outcomes.size(), format(seconds), format(outcomes.size() / seconds), concurrency,
+                format(percentile(latencies, 0.5)), format(percentile(latencies, 0.95)),
+                format(percentile(latencies, 0.99)), format(percentile(latencies, 1.0)),
+                stub.getCalls(), stub.getInjectedErrors(), stub.getMalformed());
+    }
+
+    /**
+     * Accuracy theo intent, responseType và từng field của draft
+     *
+     * @return Tỉ lệ request khớp toàn bộ expected
+     */
+    private double reportAccuracy(List<Outcome> outcomes) {
+        Map<String, int[]> fields = new TreeMap<>();
+        int exact = 0;
+        Map<String, String> mismatches = new LinkedHashMap<>();
+        for (Outcome outcome : outcomes) {
+            Map<String, Object> actual = actual(outcome.response());
+            boolean allMatched = true;
+            for (Map.Entry<String, Object> expected : flatten(outcome.benchmarkCase().expected()).entrySet()) {
+                boolean matched = matches(expected.getValue(), actual.get(expected.getKey()));
+                int[] counts = fields.computeIfAbsent(expected.getKey(), key -> new int[2]);
+                counts[0] += matched ? 1 : 0;
+                counts[1]++;
+                if (!matched) {
+                    allMatched = false;
+                    mismatches.putIfAbsent(outcome.benchmarkCase().text() + " / " + expected.getKey(),
+                            "expected " + expected.getValue() + ", got " + actual.get(expected.getKey()));
+                }
+            }
+            exact += allMatched ? 1 : 0;
+        }
+        double accuracy = outcomes.isEmpty() ? 0 : (double) exact / outcomes.size();
+
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+                "NLP benchmark accuracy: %d/%d exact (%.1f%%)%n", exact, outcomes.size(), accuracy * 100));
+        fields.forEach((field, counts) -> report.append(String.format(Locale.ROOT, "  %-22s %d/%d (%.1f%%)%n",
+                field, counts[0], counts[1], 100.0 * counts[0] / counts[1])));
+        mismatches.forEach((key, detail) -> report.append("  MISMATCH ").append(key).append(": ").append(detail).append('\n'));
+        log.info(report.toString());
+        return accuracy;
+    }
+
+    /**
+     * intent, responseType và draft.* của response (null = request lỗi)
+     */
+    private Map<String, Object> actual(NLPResponse response) {
+        Map<String, Object> actual = new HashMap<>();
+        if (response == null) {
+            return actual;
+        }
+        actual.put("intent", response.getIntent() != null ? response.getIntent().name() : null);
+        actual.put("responseType", response.getResponseType() != null ? response.getResponseType().name() : null);
+        if (response.getData() instanceof ConfirmDraftData confirm && confirm.getDraft() != null) {
+            Map<String, Object> draft = objectMapper.convertValue(confirm.getDraft(),
+                    new TypeReference<Map<String, Object>>() { });
+            draft.forEach((field, value) -> actual.put("draft." + field, value));
+        }
+        return actual;
+    }
+
+    private Map<String, Object> flatten(Map<String, Object> expected) {
+        Map<String, Object> flat = new LinkedHashMap<>();
+        expected.forEach((field, value) -> {
+            if (value instanceof Map<?, ?> nested) {
+                nested.forEach((nestedField, nestedValue) -> flat.put(field + "." + nestedField, nestedValue));
+            } else {
+                flat.put(field, value);
+            }
+        });
+        return flat;
+    }
+
+    private boolean matches(Object expected, Object actual) {
+        if (expected instanceof Number && actual instanceof Number) {
+            return new BigDecimal(expected.toString()).compareTo(new BigDecimal(actual.toString())) == 0;
+        }
+        return Objects.equals(expected, actual);
+    }
+
+    private Map<String, String> accountIds() {
+        return accountRepository.findByUserIdAndDeletedFalse(userId).stream()
+                .collect(Collectors.toMap(account -> key(account.getName()), Account::getId, (a, b) -> a));
+    }
+
+    private Map<String, String> categoryIds() {
+        return categoryRepository.findAllCategoriesForUser(userId).stream()
+                .collect(Collectors.toMap(category -> key(category.getName()), Category::getId, (a, b) -> a));
+    }
+
+    private static String key(String name) {
+        return name == null ? "" : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, Math.min(index, sortedNanos.length - 1))] / 1e6;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}